@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream which writes into the remaining space of a ByteBuffer.
+ * Writing more bytes than remain in the buffer fails with a
+ * {@link BufferOverflowException}.
+ */
+final class ByteBufferOutputStream extends OutputStream
+{
+    private final ByteBuffer buffer;
+
+    ByteBufferOutputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b)
+    {
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+    {
+        buffer.put(bytes, offset, length);
+    }
+}
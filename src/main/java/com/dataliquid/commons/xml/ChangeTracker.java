@@ -0,0 +1,384 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+import org.w3c.dom.events.MutationEvent;
+
+/**
+ * Tracks the changes of a Document. Every change increments the version of the
+ * Document and is reported to the registered {@link Listener}s, so indexes and
+ * caches keyed on the Document can be updated incrementally instead of being
+ * rebuilt.
+ * <p>
+ * Changes are observed through DOM mutation events, so mutations made directly
+ * through the DOM API are seen as well; Documents that do not support them
+ * cannot be tracked. Renaming does not raise a mutation event and is only
+ * reported for {@link DomUtils#renameNode(Node, String, String)}, not for
+ * {@link Document#renameNode(Node, String, String)}. A tracker is attached with
+ * {@link DomUtils#track(Node)}.
+ * <p>
+ * A tracker is shared by all its users, i.e. explicit {@code track} calls, a
+ * {@link DocumentIndex} and an {@link XPathResultCache}, and removed from the
+ * Document together with its event listeners once the last user has released
+ * it, so an untracked Document does not pay for event dispatch.
+ */
+public final class ChangeTracker
+{
+    static final String USER_DATA_KEY = ChangeTracker.class.getName();
+
+    private static final String[] EVENT_TYPES = { "DOMNodeInserted", "DOMNodeRemoved", "DOMAttrModified", "DOMCharacterDataModified" };
+
+    private final Document document;
+    private final AtomicLong version = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final EventListener eventListener = new EventListener()
+    {
+        @Override
+        public void handleEvent(Event event)
+        {
+            fire(toChange((MutationEvent) event));
+        }
+    };
+    private int users;
+    private int trackers;
+
+    private ChangeTracker(Document document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * Returns the tracker attached to the Document of the given Node.
+     *
+     * @param node
+     *            a Node of the Document
+     * @return the attached tracker, or null if the Document is not tracked
+     */
+    static ChangeTracker get(Node node)
+    {
+        Document document = DomUtils.getOwnerDocument(node);
+        return (document != null) ? (ChangeTracker) document.getUserData(USER_DATA_KEY) : null;
+    }
+
+    /**
+     * Returns the tracker attached to the given Document, attaching a new one if
+     * there is none, and registers one more user of it. Every call must be
+     * balanced by a call to {@link #release()}.
+     *
+     * @throws IllegalArgumentException
+     *             if the Document does not support DOM mutation events
+     */
+    static ChangeTracker attach(Document document)
+    {
+        return attach(document, false);
+    }
+
+    /**
+     * Like {@link #attach(Document)}, but registers an explicit
+     * {@link DomUtils#track(Node)} call, which is balanced by {@link #untrack()}.
+     */
+    static ChangeTracker track(Document document)
+    {
+        return attach(document, true);
+    }
+
+    private static ChangeTracker attach(Document document, boolean explicit)
+    {
+        if (!(document instanceof EventTarget))
+        {
+            throw new IllegalArgumentException("Document does not support DOM mutation events - changes cannot be tracked");
+        }
+        synchronized (document)
+        {
+            ChangeTracker tracker = get(document);
+            if (tracker == null)
+            {
+                tracker = new ChangeTracker(document);
+                document.setUserData(USER_DATA_KEY, tracker, null);
+                for (String type : EVENT_TYPES)
+                {
+                    ((EventTarget) document).addEventListener(type, tracker.eventListener, true);
+                }
+            }
+            if (explicit)
+            {
+                tracker.trackers++;
+            }
+            else
+            {
+                tracker.users++;
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * Unregisters a user of this tracker and detaches it from its Document when
+     * it was the last one.
+     */
+    void release()
+    {
+        synchronized (document)
+        {
+            if (users > 0)
+            {
+                users--;
+                detachIfUnused();
+            }
+        }
+    }
+
+    /**
+     * Unregisters an explicit {@link DomUtils#track(Node)} call. Explicit calls
+     * are counted apart from the internal users, so an unbalanced call cannot
+     * detach the tracker an index or a result cache still depends on.
+     *
+     * @throws IllegalStateException
+     *             if there is no explicit track call left to balance
+     */
+    void untrack()
+    {
+        synchronized (document)
+        {
+            if (trackers == 0)
+            {
+                throw new IllegalStateException("untrack without a matching track call");
+            }
+            trackers--;
+            detachIfUnused();
+        }
+    }
+
+    private void detachIfUnused()
+    {
+        if (users == 0 && trackers == 0)
+        {
+            detach();
+        }
+    }
+
+    private void detach()
+    {
+        document.setUserData(USER_DATA_KEY, null, null);
+        for (String type : EVENT_TYPES)
+        {
+            ((EventTarget) document).removeEventListener(type, eventListener, true);
+        }
+    }
+
+    /**
+     * Returns the version of the Document, which is incremented by every change.
+     *
+     * @return the current version
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Registers a Listener to be notified of every change.
+     *
+     * @param listener
+     *            the Listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered Listener.
+     *
+     * @param listener
+     *            the Listener to remove
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    void fire(Change change)
+    {
+        version.incrementAndGet();
+        for (Listener listener : listeners)
+        {
+            listener.changed(change);
+        }
+    }
+
+    private static Change toChange(MutationEvent event)
+    {
+        Node target = (Node) event.getTarget();
+        switch (event.getType())
+        {
+            case "DOMNodeInserted":
+                return new Change(ChangeType.INSERTED, target, null, null, null, null);
+            case "DOMNodeRemoved":
+                return new Change(ChangeType.REMOVED, target, null, null, null, null);
+            case "DOMAttrModified":
+                String oldValue = (event.getAttrChange() == MutationEvent.ADDITION) ? null : event.getPrevValue();
+                String newValue = (event.getAttrChange() == MutationEvent.REMOVAL) ? null : event.getNewValue();
+                return new Change(ChangeType.ATTRIBUTE, target, null, event.getAttrName(), oldValue, newValue);
+            default:
+                return new Change(ChangeType.TEXT, target, null, null, event.getPrevValue(), event.getNewValue());
+        }
+    }
+
+    /**
+     * Receives the changes of a tracked Document. Listeners are called
+     * synchronously by the thread making the change, after the change for
+     * insertions and attribute changes and before it for removals.
+     */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /**
+         * Called for every change of the tracked Document.
+         *
+         * @param change
+         *            the change
+         */
+        void changed(Change change);
+    }
+
+    /**
+     * The kinds of changes reported by a ChangeTracker.
+     */
+    public enum ChangeType
+    {
+        /**
+         * A Node has been inserted; the Node is the root of the inserted subtree.
+         */
+        INSERTED,
+        /**
+         * A Node is about to be removed; the Node is the root of the removed
+         * subtree and still attached.
+         */
+        REMOVED,
+        /**
+         * An attribute has been added, changed or removed; the Node is the owner
+         * Element.
+         */
+        ATTRIBUTE,
+        /**
+         * The data of a text, CDATA, comment or processing instruction Node has
+         * changed.
+         */
+        TEXT,
+        /**
+         * A Node has been renamed; the Node is the renamed Node, which may be a
+         * replacement of the previous Node.
+         */
+        RENAMED
+    }
+
+    /**
+     * An immutable description of a single change.
+     */
+    public static final class Change
+    {
+        private final ChangeType type;
+        private final Node node;
+        private final Node previousNode;
+        private final String name;
+        private final String oldValue;
+        private final String newValue;
+
+        Change(ChangeType type, Node node, Node previousNode, String name, String oldValue, String newValue)
+        {
+            this.type = type;
+            this.node = node;
+            this.previousNode = previousNode;
+            this.name = name;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        static Change renamed(Node node, Node previousNode, String oldName)
+        {
+            return new Change(ChangeType.RENAMED, node, previousNode, null, oldName, node.getNodeName());
+        }
+
+        /**
+         * @return the kind of change
+         */
+        public ChangeType getType()
+        {
+            return type;
+        }
+
+        /**
+         * @return the changed Node
+         */
+        public Node getNode()
+        {
+            return node;
+        }
+
+        /**
+         * @return the Node before a rename, which is the changed Node itself unless
+         *         the DOM implementation had to replace it, or null for other
+         *         changes
+         */
+        public Node getPreviousNode()
+        {
+            return previousNode;
+        }
+
+        /**
+         * @return the name of the changed attribute, or null for other changes
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the previous attribute value, character data or name, or null if
+         *         there was none
+         */
+        public String getOldValue()
+        {
+            return oldValue;
+        }
+
+        /**
+         * @return the new attribute value, character data or name, or null if
+         *         there is none
+         */
+        public String getNewValue()
+        {
+            return newValue;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Change[type=" + type + ", node=" + node.getNodeName() + ", name=" + name + ", oldValue=" + oldValue + ", newValue=" + newValue
+                    + "]";
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An OutputStream which collects bytes in a fixed-size buffer and writes them
+ * to a WritableByteChannel whenever the buffer is full. Closing the stream
+ * flushes the buffer but leaves the channel open.
+ */
+final class ChannelOutputStream extends OutputStream
+{
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    ChannelOutputStream(WritableByteChannel channel, ByteBuffer buffer)
+    {
+        if (buffer.capacity() == 0)
+        {
+            throw new IllegalArgumentException("Buffer must not be empty");
+        }
+        this.channel = channel;
+        this.buffer = buffer;
+        // cast to Buffer, the covariant ByteBuffer overrides do not exist on Java 8
+        ((Buffer) buffer).clear();
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (!buffer.hasRemaining())
+        {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        int position = offset;
+        int remaining = length;
+        while (remaining > 0)
+        {
+            if (!buffer.hasRemaining())
+            {
+                drain();
+            }
+            int count = Math.min(remaining, buffer.remaining());
+            buffer.put(bytes, position, count);
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        drain();
+    }
+
+    private void drain() throws IOException
+    {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.w3c.dom.Node;
+
+/**
+ * A Spliterator over the descendants of a Node in document order. The range
+ * of a Spliterator is a pre-order walk starting at a Node and ending at a stop
+ * Node or at the end of the bounding Node. Splitting cuts the range at a
+ * subtree boundary: the sibling in the middle of the highest level that still
+ * has following siblings becomes the start of the remaining range, and the
+ * returned Spliterator covers everything before it.
+ * <p>
+ * Only {@code getFirstChild}, {@code getNextSibling} and
+ * {@code getParentNode} are used, so concurrent walks are safe on a fully
+ * expanded document that is not modified.
+ */
+final class DescendantSpliterator implements Spliterator<Node>
+{
+    private static final int CHARACTERISTICS = ORDERED | NONNULL;
+
+    private final Node bound;
+    private final Node stop;
+    private Node next;
+    private long estimate;
+
+    private DescendantSpliterator(Node bound, Node next, Node stop, long estimate)
+    {
+        this.bound = bound;
+        this.next = next;
+        this.stop = stop;
+        this.estimate = estimate;
+    }
+
+    /**
+     * Creates a Spliterator over the descendants of the given Node, excluding
+     * the Node itself.
+     *
+     * @param node
+     *            the Node whose descendants should be covered
+     * @return the Spliterator over the descendants
+     */
+    static DescendantSpliterator of(Node node)
+    {
+        return new DescendantSpliterator(node, node.getFirstChild(), null, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action)
+    {
+        if (next == null)
+        {
+            return false;
+        }
+        Node current = next;
+        next = successor(current);
+        action.accept(current);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Node> action)
+    {
+        Node current = next;
+        next = null;
+        while (current != null)
+        {
+            Node following = successor(current);
+            action.accept(current);
+            current = following;
+        }
+    }
+
+    @Override
+    public Spliterator<Node> trySplit()
+    {
+        if (next == null)
+        {
+            return null;
+        }
+        Node middle = selectSplitNode();
+        if (middle == null)
+        {
+            return null;
+        }
+        estimate >>>= 1;
+        DescendantSpliterator prefix = new DescendantSpliterator(bound, next, middle, estimate);
+        next = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return (next == null) ? 0 : estimate;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return CHARACTERISTICS;
+    }
+
+    private Node successor(Node node)
+    {
+        Node result = node.getFirstChild();
+        Node current = node;
+        while (result == null)
+        {
+            result = current.getNextSibling();
+            if (result == null)
+            {
+                current = current.getParentNode();
+                if (current == null || current == bound)
+                {
+                    return null;
+                }
+            }
+        }
+        return (result == stop) ? null : result;
+    }
+
+    private Node selectSplitNode()
+    {
+        // the path from the child of the bound down to next, followed by the
+        // first child of next, each level offering its following siblings
+        List<Node> levels = path(next);
+        if (next.getFirstChild() != null)
+        {
+            levels.add(next.getFirstChild());
+        }
+        List<Node> stopPath = (stop != null) ? path(stop) : new ArrayList<>();
+
+        for (Node level : levels)
+        {
+            if (containsNode(stopPath, level))
+            {
+                // the stop lies within this level, its following siblings come after it
+                continue;
+            }
+            int count = 0;
+            for (Node sibling = level.getNextSibling(); sibling != null && !containsNode(stopPath, sibling); sibling = sibling
+                    .getNextSibling())
+            {
+                count++;
+            }
+            if (count > 0)
+            {
+                Node middle = level.getNextSibling();
+                for (int i = 0; i < count / 2; i++)
+                {
+                    middle = middle.getNextSibling();
+                }
+                return middle;
+            }
+        }
+        return null;
+    }
+
+    private List<Node> path(Node node)
+    {
+        List<Node> result = new ArrayList<>();
+        for (Node current = node; current != null && current != bound; current = current.getParentNode())
+        {
+            result.add(0, current);
+        }
+        return result;
+    }
+
+    private static boolean containsNode(List<Node> nodes, Node node)
+    {
+        for (Node candidate : nodes)
+        {
+            if (candidate == node)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
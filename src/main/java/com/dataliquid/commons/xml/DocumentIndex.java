@@ -0,0 +1,454 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.DomUtils.NodeVisitor;
+import com.dataliquid.commons.xml.DomUtils.Traversal;
+
+/**
+ * An index of the Elements of a Document by qualified name and by the values
+ * of selected key attributes, similar to {@code xsl:key}. The index is built
+ * in one pass and attached to its Document by
+ * {@link DomUtils#index(Node, String...)}; afterwards
+ * {@link DomUtils#selectNodes(Node, String, javax.xml.namespace.NamespaceContext...)}
+ * answers {@code //name} and {@code //name[@key='value']} from it.
+ * <p>
+ * The index listens to the {@link ChangeTracker} of its Document and updates
+ * itself incrementally: inserted and removed subtrees, changed key attributes
+ * and renames reported by the tracker touch only the affected entries.
+ * Documents without DOM mutation events cannot be indexed. The tracker does
+ * not see renames through {@link Document#renameNode(Node, String, String)}:
+ * {@code selectNodes} re-checks the name and attribute of every candidate, so
+ * an Element renamed that way is no longer returned under its old name, but
+ * it is only found under its new name after {@link #markStale()}, which forces
+ * a rebuild by the next lookup. Use
+ * {@link DomUtils#renameNode(Node, String, String)} to keep the index current. Lookups return
+ * unmodifiable snapshots in document order, so the Document may be changed
+ * while iterating them.
+ */
+public final class DocumentIndex
+{
+    static final String USER_DATA_KEY = DocumentIndex.class.getName();
+
+    private static final Pattern DESCENDANT_PATH = Pattern
+            .compile("//([\\p{L}_][\\p{L}\\p{N}_.\\-]*)(?:\\[@([\\p{L}_][\\p{L}\\p{N}_.\\-]*)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\])?");
+    private static final Comparator<Node> DOCUMENT_ORDER = DocumentIndex::compareDocumentOrder;
+
+    private final Document document;
+    private final Set<String> keyAttributes;
+    private final ChangeTracker.Listener listener = new ChangeTracker.Listener()
+    {
+        @Override
+        public void changed(ChangeTracker.Change change)
+        {
+            update(change);
+        }
+    };
+    private Map<String, List<Element>> elementsByName;
+    private Map<String, Map<String, List<Element>>> elementsByKey;
+    private boolean stale = true;
+
+    DocumentIndex(Document document, String... keyAttributes)
+    {
+        this.document = document;
+        this.keyAttributes = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(keyAttributes)));
+    }
+
+    /**
+     * Returns the index attached to the Document of the given Node.
+     *
+     * @param node
+     *            a Node of the Document
+     * @return the attached index, or null if the Document is not indexed
+     */
+    static DocumentIndex get(Node node)
+    {
+        Document document = DomUtils.getOwnerDocument(node);
+        return (document != null) ? (DocumentIndex) document.getUserData(USER_DATA_KEY) : null;
+    }
+
+    void attach()
+    {
+        ChangeTracker.attach(document).addListener(listener);
+        document.setUserData(USER_DATA_KEY, this, null);
+    }
+
+    void detach()
+    {
+        if (document.getUserData(USER_DATA_KEY) != this)
+        {
+            return;
+        }
+        document.setUserData(USER_DATA_KEY, null, null);
+        ChangeTracker tracker = ChangeTracker.get(document);
+        if (tracker != null)
+        {
+            tracker.removeListener(listener);
+            tracker.release();
+        }
+    }
+
+    /**
+     * Returns the Elements with the given qualified name.
+     *
+     * @param name
+     *            the qualified name as returned by {@link Node#getNodeName()}
+     * @return the matching Elements in document order
+     */
+    public synchronized List<Element> lookup(String name)
+    {
+        ensureBuilt();
+        List<Element> result = elementsByName.get(name);
+        return (result != null) ? Collections.unmodifiableList(new ArrayList<>(result)) : Collections.<Element> emptyList();
+    }
+
+    /**
+     * Returns the Elements whose key attribute has the given value.
+     *
+     * @param attribute
+     *            the name of a key attribute of this index
+     * @param value
+     *            the attribute value
+     * @return the matching Elements in document order
+     * @throws IllegalArgumentException
+     *             if the attribute is not a key attribute of this index
+     */
+    public synchronized List<Element> lookupByKey(String attribute, String value)
+    {
+        if (!keyAttributes.contains(attribute))
+        {
+            throw new IllegalArgumentException("Attribute '" + attribute + "' is not indexed - key attributes: " + keyAttributes);
+        }
+        ensureBuilt();
+        List<Element> result = elementsByKey.get(attribute).get(value);
+        return (result != null) ? Collections.unmodifiableList(new ArrayList<>(result)) : Collections.<Element> emptyList();
+    }
+
+    /**
+     * Returns the key attributes of this index.
+     *
+     * @return the unmodifiable set of key attribute names
+     */
+    public Set<String> getKeyAttributes()
+    {
+        return keyAttributes;
+    }
+
+    /**
+     * Checks if the index has to be rebuilt by the next lookup.
+     *
+     * @return true if the index is stale
+     */
+    public synchronized boolean isStale()
+    {
+        return stale;
+    }
+
+    /**
+     * Marks the index as stale, so that the next lookup rebuilds it. Needed only
+     * after changes the {@link ChangeTracker} of the Document cannot see.
+     */
+    public synchronized void markStale()
+    {
+        stale = true;
+    }
+
+    private synchronized void update(ChangeTracker.Change change)
+    {
+        if (stale)
+        {
+            return;
+        }
+        switch (change.getType())
+        {
+            case INSERTED:
+                visitElements(change.getNode(), true);
+                break;
+            case REMOVED:
+                visitElements(change.getNode(), false);
+                break;
+            case ATTRIBUTE:
+                Map<String, List<Element>> values = elementsByKey.get(change.getName());
+                if (values != null)
+                {
+                    Element element = (Element) change.getNode();
+                    if (change.getOldValue() != null)
+                    {
+                        remove(values, change.getOldValue(), element);
+                    }
+                    if (change.getNewValue() != null)
+                    {
+                        insert(values, change.getNewValue(), element);
+                    }
+                }
+                break;
+            case RENAMED:
+                if (change.getNode().getNodeType() == Node.ELEMENT_NODE)
+                {
+                    Element previous = (Element) change.getPreviousNode();
+                    remove(elementsByName, change.getOldValue(), previous);
+                    if (previous != change.getNode())
+                    {
+                        removeKeys(previous);
+                        insertKeys((Element) change.getNode());
+                    }
+                    insert(elementsByName, change.getNewValue(), (Element) change.getNode());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void visitElements(Node root, boolean inserted)
+    {
+        DomUtils.traverse(root, new NodeVisitor()
+        {
+            @Override
+            public Traversal enter(Node node)
+            {
+                if (node.getNodeType() != Node.ELEMENT_NODE)
+                {
+                    return Traversal.SKIP_SUBTREE;
+                }
+                Element element = (Element) node;
+                if (inserted)
+                {
+                    insert(elementsByName, element.getNodeName(), element);
+                    insertKeys(element);
+                }
+                else
+                {
+                    remove(elementsByName, element.getNodeName(), element);
+                    removeKeys(element);
+                }
+                return Traversal.CONTINUE;
+            }
+        });
+    }
+
+    private void insertKeys(Element element)
+    {
+        for (Map.Entry<String, Map<String, List<Element>>> key : elementsByKey.entrySet())
+        {
+            if (element.hasAttribute(key.getKey()))
+            {
+                insert(key.getValue(), element.getAttribute(key.getKey()), element);
+            }
+        }
+    }
+
+    private void removeKeys(Element element)
+    {
+        for (Map.Entry<String, Map<String, List<Element>>> key : elementsByKey.entrySet())
+        {
+            if (element.hasAttribute(key.getKey()))
+            {
+                remove(key.getValue(), element.getAttribute(key.getKey()), element);
+            }
+        }
+    }
+
+    private static void insert(Map<String, List<Element>> map, String key, Element element)
+    {
+        List<Element> elements = map.get(key);
+        if (elements == null)
+        {
+            elements = new ArrayList<>();
+            map.put(key, elements);
+        }
+        int position = Collections.binarySearch(elements, element, DOCUMENT_ORDER);
+        if (position < 0)
+        {
+            elements.add(-position - 1, element);
+        }
+    }
+
+    private static void remove(Map<String, List<Element>> map, String key, Element element)
+    {
+        List<Element> elements = map.get(key);
+        if (elements == null)
+        {
+            return;
+        }
+        int position = Collections.binarySearch(elements, element, DOCUMENT_ORDER);
+        if (position < 0 || elements.get(position) != element)
+        {
+            position = indexOf(elements, element);
+        }
+        if (position >= 0)
+        {
+            elements.remove(position);
+            if (elements.isEmpty())
+            {
+                map.remove(key);
+            }
+        }
+    }
+
+    private static int indexOf(List<Element> elements, Element element)
+    {
+        for (int i = 0; i < elements.size(); i++)
+        {
+            if (elements.get(i) == element)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int compareDocumentOrder(Node first, Node second)
+    {
+        if (first == second)
+        {
+            return 0;
+        }
+        short position = first.compareDocumentPosition(second);
+        if ((position & Node.DOCUMENT_POSITION_DISCONNECTED) != 0)
+        {
+            return Integer.compare(System.identityHashCode(first), System.identityHashCode(second));
+        }
+        return ((position & Node.DOCUMENT_POSITION_PRECEDING) != 0) ? 1 : -1;
+    }
+
+    /**
+     * Answers {@code //name} and {@code //name[@attribute='value']} from the
+     * index attached to the Document of the given Node.
+     *
+     * @return the matching Elements, or null if the expression cannot be
+     *         answered from an index
+     */
+    static List<Element> select(Node node, String xpath)
+    {
+        DocumentIndex index = get(node);
+        if (index == null || !isInDocument(node))
+        {
+            return null;
+        }
+        Matcher matcher = DESCENDANT_PATH.matcher(xpath);
+        if (!matcher.matches())
+        {
+            return null;
+        }
+        String name = matcher.group(1);
+        String attribute = matcher.group(2);
+        String value = (matcher.group(3) != null) ? matcher.group(3) : matcher.group(4);
+
+        List<Element> candidates;
+        if (attribute == null)
+        {
+            candidates = index.lookup(name);
+        }
+        else if (index.keyAttributes.contains(attribute))
+        {
+            candidates = index.lookupByKey(attribute, value);
+        }
+        else
+        {
+            candidates = index.lookup(name);
+        }
+
+        List<Element> result = new ArrayList<>(candidates.size());
+        for (Element candidate : candidates)
+        {
+            if (candidate.getNamespaceURI() == null && name.equals(candidate.getNodeName())
+                    && (attribute == null || (candidate.hasAttribute(attribute) && value.equals(candidate.getAttribute(attribute)))))
+            {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInDocument(Node node)
+    {
+        Node current = node;
+        while (current.getParentNode() != null)
+        {
+            current = current.getParentNode();
+        }
+        return current.getNodeType() == Node.DOCUMENT_NODE;
+    }
+
+    private void ensureBuilt()
+    {
+        if (!stale)
+        {
+            return;
+        }
+        Map<String, List<Element>> names = new HashMap<>();
+        Map<String, Map<String, List<Element>>> keys = new HashMap<>();
+        for (String keyAttribute : keyAttributes)
+        {
+            keys.put(keyAttribute, new HashMap<String, List<Element>>());
+        }
+        if (document.getDocumentElement() != null)
+        {
+            DomUtils.traverse(document.getDocumentElement(), new NodeVisitor()
+            {
+                @Override
+                public Traversal enter(Node node)
+                {
+                    if (node.getNodeType() != Node.ELEMENT_NODE)
+                    {
+                        return Traversal.SKIP_SUBTREE;
+                    }
+                    Element element = (Element) node;
+                    append(names, element.getNodeName(), element);
+                    for (Map.Entry<String, Map<String, List<Element>>> key : keys.entrySet())
+                    {
+                        if (element.hasAttribute(key.getKey()))
+                        {
+                            append(key.getValue(), element.getAttribute(key.getKey()), element);
+                        }
+                    }
+                    return Traversal.CONTINUE;
+                }
+            });
+        }
+        elementsByName = names;
+        elementsByKey = keys;
+        stale = false;
+    }
+
+    private static void append(Map<String, List<Element>> map, String key, Element element)
+    {
+        List<Element> elements = map.get(key);
+        if (elements == null)
+        {
+            elements = new ArrayList<>();
+            map.put(key, elements);
+        }
+        elements.add(element);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Collects changes to a target Node and applies them in a single step. New
+ * child Nodes are staged in a DocumentFragment of the target Document, so they
+ * are linked into the target with a single insertion. Deletions, renames and
+ * attribute changes are recorded and applied together with the appends.
+ * <p>
+ * {@link #apply()} sets the recorded attributes first, then renames and deletes
+ * the recorded Nodes and finally appends the staged Nodes to the target. If a
+ * rename replaces a Node, a recorded deletion of that Node removes the
+ * replacement. The batch is empty again afterwards and can be reused. A
+ * DomBatch is not thread-safe.
+ */
+public final class DomBatch
+{
+    private final Node target;
+    private final Document document;
+    private final List<Change> changes = new ArrayList<>();
+    private DocumentFragment fragment;
+
+    DomBatch(Node target)
+    {
+        this.target = target;
+        this.document = DomUtils.getOwnerDocument(target);
+        this.fragment = document.createDocumentFragment();
+    }
+
+    /**
+     * Returns the Node the changes are applied to.
+     *
+     * @return the target Node
+     */
+    public Node getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * Stages a new Element without namespace to be appended to the target.
+     *
+     * @param name
+     *            the name of the Element
+     * @return the new Element, which may be populated before the batch is
+     *         applied
+     */
+    public Element appendElement(String name)
+    {
+        return appendElement(name, null);
+    }
+
+    /**
+     * Stages a new Element to be appended to the target.
+     *
+     * @param name
+     *            the qualified name of the Element
+     * @param namespaceUri
+     *            the namespace URI of the Element, may be null
+     * @return the new Element, which may be populated before the batch is
+     *         applied
+     */
+    public Element appendElement(String name, String namespaceUri)
+    {
+        Element element = DomUtils.createElement(document, name, namespaceUri);
+        DomUtils.enforceNoNamespaceMixes(target, element);
+        fragment.appendChild(element);
+        return element;
+    }
+
+    /**
+     * Stages the given Element to be appended to the target. An Element of the
+     * target Document that is not linked into a tree yet is staged as it is;
+     * any other Element is copied, as with
+     * {@link DomUtils#appendElement(Node, Element)}.
+     *
+     * @param element
+     *            the Element to be appended
+     * @return the staged Element or its copy
+     */
+    public Element appendElement(Element element)
+    {
+        DomUtils.enforceNoNamespaceMixes(target, element);
+        Element staged = (element.getOwnerDocument() == document && element.getParentNode() == null) ? element
+                : (Element) document.importNode(element, true);
+        fragment.appendChild(staged);
+        return staged;
+    }
+
+    /**
+     * Stages a new Text node to be appended to the target.
+     *
+     * @param text
+     *            the content of the Text node
+     * @return this batch
+     */
+    public DomBatch appendText(String text)
+    {
+        fragment.appendChild(document.createTextNode(text));
+        return this;
+    }
+
+    /**
+     * Stages a new CDATA section to be appended to the target.
+     *
+     * @param content
+     *            the content of the CDATA section
+     * @return this batch
+     */
+    public DomBatch appendCDATA(String content)
+    {
+        fragment.appendChild(document.createCDATASection(content));
+        return this;
+    }
+
+    /**
+     * Stages a new Comment to be appended to the target.
+     *
+     * @param comment
+     *            the content of the Comment
+     * @return this batch
+     */
+    public DomBatch appendComment(String comment)
+    {
+        fragment.appendChild(document.createComment(comment));
+        return this;
+    }
+
+    /**
+     * Records the deletion of the given Node.
+     *
+     * @param node
+     *            the Node to be deleted
+     * @return this batch
+     */
+    public DomBatch delete(Node node)
+    {
+        changes.add(new Change(Operation.DELETE, node, null, null, null));
+        return this;
+    }
+
+    /**
+     * Records the renaming of the given Node, keeping its namespace URI.
+     *
+     * @param node
+     *            the Node to be renamed
+     * @param name
+     *            the new name of the Node
+     * @return this batch
+     */
+    public DomBatch rename(Node node, String name)
+    {
+        return rename(node, node.getNamespaceURI(), name);
+    }
+
+    /**
+     * Records the renaming of the given Node with the specified namespace URI.
+     * Depending on the DOM implementation, the renamed Node may be replaced by
+     * a new Node; changes recorded for the given Node then apply to the
+     * replacement.
+     *
+     * @param node
+     *            the Node to be renamed
+     * @param namespaceUri
+     *            the new namespace URI of the Node
+     * @param name
+     *            the new name of the Node
+     * @return this batch
+     */
+    public DomBatch rename(Node node, String namespaceUri, String name)
+    {
+        changes.add(new Change(Operation.RENAME, node, namespaceUri, name, null));
+        return this;
+    }
+
+    /**
+     * Records setting an attribute of the given Element.
+     *
+     * @param element
+     *            the Element on which the attribute is set
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     * @return this batch
+     */
+    public DomBatch setAttribute(Element element, String name, String value)
+    {
+        changes.add(new Change(Operation.SET_ATTRIBUTE, element, null, name, value));
+        return this;
+    }
+
+    /**
+     * Returns the number of staged Nodes and recorded changes.
+     *
+     * @return the number of pending changes
+     */
+    public int size()
+    {
+        int size = changes.size();
+        for (Node node = fragment.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Applies all pending changes to the target and empties the batch.
+     *
+     * @return the target Node
+     */
+    public Node apply()
+    {
+        // a rename may replace the Node, so later changes apply to the replacement
+        Map<Node, Node> replacements = new IdentityHashMap<>();
+        for (Operation operation : Operation.values())
+        {
+            for (Change change : changes)
+            {
+                if (change.operation == operation)
+                {
+                    Node node = replacements.getOrDefault(change.node, change.node);
+                    Node result = operation.apply(node, change);
+                    if (result != node)
+                    {
+                        replacements.put(change.node, result);
+                    }
+                }
+            }
+        }
+        changes.clear();
+        if (fragment.getFirstChild() != null)
+        {
+            target.appendChild(fragment);
+            fragment = document.createDocumentFragment();
+            DomUtils.invalidateNamespaceContext(document);
+        }
+        return target;
+    }
+
+    /**
+     * The kinds of recorded changes, in the order in which they are applied.
+     */
+    private enum Operation
+    {
+        SET_ATTRIBUTE
+        {
+            @Override
+            Node apply(Node node, Change change)
+            {
+                ((Element) node).setAttribute(change.name, change.value);
+                return node;
+            }
+        },
+        RENAME
+        {
+            @Override
+            Node apply(Node node, Change change)
+            {
+                return DomUtils.renameNode(node, change.namespaceUri, change.name);
+            }
+        },
+        DELETE
+        {
+            @Override
+            Node apply(Node node, Change change)
+            {
+                if (node.getParentNode() != null)
+                {
+                    node.getParentNode().removeChild(node);
+                }
+                return node;
+            }
+        };
+
+        /**
+         * Applies the change to the given Node, which is the recorded Node or
+         * its replacement.
+         *
+         * @return the changed Node, which is a replacement of the given Node if
+         *         it has been renamed
+         */
+        abstract Node apply(Node node, Change change);
+    }
+
+    private static final class Change
+    {
+        private final Operation operation;
+        private final Node node;
+        private final String namespaceUri;
+        private final String name;
+        private final String value;
+
+        Change(Operation operation, Node node, String namespaceUri, String name, String value)
+        {
+            this.operation = operation;
+            this.node = node;
+            this.namespaceUri = namespaceUri;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that builds DOM Nodes with the factory methods of a target
+ * Document and appends them to a target Node. The outermost element levels may
+ * be skipped, e.g. a synthetic root element that only declares the namespaces
+ * in scope of a fragment; the content of skipped elements is appended to the
+ * target Node directly.
+ * <p>
+ * Text is collected until the next structural event, so every run of
+ * character data becomes a single Text node.
+ */
+final class DomBuilder extends DefaultHandler implements LexicalHandler
+{
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+
+    private final Document document;
+    private final boolean namespaceAware;
+    private final int skippedLevels;
+    private final StringBuilder text = new StringBuilder();
+    private Node current;
+    private int depth;
+    private boolean cdata;
+    private boolean dtd;
+
+    /**
+     * Creates a new DomBuilder.
+     *
+     * @param document
+     *            the Document creating the Nodes
+     * @param target
+     *            the Node to which the built Nodes are appended
+     * @param namespaceAware
+     *            true to create namespace-aware Nodes
+     * @param skippedLevels
+     *            the number of outermost element levels to skip
+     */
+    DomBuilder(Document document, Node target, boolean namespaceAware, int skippedLevels)
+    {
+        this.document = document;
+        this.current = target;
+        this.namespaceAware = namespaceAware;
+        this.skippedLevels = skippedLevels;
+    }
+
+    /**
+     * @return the current element depth, including skipped levels
+     */
+    int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return the Node to which built Nodes are currently appended
+     */
+    Node getCurrent()
+    {
+        return current;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+    {
+        flushText();
+        depth++;
+        if (depth <= skippedLevels)
+        {
+            return;
+        }
+
+        Element element = namespaceAware ? document.createElementNS(uri.isEmpty() ? null : uri, qName)
+                : document.createElement(qName);
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            String name = attributes.getQName(i);
+            if (!namespaceAware)
+            {
+                element.setAttribute(name, attributes.getValue(i));
+            }
+            else if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLNS_PREFIX))
+            {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, attributes.getValue(i));
+            }
+            else
+            {
+                String attributeUri = attributes.getURI(i);
+                element.setAttributeNS(attributeUri.isEmpty() ? null : attributeUri, name, attributes.getValue(i));
+            }
+        }
+        current.appendChild(element);
+        current = element;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+    {
+        flushText();
+        if (depth > skippedLevels)
+        {
+            current = current.getParentNode();
+        }
+        depth--;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+    {
+        if (depth >= skippedLevels)
+        {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+    {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+    {
+        flushText();
+        if (depth >= skippedLevels)
+        {
+            current.appendChild(document.createProcessingInstruction(target, data));
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length)
+    {
+        flushText();
+        if (!dtd && depth >= skippedLevels)
+        {
+            current.appendChild(document.createComment(new String(ch, start, length)));
+        }
+    }
+
+    @Override
+    public void startCDATA()
+    {
+        flushText();
+        cdata = true;
+    }
+
+    @Override
+    public void endCDATA()
+    {
+        flushText();
+        cdata = false;
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId)
+    {
+        // document type declarations are not part of the built tree
+        dtd = true;
+    }
+
+    @Override
+    public void endDTD()
+    {
+        dtd = false;
+    }
+
+    @Override
+    public void startEntity(String name)
+    {
+        // entity references are expanded
+    }
+
+    @Override
+    public void endEntity(String name)
+    {
+        // entity references are expanded
+    }
+
+    @Override
+    public void endDocument()
+    {
+        flushText();
+    }
+
+    private void flushText()
+    {
+        if (text.length() == 0)
+        {
+            return;
+        }
+        String content = text.toString();
+        text.setLength(0);
+        current.appendChild(cdata ? document.createCDATASection(content) : document.createTextNode(content));
+    }
+}
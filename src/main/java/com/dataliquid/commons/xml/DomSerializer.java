@@ -0,0 +1,603 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+/**
+ * A purpose-built serializer for the common case of {@link DomUtils#asXml(Node)}
+ * without additional output properties, with or without indentation. It walks
+ * the DOM iteratively and writes escaped markup into a reusable per-thread
+ * buffer.
+ * <p>
+ * The output is identical to the Saxon identity transformation: namespace
+ * declarations are written where the in-scope namespaces change, sorted by
+ * prefix, and indentation follows the rules of the Saxon indenter with its
+ * default of three spaces. Whenever the tree contains anything whose
+ * serialization is not covered here (entity references, document type
+ * declarations, empty text nodes, whitespace-only text when indenting,
+ * namespace undeclarations or bindings without a declaration, or characters
+ * that Saxon writes as character references), the serializer gives up and the
+ * caller falls back to Saxon.
+ */
+final class DomSerializer
+{
+    static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final int INDENT_SPACES = 3;
+    private static final String XMLNS_PREFIX = DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS + ":";
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder(INITIAL_CAPACITY);
+        }
+    };
+
+    private final StringBuilder buffer;
+    private final boolean indent;
+    private final Map<String, String> inheritedNamespaces;
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+    private int level;
+    private boolean afterStartTag;
+    private boolean afterEndTag = true;
+
+    private DomSerializer(StringBuilder buffer, boolean indent, Map<String, String> inheritedNamespaces)
+    {
+        this.buffer = buffer;
+        this.indent = indent;
+        this.inheritedNamespaces = inheritedNamespaces;
+    }
+
+    /**
+     * Serializes the given Node including the XML declaration.
+     *
+     * @param node
+     *            the Node to serialize
+     * @param indent
+     *            whether to indent the output like Saxon does
+     * @return the serialized Node, or null if the Node is not supported by this
+     *         serializer
+     */
+    static String serialize(Node node, boolean indent)
+    {
+        if (!isSupportedRoot(node))
+        {
+            return null;
+        }
+        Map<String, String> inheritedNamespaces = inheritedNamespaces(node);
+        if (inheritedNamespaces == null)
+        {
+            return null;
+        }
+
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        try
+        {
+            buffer.append(XML_DECLARATION);
+            DomSerializer serializer = new DomSerializer(buffer, indent, inheritedNamespaces);
+            return serializer.appendTree(node) ? buffer.toString() : null;
+        }
+        finally
+        {
+            if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+            {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    private static boolean isSupportedRoot(Node node)
+    {
+        if (node.getNodeType() == Node.ELEMENT_NODE)
+        {
+            return true;
+        }
+        if (node.getNodeType() != Node.DOCUMENT_NODE)
+        {
+            return false;
+        }
+
+        int elements = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            switch (child.getNodeType())
+            {
+                case Node.ELEMENT_NODE:
+                    elements++;
+                    break;
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return elements == 1;
+    }
+
+    /**
+     * Saxon emits the namespaces in scope of the serialized element, so the
+     * declarations of its ancestors are collected up front.
+     */
+    private static Map<String, String> inheritedNamespaces(Node node)
+    {
+        Deque<Node> ancestors = new ArrayDeque<>();
+        for (Node ancestor = node.getParentNode(); ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE; ancestor = ancestor
+                .getParentNode())
+        {
+            ancestors.push(ancestor);
+        }
+
+        Map<String, String> inScope = Collections.emptyMap();
+        for (Node ancestor : ancestors)
+        {
+            inScope = declareNamespaces(ancestor, inScope);
+            if (inScope == null)
+            {
+                return null;
+            }
+        }
+        return inScope;
+    }
+
+    /**
+     * Applies the namespace declarations of the given element to the namespaces
+     * in scope of its parent.
+     *
+     * @return the namespaces in scope of the element, the given map if the
+     *         element does not change them, or null if a declaration is not
+     *         supported
+     */
+    private static Map<String, String> declareNamespaces(Node element, Map<String, String> parentNamespaces)
+    {
+        Map<String, String> inScope = parentNamespaces;
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            String name = attributes.item(i).getNodeName();
+            String prefix;
+            if (name.equals(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS))
+            {
+                prefix = XMLConstants.DEFAULT_NS_PREFIX;
+            }
+            else if (name.startsWith(XMLNS_PREFIX))
+            {
+                prefix = name.substring(XMLNS_PREFIX.length());
+            }
+            else
+            {
+                continue;
+            }
+
+            String uri = attributes.item(i).getNodeValue();
+            if (element.getLocalName() == null || XMLConstants.XML_NS_PREFIX.equals(prefix)
+                    || DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS.equals(prefix)
+                    || (uri.isEmpty() && !prefix.isEmpty()))
+            {
+                return null;
+            }
+            if (uri.isEmpty() ? !inScope.containsKey(prefix) : uri.equals(inScope.get(prefix)))
+            {
+                continue;
+            }
+
+            if (inScope == parentNamespaces)
+            {
+                inScope = new TreeMap<>(parentNamespaces);
+            }
+            if (uri.isEmpty())
+            {
+                inScope.remove(prefix);
+            }
+            else
+            {
+                inScope.put(prefix, uri);
+            }
+        }
+        return inScope;
+    }
+
+    private boolean appendTree(Node root)
+    {
+        Node current = root.getNodeType() == Node.DOCUMENT_NODE ? root.getFirstChild() : root;
+        while (true)
+        {
+            switch (current.getNodeType())
+            {
+                case Node.ELEMENT_NODE:
+                    if (!startElement(current))
+                    {
+                        return false;
+                    }
+                    Node child = current.getFirstChild();
+                    if (child != null)
+                    {
+                        current = child;
+                        continue;
+                    }
+                    break;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    if (!appendText(current.getNodeValue()))
+                    {
+                        return false;
+                    }
+                    break;
+                case Node.COMMENT_NODE:
+                    if (!appendComment(current.getNodeValue()))
+                    {
+                        return false;
+                    }
+                    break;
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    if (!appendProcessingInstruction(current.getNodeName(), current.getNodeValue()))
+                    {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+
+            while (current == root || current.getNextSibling() == null)
+            {
+                if (current == root)
+                {
+                    return true;
+                }
+                current = current.getParentNode();
+                if (current == root && root.getNodeType() == Node.DOCUMENT_NODE)
+                {
+                    return true;
+                }
+                endElement(current);
+            }
+            current = current.getNextSibling();
+        }
+    }
+
+    private boolean startElement(Node element)
+    {
+        Map<String, String> parentNamespaces = namespaces.isEmpty() ? inheritedNamespaces : namespaces.peek();
+        Map<String, String> inScope = declareNamespaces(element, parentNamespaces);
+        if (inScope == null || !isBound(element, inScope))
+        {
+            return false;
+        }
+
+        if (afterStartTag || afterEndTag)
+        {
+            appendIndent();
+        }
+        buffer.append('<').append(element.getNodeName());
+        Map<String, String> declaredNamespaces = namespaces.isEmpty() ? Collections.<String, String> emptyMap() : parentNamespaces;
+        if (!appendNamespaces(inScope, declaredNamespaces) || !appendAttributes(element, inScope))
+        {
+            return false;
+        }
+
+        if (element.getFirstChild() == null)
+        {
+            buffer.append("/>");
+            afterStartTag = false;
+            afterEndTag = true;
+            return true;
+        }
+        buffer.append('>');
+        namespaces.push(inScope);
+        level++;
+        afterStartTag = true;
+        afterEndTag = false;
+        return true;
+    }
+
+    private void endElement(Node element)
+    {
+        level--;
+        if (afterEndTag)
+        {
+            appendIndent();
+        }
+        buffer.append("</").append(element.getNodeName()).append('>');
+        namespaces.pop();
+        afterStartTag = false;
+        afterEndTag = true;
+    }
+
+    private void appendIndent()
+    {
+        if (indent)
+        {
+            buffer.append('\n');
+            for (int i = level * INDENT_SPACES; i > 0; i--)
+            {
+                buffer.append(' ');
+            }
+        }
+    }
+
+    private static boolean isBound(Node element, Map<String, String> inScope)
+    {
+        if (element.getLocalName() == null)
+        {
+            return element.getNodeName().indexOf(':') < 0;
+        }
+        String prefix = element.getPrefix() == null ? XMLConstants.DEFAULT_NS_PREFIX : element.getPrefix();
+        String uri = element.getNamespaceURI();
+        return uri == null ? prefix.isEmpty() && !inScope.containsKey(prefix) : uri.equals(inScope.get(prefix));
+    }
+
+    private boolean appendNamespaces(Map<String, String> inScope, Map<String, String> parentNamespaces)
+    {
+        if (inScope == parentNamespaces)
+        {
+            return true;
+        }
+        if (parentNamespaces.containsKey(XMLConstants.DEFAULT_NS_PREFIX) && !inScope.containsKey(XMLConstants.DEFAULT_NS_PREFIX))
+        {
+            buffer.append(' ').append(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS).append("=\"\"");
+        }
+        for (Map.Entry<String, String> namespace : inScope.entrySet())
+        {
+            if (namespace.getValue().equals(parentNamespaces.get(namespace.getKey())))
+            {
+                continue;
+            }
+            buffer.append(' ').append(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS);
+            if (!namespace.getKey().isEmpty())
+            {
+                buffer.append(':').append(namespace.getKey());
+            }
+            buffer.append("=\"");
+            if (!appendAttributeValue(namespace.getValue()))
+            {
+                return false;
+            }
+            buffer.append('"');
+        }
+        return true;
+    }
+
+    private boolean appendAttributes(Node element, Map<String, String> inScope)
+    {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getName();
+            if (name.equals(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS) || name.startsWith(XMLNS_PREFIX))
+            {
+                continue;
+            }
+            if (!isBound(attribute, inScope))
+            {
+                return false;
+            }
+            buffer.append(' ').append(name).append("=\"");
+            if (!appendAttributeValue(attribute.getValue()))
+            {
+                return false;
+            }
+            buffer.append('"');
+        }
+        return true;
+    }
+
+    private static boolean isBound(Attr attribute, Map<String, String> inScope)
+    {
+        if (attribute.getLocalName() == null)
+        {
+            return attribute.getName().indexOf(':') < 0;
+        }
+        String prefix = attribute.getPrefix();
+        String uri = attribute.getNamespaceURI();
+        if (prefix == null)
+        {
+            return uri == null;
+        }
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix))
+        {
+            return XMLConstants.XML_NS_URI.equals(uri);
+        }
+        return uri != null && uri.equals(inScope.get(prefix));
+    }
+
+    private boolean appendComment(String comment)
+    {
+        if (comment.contains("--") || comment.endsWith("-"))
+        {
+            return false;
+        }
+        if (afterEndTag)
+        {
+            appendIndent();
+        }
+        buffer.append("<!--");
+        if (!appendUnescaped(comment))
+        {
+            return false;
+        }
+        buffer.append("-->");
+        return true;
+    }
+
+    private boolean appendProcessingInstruction(String target, String data)
+    {
+        if (data.contains("?>"))
+        {
+            return false;
+        }
+        if (afterEndTag)
+        {
+            appendIndent();
+        }
+        buffer.append("<?").append(target);
+        if (!data.isEmpty())
+        {
+            buffer.append(' ');
+            if (!appendUnescaped(data))
+            {
+                return false;
+            }
+        }
+        buffer.append("?>");
+        return true;
+    }
+
+    private boolean appendUnescaped(String text)
+    {
+        int length = text.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\t')
+            {
+                buffer.append(c);
+                continue;
+            }
+            i = appendCharacter(text, i);
+            if (i < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean appendText(String text)
+    {
+        int length = text.length();
+        if (length == 0)
+        {
+            return false;
+        }
+        if (indent && text.trim().isEmpty())
+        {
+            // the Saxon indenter merges whitespace-only text into its indentation
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+                case '<':
+                    buffer.append("&lt;");
+                    break;
+                case '>':
+                    buffer.append("&gt;");
+                    break;
+                case '&':
+                    buffer.append("&amp;");
+                    break;
+                case '\n':
+                case '\t':
+                    buffer.append(c);
+                    break;
+                default:
+                    i = appendCharacter(text, i);
+                    if (i < 0)
+                    {
+                        return false;
+                    }
+            }
+        }
+        afterStartTag = false;
+        afterEndTag = false;
+        return true;
+    }
+
+    private boolean appendAttributeValue(String value)
+    {
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '<':
+                    buffer.append("&lt;");
+                    break;
+                case '>':
+                    buffer.append("&gt;");
+                    break;
+                case '&':
+                    buffer.append("&amp;");
+                    break;
+                case '"':
+                    buffer.append("&quot;");
+                    break;
+                default:
+                    i = appendCharacter(value, i);
+                    if (i < 0)
+                    {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the character at the given index unless Saxon would write it as a
+     * character reference.
+     *
+     * @return the index of the last consumed character, or -1 if the character
+     *         is not supported
+     */
+    private int appendCharacter(String text, int index)
+    {
+        char c = text.charAt(index);
+        if (c < 0x20 || (c >= 0x7F && c <= 0x9F) || c == 0x2028)
+        {
+            return -1;
+        }
+        if (Character.isHighSurrogate(c))
+        {
+            if (index + 1 >= text.length() || !Character.isLowSurrogate(text.charAt(index + 1)))
+            {
+                return -1;
+            }
+            buffer.append(c).append(text.charAt(index + 1));
+            return index + 1;
+        }
+        if (Character.isLowSurrogate(c))
+        {
+            return -1;
+        }
+        buffer.append(c);
+        return index;
+    }
+}
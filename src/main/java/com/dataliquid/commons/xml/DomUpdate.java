@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+
+/**
+ * Updates all Nodes matching an XPath expression in one step. The expression
+ * is compiled once, the matches are collected with a single evaluation and the
+ * recorded changes are applied to each match in document order.
+ * <p>
+ * Attribute changes apply to matching Elements only. Text changes replace the
+ * content of a match as {@link Node#setTextContent(String)} does, which removes
+ * nested matches from the document; those are skipped and not counted. A rename
+ * is applied after all other changes of a match.
+ *
+ * <pre>
+ * int updated = DomUtils.update(document)
+ *         .match("//item[@state='new']")
+ *         .setAttribute("state", "open")
+ *         .rename("entry")
+ *         .apply();
+ * </pre>
+ */
+public final class DomUpdate
+{
+    private final Node node;
+    private final List<Change> changes = new ArrayList<>();
+    private XPathExpression expression;
+    private String xpath;
+    private String rename;
+
+    DomUpdate(Node node)
+    {
+        this.node = node;
+    }
+
+    /**
+     * Sets the XPath expression selecting the Nodes to update.
+     *
+     * @param xpath
+     *            the XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return this update
+     * @throws XpathException
+     *             if the expression cannot be compiled
+     */
+    public DomUpdate match(String xpath, NamespaceContext... namespaceContext)
+    {
+        try
+        {
+            this.expression = DomUtils.createXPathExpression(xpath, DomUtils.resolveNamespaceContext(node, namespaceContext));
+            this.xpath = xpath;
+        }
+        catch (XPathExpressionException e)
+        {
+            throw new XpathException("Invalid XPath expression: " + xpath, e);
+        }
+        return this;
+    }
+
+    /**
+     * Sets an attribute on each matching Element.
+     *
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     * @return this update
+     */
+    public DomUpdate setAttribute(String name, String value)
+    {
+        changes.add(new Change(Operation.SET_ATTRIBUTE, name, value));
+        return this;
+    }
+
+    /**
+     * Removes an attribute from each matching Element.
+     *
+     * @param name
+     *            the name of the attribute
+     * @return this update
+     */
+    public DomUpdate removeAttribute(String name)
+    {
+        changes.add(new Change(Operation.REMOVE_ATTRIBUTE, name, null));
+        return this;
+    }
+
+    /**
+     * Replaces the content of each match with the given text.
+     *
+     * @param text
+     *            the new text content
+     * @return this update
+     */
+    public DomUpdate setText(String text)
+    {
+        changes.add(new Change(Operation.SET_TEXT, null, text));
+        return this;
+    }
+
+    /**
+     * Renames each match, keeping its namespace URI.
+     *
+     * @param name
+     *            the new name
+     * @return this update
+     */
+    public DomUpdate rename(String name)
+    {
+        this.rename = name;
+        return this;
+    }
+
+    /**
+     * Applies the recorded changes to all matches.
+     *
+     * @return the number of updated Nodes
+     * @throws IllegalStateException
+     *             if no XPath expression has been set
+     * @throws XpathException
+     *             if the expression cannot be evaluated
+     */
+    public int apply()
+    {
+        if (expression == null)
+        {
+            throw new IllegalStateException("No XPath expression to match - call match() first");
+        }
+        NodeList matches;
+        try
+        {
+            matches = (NodeList) expression.evaluate(node, XPathConstants.NODESET);
+        }
+        catch (XPathExpressionException e)
+        {
+            throw new XpathException("XPath failure on node: " + node.getNodeName() + ": " + xpath, e);
+        }
+
+        boolean detaches = false;
+        for (Change change : changes)
+        {
+            detaches |= change.operation == Operation.SET_TEXT;
+        }
+        Node root = detaches ? rootOf(node) : null;
+
+        int updated = 0;
+        int length = matches.getLength();
+        for (int i = 0; i < length; i++)
+        {
+            Node match = matches.item(i);
+            if (detaches && rootOf(match) != root)
+            {
+                // removed by a text change of an enclosing match
+                continue;
+            }
+            for (Change change : changes)
+            {
+                change.operation.apply(match, change);
+            }
+            if (rename != null)
+            {
+                DomUtils.renameNode(match, rename);
+            }
+            updated++;
+        }
+        return updated;
+    }
+
+    private static Node rootOf(Node node)
+    {
+        Node current = node.getNodeType() == Node.ATTRIBUTE_NODE ? ((Attr) node).getOwnerElement() : node;
+        if (current == null)
+        {
+            return node;
+        }
+        while (current.getParentNode() != null)
+        {
+            current = current.getParentNode();
+        }
+        return current;
+    }
+
+    /**
+     * The kinds of recorded changes.
+     */
+    private enum Operation
+    {
+        SET_ATTRIBUTE
+        {
+            @Override
+            void apply(Node node, Change change)
+            {
+                if (node.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    ((Element) node).setAttribute(change.name, change.value);
+                }
+            }
+        },
+        REMOVE_ATTRIBUTE
+        {
+            @Override
+            void apply(Node node, Change change)
+            {
+                if (node.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    ((Element) node).removeAttribute(change.name);
+                }
+            }
+        },
+        SET_TEXT
+        {
+            @Override
+            void apply(Node node, Change change)
+            {
+                node.setTextContent(change.value);
+            }
+        };
+
+        /**
+         * Applies the change to the given match.
+         */
+        abstract void apply(Node node, Change change);
+    }
+
+    private static final class Change
+    {
+        private final Operation operation;
+        private final String name;
+        private final String value;
+
+        Change(Operation operation, String name, String value)
+        {
+            this.operation = operation;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
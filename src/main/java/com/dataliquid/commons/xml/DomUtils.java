@@ -19,30 +19,57 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Locale;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -56,17 +83,27 @@ import javax.xml.xpath.XPathExpressionException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 import org.apache.commons.lang3.math.NumberUtils;
+import org.w3c.dom.Attr;
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Comment;
+import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.dataliquid.commons.xml.exception.XpathException;
+import com.dataliquid.commons.xml.exception.XsltException;
 import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+import com.dataliquid.commons.xml.ns.ImmutableNamespaceContext;
+import com.dataliquid.commons.xml.xslt.TemplatesCache;
 
 import net.sf.saxon.TransformerFactoryImpl;
 import net.sf.saxon.xpath.XPathFactoryImpl;
@@ -81,6 +118,22 @@ public class DomUtils
     private static final String YES = "yes";
     private static final int SINGLE_RESULT = 1;
     private static final int ZERO_RESULTS = 0;
+    private static final String FRAGMENT_ELEMENT = "fragment";
+    private static final String FRAGMENT_END_TAG = "</" + FRAGMENT_ELEMENT + ">";
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final byte[] XML_DECLARATION_PREFIX = "<?xml".getBytes(StandardCharsets.US_ASCII);
+    private static final String SAX_FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String SAX_PROPERTY_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    private static final String XMLNS_PREFIX = DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS + ":";
+    private static final Map<Document, ImmutableNamespaceContext> DOCUMENT_NAMESPACE_CONTEXTS = new WeakHashMap<>();
+
+    /**
+     * A NamespaceContext marker selecting the namespaces declared in the
+     * document of the evaluated Node. Passing it to the select methods resolves
+     * it to {@link #namespaceContext(Node)}, so XPath expressions may use the
+     * prefixes of the document without building a context by hand.
+     */
+    public static final NamespaceContext DOCUMENT_NAMESPACES = new DocumentNamespaces();
 
     private static DocumentBuilderFactory getDocumentBuilderFactory()
     {
@@ -133,6 +186,132 @@ public class DomUtils
         }
     }
 
+    /**
+     * Parses the XML data from the given InputStream, keeping only the Nodes
+     * needed by the paths of the given Projection. The result is a smaller
+     * Document on which the select methods return the same results for these
+     * paths as on the full Document.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data to parse
+     * @param projection
+     *            the paths the Document will be queried with
+     * @return the projected Document
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    public static Document parse(InputStream inputStream, Projection projection)
+    {
+        Document doc = createDocument();
+        try
+        {
+            parse(new InputSource(inputStream), new ProjectionHandler(new DomBuilder(doc, doc, true, 0), projection), true);
+        }
+        catch (ParserConfigurationException | SAXException | IOException e)
+        {
+            throw new IllegalArgumentException("Unable to parse from input stream", e);
+        }
+        return doc;
+    }
+
+    /**
+     * Parses the XML file denoted by the given File object, keeping only the
+     * Nodes needed by the paths of the given Projection.
+     *
+     * @param file
+     *            the XML file to parse
+     * @param projection
+     *            the paths the Document will be queried with
+     * @return the projected Document
+     * @throws FileNotFoundException
+     *             if the specified file does not exist
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    public static Document parse(File file, Projection projection) throws FileNotFoundException
+    {
+        try (InputStream inputStream = Files.newInputStream(file.toPath()))
+        {
+            return parse(inputStream, projection);
+        }
+        catch (IOException e)
+        {
+            FileNotFoundException fnfe = new FileNotFoundException("Cannot read file: " + file.getPath());
+            fnfe.initCause(e);
+            throw fnfe;
+        }
+    }
+
+    /**
+     * Parses the XML data from the given InputStream until the given ParseLimit is
+     * reached, so the time spent does not depend on the size of the rest of the
+     * data. Elements still open when the limit is reached are kept with the
+     * content read so far. The InputStream is not closed, not even when the limit
+     * aborts the parse, so the rest of the data stays readable; since the parser
+     * reads ahead in blocks, the position afterwards is somewhere after the end
+     * of the last parsed element.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data to parse
+     * @param limit
+     *            the condition ending the parse
+     * @return the Document built until the limit was reached, or the whole
+     *         Document if it was not reached
+     * @throws IllegalArgumentException
+     *             if the XML read before the limit cannot be parsed
+     */
+    public static Document parse(InputStream inputStream, ParseLimit limit)
+    {
+        Document doc = createDocument();
+        ParseLimitHandler handler = new ParseLimitHandler(new DomBuilder(doc, doc, true, 0), limit);
+        try
+        {
+            // the JDK parser closes its input when a handler aborts the parse
+            parse(new InputSource(new UnclosableInputStream(inputStream)), handler, true);
+        }
+        catch (SAXException e)
+        {
+            if (!handler.isReached())
+            {
+                throw new IllegalArgumentException("Unable to parse from input stream", e);
+            }
+        }
+        catch (ParserConfigurationException | IOException e)
+        {
+            throw new IllegalArgumentException("Unable to parse from input stream", e);
+        }
+        return doc;
+    }
+
+    /**
+     * Parses the XML file denoted by the given File object until the given
+     * ParseLimit is reached.
+     *
+     * @param file
+     *            the XML file to parse
+     * @param limit
+     *            the condition ending the parse
+     * @return the Document built until the limit was reached, or the whole
+     *         Document if it was not reached
+     * @throws FileNotFoundException
+     *             if the specified file does not exist
+     * @throws IllegalArgumentException
+     *             if the XML read before the limit cannot be parsed
+     */
+    public static Document parse(File file, ParseLimit limit) throws FileNotFoundException
+    {
+        try (InputStream inputStream = Files.newInputStream(file.toPath()))
+        {
+            return parse(inputStream, limit);
+        }
+        catch (IOException e)
+        {
+            FileNotFoundException fnfe = new FileNotFoundException("Cannot read file: " + file.getPath());
+            fnfe.initCause(e);
+            throw fnfe;
+        }
+    }
+
     /**
      * Parses the XML file denoted by the given File object and returns a Document
      * object representing the parsed XML.
@@ -364,6 +543,35 @@ public class DomUtils
         return created;
     }
 
+    /**
+     * Creates an update of the Nodes below the given Node. The Nodes to update
+     * are selected with {@link DomUpdate#match(String, NamespaceContext...)} and
+     * changed when the update is applied.
+     *
+     * @param node
+     *            the context Node of the XPath expression
+     * @return a new update
+     */
+    public static DomUpdate update(Node node)
+    {
+        return new DomUpdate(node);
+    }
+
+    /**
+     * Creates a batch of changes to the given target Node. New child Nodes are
+     * staged in a DocumentFragment and linked into the target together with the
+     * recorded deletions, renames and attribute changes when the batch is
+     * applied.
+     *
+     * @param target
+     *            the Node to which the changes are applied
+     * @return a new, empty batch
+     */
+    public static DomBatch batch(Node target)
+    {
+        return new DomBatch(target);
+    }
+
     /**
      * Appends the specified Element as a child to the given parent Node.
      *
@@ -381,6 +589,284 @@ public class DomUtils
         return newChild;
     }
 
+    /**
+     * Moves the specified Element to the end of the children of the given parent
+     * Node. Unlike {@link #appendElement(Node, Element)}, the Element is detached
+     * from its current position and relinked instead of copied. It is only copied
+     * if it belongs to another Document that cannot adopt it.
+     *
+     * @param parent
+     *            the parent Node to which the Element should be moved
+     * @param child
+     *            the Element to be moved
+     * @return the moved Element, or its copy if it had to be imported
+     */
+    public static Element moveElement(Node parent, Element child)
+    {
+        enforceNoNamespaceMixes(parent, child);
+        Element result = adoptNode(parent, child);
+        parent.appendChild(result);
+        return result;
+    }
+
+    /**
+     * Moves the specified Element before the given Node. Unlike
+     * {@link #insertElementBefore(Node, Element)}, the Element is detached from its
+     * current position and relinked instead of copied.
+     *
+     * @param node
+     *            the Node before which the Element should be moved
+     * @param element
+     *            the Element to be moved
+     * @return the moved Element, or its copy if it had to be imported
+     */
+    public static Element moveElementBefore(Node node, Element element)
+    {
+        enforceNoNamespaceMixes(node.getParentNode(), element);
+        Element result = adoptNode(node, element);
+        node.getParentNode().insertBefore(result, node);
+        return result;
+    }
+
+    /**
+     * Moves the specified Element after the given Node. Unlike
+     * {@link #insertElementAfter(Node, Element)}, the Element is detached from its
+     * current position and relinked instead of copied.
+     *
+     * @param node
+     *            the Node after which the Element should be moved
+     * @param element
+     *            the Element to be moved
+     * @return the moved Element, or its copy if it had to be imported
+     */
+    public static Element moveElementAfter(Node node, Element element)
+    {
+        enforceNoNamespaceMixes(node.getParentNode(), element);
+        Element result = adoptNode(node, element);
+        Element sibling = selectElementAfter(node);
+        if (sibling != null && sibling != result)
+        {
+            sibling.getParentNode().insertBefore(result, sibling);
+        }
+        else if (sibling == null)
+        {
+            node.getParentNode().appendChild(result);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the given XML fragment and appends its top-level Nodes to the given
+     * parent Node. The Nodes are created directly by the Document of the parent,
+     * so no temporary Document is built and nothing is imported. The fragment may
+     * contain several top-level elements, text, comments and processing
+     * instructions, and may use the namespace prefixes in scope of the parent.
+     *
+     * @param parent
+     *            the parent Node to which the fragment should be appended
+     * @param fragment
+     *            the XML fragment
+     * @return the appended top-level Nodes
+     * @throws IllegalArgumentException
+     *             if the fragment cannot be parsed, or if the parent is a Document
+     *             that cannot take the top-level Nodes, e.g. because it already
+     *             has a document element
+     */
+    public static List<Node> appendFragment(Node parent, CharSequence fragment)
+    {
+        StringBuilder startTag = new StringBuilder();
+        appendFragmentStartTag(startTag, parent);
+        return appendFragment(parent, new InputSource(new CharSequenceReader(startTag, fragment, FRAGMENT_END_TAG)));
+    }
+
+    /**
+     * Parses the XML fragment read from the given InputStream and appends its
+     * top-level Nodes to the given parent Node. The fragment is read as UTF-8; a
+     * leading XML declaration is skipped.
+     *
+     * @param parent
+     *            the parent Node to which the fragment should be appended
+     * @param fragment
+     *            the InputStream providing the XML fragment
+     * @return the appended top-level Nodes
+     * @throws IllegalArgumentException
+     *             if the fragment cannot be read or parsed, or if the parent is a
+     *             Document that cannot take the top-level Nodes
+     * @see #appendFragment(Node, CharSequence)
+     */
+    public static List<Node> appendFragment(Node parent, InputStream fragment)
+    {
+        StringBuilder startTag = new StringBuilder();
+        appendFragmentStartTag(startTag, parent);
+        try
+        {
+            InputStream content = skipXmlDeclaration(fragment);
+            InputStream stream = new SequenceInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(startTag.toString().getBytes(StandardCharsets.UTF_8)), content),
+                    new ByteArrayInputStream(FRAGMENT_END_TAG.getBytes(StandardCharsets.UTF_8)));
+            InputSource source = new InputSource(stream);
+            source.setEncoding(StandardCharsets.UTF_8.name());
+            return appendFragment(parent, source);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Unable to read fragment", e);
+        }
+    }
+
+    private static List<Node> appendFragment(Node parent, InputSource source)
+    {
+        if (parent.getNodeType() == Node.DOCUMENT_NODE && ((Document) parent).getDocumentElement() != null)
+        {
+            throw new IllegalArgumentException("Unable to append fragment - the Document already has a document element");
+        }
+        Document doc = getOwnerDocument(parent);
+        boolean namespaceAware = !(parent instanceof Element) || parent.getLocalName() != null;
+        DocumentFragment fragment = doc.createDocumentFragment();
+        DomBuilder builder = new DomBuilder(doc, fragment, namespaceAware, 1);
+        try
+        {
+            parse(source, builder, namespaceAware);
+        }
+        catch (ParserConfigurationException | SAXException | IOException e)
+        {
+            throw new IllegalArgumentException("Unable to parse fragment", e);
+        }
+        List<Node> result = DomUtils.childNodes(fragment).toList();
+        try
+        {
+            parent.appendChild(fragment);
+        }
+        catch (DOMException e)
+        {
+            throw new IllegalArgumentException("Unable to append fragment to " + parent.getNodeName(), e);
+        }
+        invalidateNamespaceContext(doc);
+        return result;
+    }
+
+    private static <H extends DefaultHandler & LexicalHandler> void parse(InputSource source, H handler, boolean namespaceAware)
+            throws ParserConfigurationException, SAXException, IOException
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(namespaceAware);
+        if (namespaceAware)
+        {
+            factory.setFeature(SAX_FEATURE_NAMESPACE_PREFIXES, true);
+        }
+        SAXParser parser = factory.newSAXParser();
+        parser.setProperty(SAX_PROPERTY_LEXICAL_HANDLER, handler);
+        parser.parse(source, handler);
+    }
+
+    private static void appendFragmentStartTag(StringBuilder xml, Node parent)
+    {
+        xml.append('<').append(FRAGMENT_ELEMENT);
+        Map<String, String> namespaces = new LinkedHashMap<>();
+        for (Node node = parent; node != null && node.getNodeType() == Node.ELEMENT_NODE; node = node.getParentNode())
+        {
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++)
+            {
+                Node attribute = attributes.item(i);
+                String name = attribute.getNodeName();
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE))
+                {
+                    namespaces.putIfAbsent(XMLConstants.DEFAULT_NS_PREFIX, attribute.getNodeValue());
+                }
+                else if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":"))
+                {
+                    namespaces.putIfAbsent(name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1), attribute.getNodeValue());
+                }
+            }
+            if (node.getNamespaceURI() != null)
+            {
+                String prefix = (node.getPrefix() != null) ? node.getPrefix() : XMLConstants.DEFAULT_NS_PREFIX;
+                namespaces.putIfAbsent(prefix, node.getNamespaceURI());
+            }
+            else if (node.getLocalName() != null)
+            {
+                // a namespace-aware element without namespace undeclares any default namespace of its ancestors
+                namespaces.putIfAbsent(XMLConstants.DEFAULT_NS_PREFIX, XMLConstants.NULL_NS_URI);
+            }
+        }
+        for (Map.Entry<String, String> namespace : namespaces.entrySet())
+        {
+            xml.append(' ').append(XMLConstants.XMLNS_ATTRIBUTE);
+            if (!namespace.getKey().isEmpty())
+            {
+                xml.append(':').append(namespace.getKey());
+            }
+            xml.append("=\"");
+            String uri = namespace.getValue();
+            for (int i = 0; i < uri.length(); i++)
+            {
+                char c = uri.charAt(i);
+                if (c == '&')
+                {
+                    xml.append("&amp;");
+                }
+                else if (c == '<')
+                {
+                    xml.append("&lt;");
+                }
+                else if (c == '"')
+                {
+                    xml.append("&quot;");
+                }
+                else
+                {
+                    xml.append(c);
+                }
+            }
+            xml.append('"');
+        }
+        xml.append('>');
+    }
+
+    private static InputStream skipXmlDeclaration(InputStream inputStream) throws IOException
+    {
+        byte[] head = new byte[UTF8_BOM.length + XML_DECLARATION_PREFIX.length];
+        PushbackInputStream stream = new PushbackInputStream(inputStream, head.length);
+        int length = 0;
+        int read;
+        while (length < head.length && (read = stream.read(head, length, head.length - length)) > 0)
+        {
+            length += read;
+        }
+        int offset = startsWith(head, length, 0, UTF8_BOM) ? UTF8_BOM.length : 0;
+        if (!startsWith(head, length, offset, XML_DECLARATION_PREFIX))
+        {
+            stream.unread(head, offset, length - offset);
+            return stream;
+        }
+        int end = offset + XML_DECLARATION_PREFIX.length;
+        stream.unread(head, end, length - end);
+        int previous = -1;
+        int current;
+        while ((current = stream.read()) >= 0 && !(previous == '?' && current == '>'))
+        {
+            previous = current;
+        }
+        return stream;
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int offset, byte[] prefix)
+    {
+        if (length - offset < prefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (bytes[offset + i] != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Inserts the specified Element into the given parent Node in a specific order
      * based on the provided list of node names.
@@ -395,11 +881,83 @@ public class DomUtils
      */
     public static Element insertElement(Node parent, Element element, List<String> orderedNodeNames)
     {
-        Element successor = selectSuccessorElementFromOrder((Element) parent, orderedNodeNames, element.getNodeName());
+        return insertElement(parent, element, ElementOrder.of(orderedNodeNames));
+    }
+
+    /**
+     * Inserts the specified Element into the given parent Node at the position
+     * given by the precompiled element order.
+     *
+     * @param parent
+     *            the parent Node into which the Element should be inserted
+     * @param element
+     *            the Element to be inserted
+     * @param order
+     *            the precompiled order of the element names
+     * @return the inserted Element
+     */
+    public static Element insertElement(Node parent, Element element, ElementOrder order)
+    {
+        Element successor = selectSuccessorElementFromOrder(parent, order, element.getNodeName());
 
         return (successor != null) ? insertElementBefore(successor, element) : appendElement(parent, element);
     }
 
+    /**
+     * Inserts the specified Elements into the given parent Node at the positions
+     * given by the precompiled element order. The result is the same as inserting
+     * the Elements one by one with {@link #insertElement(Node, Element, ElementOrder)},
+     * but the children of the parent Node are walked only once.
+     *
+     * @param parent
+     *            the parent Node into which the Elements should be inserted
+     * @param elements
+     *            the Elements to be inserted
+     * @param order
+     *            the precompiled order of the element names
+     * @return the inserted Elements in the order of the given Elements
+     */
+    public static List<Element> insertElements(Node parent, List<Element> elements, ElementOrder order)
+    {
+        int count = elements.size();
+        Integer[] positions = new Integer[count];
+        int[] ranks = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            positions[i] = i;
+            ranks[i] = order.insertionRank(elements.get(i).getNodeName());
+        }
+        // elements of unknown name are inserted in front of each other, so they
+        // end up last and in reverse order
+        Arrays.sort(positions, (a, b) ->
+        {
+            boolean unknownA = !order.contains(elements.get(a).getNodeName());
+            boolean unknownB = !order.contains(elements.get(b).getNodeName());
+            if (ranks[a] != ranks[b])
+            {
+                return Integer.compare(ranks[a], ranks[b]);
+            }
+            if (unknownA != unknownB)
+            {
+                return Boolean.compare(unknownA, unknownB);
+            }
+            return unknownA ? Integer.compare(b, a) : Integer.compare(a, b);
+        });
+
+        Element[] result = new Element[count];
+        Element cursor = DomUtils.<Element> childElements(parent).first();
+        for (Integer position : positions)
+        {
+            while (cursor != null && !order.isSuccessor(cursor.getNodeName(), ranks[position]))
+            {
+                cursor = selectElementAfter(cursor);
+            }
+            Element element = elements.get(position);
+            result[position] = (cursor != null) ? insertElementBefore(cursor, element) : appendElement(parent, element);
+        }
+        return Arrays.asList(result);
+    }
+
     /**
      * Inserts the specified Element as the first child of the given parent Node.
      *
@@ -412,14 +970,15 @@ public class DomUtils
      */
     public static Element insertElementAsFirst(Node parent, Element child)
     {
-        List<Element> children = DomUtils.selectChildren(parent);
-        if (children.isEmpty())
+        Element first = DomUtils.childElements(parent).first();
+        if (first == null)
         {
+            invalidateNamespaceContext(parent);
             return (Element) parent.appendChild(child);
         }
         else
         {
-            return DomUtils.insertElementBefore(children.get(0), child);
+            return DomUtils.insertElementBefore(first, child);
         }
     }
 
@@ -514,19 +1073,13 @@ public class DomUtils
      */
     public static Element squeezeInElement(Node parent, Element element)
     {
-        List<Node> childrenToMove = new ArrayList<>();
-        for (Node node : translateListOfNodes(parent.getChildNodes()))
-        {
-            short type = node.getNodeType();
-            if (type != Node.ATTRIBUTE_NODE)
-            {
-                childrenToMove.add(node);
-            }
-        }
+        Node node = parent.getFirstChild();
         Element result = appendElement(parent, element);
-        for (Node node : childrenToMove)
+        while (node != null && node != result)
         {
+            Node next = node.getNextSibling();
             result.appendChild(node);
+            node = next;
         }
         return result;
     }
@@ -570,8 +1123,111 @@ public class DomUtils
      */
     public static void delete(Node node, String xpath, NamespaceContext... namespaceContext)
     {
-        List<Node> nodes = selectNodes(node, xpath, namespaceContext);
-        delete(nodes);
+        deleteAll(node, xpath, namespaceContext);
+    }
+
+    /**
+     * Deletes all Nodes matching the given XPath expression from the specified
+     * Node in one pass. Matches nested in other matches are removed together with
+     * their matching ancestor instead of being deleted twice. Matching attributes
+     * are removed from their owner Element. The matches are grouped by parent and
+     * the children of each parent are removed back to front.
+     *
+     * @param node
+     *            the Node from which to delete matching Nodes
+     * @param xpath
+     *            the XPath expression to select Nodes for deletion
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the number of matching Nodes that have been removed from the
+     *         document, including nested matches
+     */
+    public static int deleteAll(Node node, String xpath, NamespaceContext... namespaceContext)
+    {
+        NodeList nodeList = evaluateXpath(node, xpath, XPathConstants.NODESET, namespaceContext);
+        int length = nodeList.getLength();
+        Set<Node> matches = Collections.newSetFromMap(new IdentityHashMap<>(length * 2));
+        for (int i = 0; i < length; i++)
+        {
+            if (parentOf(nodeList.item(i)) != null)
+            {
+                matches.add(nodeList.item(i));
+            }
+        }
+
+        int removed = 0;
+        Map<Node, Boolean> checked = new IdentityHashMap<>();
+        Map<Node, List<Node>> childrenByParent = new LinkedHashMap<>();
+        for (int i = 0; i < length; i++)
+        {
+            Node match = nodeList.item(i);
+            Node parent = parentOf(match);
+            if (parent == null)
+            {
+                continue;
+            }
+            removed++;
+            if (hasMatchingAncestor(parent, matches, checked))
+            {
+                continue;
+            }
+            if (match.getNodeType() == Node.ATTRIBUTE_NODE)
+            {
+                ((Element) parent).removeAttributeNode((Attr) match);
+            }
+            else
+            {
+                childrenByParent.computeIfAbsent(parent, key -> new ArrayList<>()).add(match);
+            }
+        }
+
+        for (Map.Entry<Node, List<Node>> entry : childrenByParent.entrySet())
+        {
+            Node parent = entry.getKey();
+            List<Node> children = entry.getValue();
+            for (int i = children.size() - 1; i >= 0; i--)
+            {
+                parent.removeChild(children.get(i));
+            }
+        }
+        return removed;
+    }
+
+    private static Node parentOf(Node node)
+    {
+        return (node.getNodeType() == Node.ATTRIBUTE_NODE) ? ((Attr) node).getOwnerElement() : node.getParentNode();
+    }
+
+    /**
+     * Checks whether the given Node or one of its ancestors is a match. The
+     * result is remembered for every Node on the walked path, so each Node is
+     * visited once no matter how many matches share its ancestors.
+     */
+    private static boolean hasMatchingAncestor(Node node, Set<Node> matches, Map<Node, Boolean> checked)
+    {
+        List<Node> path = new ArrayList<>();
+        boolean result = false;
+        for (Node current = node; current != null; current = current.getParentNode())
+        {
+            if (matches.contains(current))
+            {
+                result = true;
+                break;
+            }
+            Boolean known = checked.get(current);
+            if (known != null)
+            {
+                result = known;
+                break;
+            }
+            path.add(current);
+        }
+        for (Node visited : path)
+        {
+            checked.put(visited, result);
+        }
+        return result;
     }
 
     /**
@@ -622,6 +1278,178 @@ public class DomUtils
         return result;
     }
 
+    /**
+     * Attaches a {@link ChangeTracker} to the Document of the given Node, or
+     * returns the one already attached. Every call should be balanced by a call
+     * to {@link #untrack(Node)} once the changes are no longer of interest.
+     *
+     * @param node
+     *            a Node of the Document to track
+     * @return the attached tracker
+     * @throws IllegalArgumentException
+     *             if the Document does not support DOM mutation events
+     */
+    public static ChangeTracker track(Node node)
+    {
+        return ChangeTracker.track(getOwnerDocument(node));
+    }
+
+    /**
+     * Releases a tracker obtained from {@link #track(Node)}. The tracker is
+     * detached from the Document once neither explicit callers nor an attached
+     * {@link DocumentIndex} or {@link XPathResultCache} use it any more.
+     *
+     * @param node
+     *            a Node of the tracked Document
+     * @throws IllegalStateException
+     *             if the call is not balanced by an earlier
+     *             {@link #track(Node)} call
+     */
+    public static void untrack(Node node)
+    {
+        ChangeTracker tracker = ChangeTracker.get(node);
+        if (tracker == null)
+        {
+            throw new IllegalStateException("untrack without a matching track call");
+        }
+        tracker.untrack();
+    }
+
+    /**
+     * Builds a {@link DocumentIndex} of the Document of the given Node and
+     * attaches it to the Document, replacing an earlier index. While attached,
+     * {@link #selectNodes(Node, String, NamespaceContext...)} answers
+     * {@code //name} and {@code //name[@attribute='value']} from the index.
+     *
+     * @param node
+     *            a Node of the Document to index
+     * @param keyAttributes
+     *            the names of the attributes whose values should be indexed
+     * @return the attached index
+     * @throws IllegalArgumentException
+     *             if the Document does not support DOM mutation events
+     */
+    public static DocumentIndex index(Node node, String... keyAttributes)
+    {
+        removeIndex(node);
+        DocumentIndex index = new DocumentIndex(getOwnerDocument(node), keyAttributes);
+        index.attach();
+        return index;
+    }
+
+    /**
+     * Detaches the {@link DocumentIndex} from the Document of the given Node.
+     *
+     * @param node
+     *            a Node of the indexed Document
+     */
+    public static void removeIndex(Node node)
+    {
+        DocumentIndex index = DocumentIndex.get(node);
+        if (index != null)
+        {
+            index.detach();
+        }
+    }
+
+    /**
+     * Returns the Elements with the given qualified name in the Document of the
+     * given Node. Without an attached {@link DocumentIndex} the Document is
+     * scanned.
+     *
+     * @param node
+     *            a Node of the Document
+     * @param name
+     *            the qualified name of the Elements
+     * @return the matching Elements in document order
+     */
+    public static List<Element> lookup(Node node, String name)
+    {
+        DocumentIndex index = DocumentIndex.get(node);
+        if (index != null)
+        {
+            return index.lookup(name);
+        }
+        NodeList elements = getOwnerDocument(node).getElementsByTagName(name);
+        List<Element> result = new ArrayList<>(elements.getLength());
+        for (int i = 0; i < elements.getLength(); i++)
+        {
+            result.add((Element) elements.item(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Elements of the Document of the given Node whose attribute has
+     * the given value. Without an attached {@link DocumentIndex} indexing the
+     * attribute, the Document is scanned.
+     *
+     * @param node
+     *            a Node of the Document
+     * @param attribute
+     *            the name of the key attribute
+     * @param value
+     *            the attribute value
+     * @return the matching Elements in document order
+     */
+    public static List<Element> lookupByKey(Node node, String attribute, String value)
+    {
+        DocumentIndex index = DocumentIndex.get(node);
+        if (index != null && index.getKeyAttributes().contains(attribute))
+        {
+            return index.lookupByKey(attribute, value);
+        }
+        NodeList elements = getOwnerDocument(node).getElementsByTagName("*");
+        List<Element> result = new ArrayList<>();
+        for (int i = 0; i < elements.getLength(); i++)
+        {
+            Element element = (Element) elements.item(i);
+            if (element.hasAttribute(attribute) && value.equals(element.getAttribute(attribute)))
+            {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Attaches an {@link XPathResultCache} to the Document of the given Node,
+     * replacing an earlier one. While attached, string, boolean and number
+     * results of the select methods are served from the cache until the
+     * Document changes.
+     *
+     * @param node
+     *            a Node of the Document
+     * @param maximumSize
+     *            the maximum number of cached results
+     * @return the attached cache
+     * @throws IllegalArgumentException
+     *             if the maximum size is less than 1, or if the Document does not
+     *             support DOM mutation events
+     */
+    public static XPathResultCache cacheResults(Node node, int maximumSize)
+    {
+        removeResultCache(node);
+        XPathResultCache cache = new XPathResultCache(getOwnerDocument(node), maximumSize);
+        cache.attach();
+        return cache;
+    }
+
+    /**
+     * Detaches the {@link XPathResultCache} from the Document of the given Node.
+     *
+     * @param node
+     *            a Node of the Document
+     */
+    public static void removeResultCache(Node node)
+    {
+        XPathResultCache cache = XPathResultCache.get(node);
+        if (cache != null)
+        {
+            cache.detach();
+        }
+    }
+
     /**
      * Adds a namespace declaration to the specified Element using the given alias
      * and NamespaceContext.
@@ -641,22 +1469,149 @@ public class DomUtils
         return element;
     }
 
-    /**
-     * Adds a namespace declaration to the specified Element using the given alias
-     * and URI.
-     *
-     * @param element
-     *            the Element to which the namespace declaration should be added
-     * @param alias
-     *            the namespace alias to be used in the declaration
-     * @param uri
-     *            the namespace URI to be associated with the alias
-     * @return the modified Element with the added namespace declaration
-     */
-    public static Element addNamespace(Element element, String alias, String uri)
+    /**
+     * Adds a namespace declaration to the specified Element using the given alias
+     * and URI.
+     *
+     * @param element
+     *            the Element to which the namespace declaration should be added
+     * @param alias
+     *            the namespace alias to be used in the declaration
+     * @param uri
+     *            the namespace URI to be associated with the alias
+     * @return the modified Element with the added namespace declaration
+     */
+    public static Element addNamespace(Element element, String alias, String uri)
+    {
+        element.setAttributeNS(DefaultNamespaceContext.NAMESPACE_XMLNS, XMLNS_PREFIX + alias, uri);
+        invalidateNamespaceContext(element);
+        return element;
+    }
+
+    /**
+     * Returns a NamespaceContext binding the prefixes declared by
+     * {@code xmlns:prefix} attributes on the document element and its
+     * descendants. The declarations are collected in one scan and the result is
+     * cached per Document until the DomUtils methods that declare namespaces or
+     * add, import or move Elements, such as
+     * {@link #addNamespace(Element, String, String)},
+     * {@link #appendElement(Node, Element)}, {@link #moveElement(Node, Element)}
+     * and {@link #appendFragment(Node, CharSequence)}, may have changed them.
+     * If a prefix is declared with different URIs, the first declaration in
+     * document order wins. The scan runs outside of any lock, so concurrent
+     * first calls for different Documents do not wait for each other.
+     *
+     * @param node
+     *            a Node of the Document whose declarations to use
+     * @return the NamespaceContext derived from the Document
+     */
+    public static NamespaceContext namespaceContext(Node node)
+    {
+        Document document = getOwnerDocument(node);
+        if (document == null || document.getDocumentElement() == null)
+        {
+            return ImmutableNamespaceContext.builder().build();
+        }
+        ImmutableNamespaceContext result;
+        synchronized (DOCUMENT_NAMESPACE_CONTEXTS)
+        {
+            result = DOCUMENT_NAMESPACE_CONTEXTS.get(document);
+        }
+        if (result != null)
+        {
+            return result;
+        }
+
+        result = collectNamespaces(document.getDocumentElement());
+        synchronized (DOCUMENT_NAMESPACE_CONTEXTS)
+        {
+            ImmutableNamespaceContext published = DOCUMENT_NAMESPACE_CONTEXTS.putIfAbsent(document, result);
+            return published != null ? published : result;
+        }
+    }
+
+    /**
+     * Discards the cached NamespaceContext of the Document of the given Node, so
+     * that the next {@link #namespaceContext(Node)} call scans the declarations
+     * again. Needed only after declarations were changed through the DOM API
+     * directly.
+     *
+     * @param node
+     *            a Node of the Document
+     */
+    public static void invalidateNamespaceContext(Node node)
+    {
+        Document document = getOwnerDocument(node);
+        synchronized (DOCUMENT_NAMESPACE_CONTEXTS)
+        {
+            DOCUMENT_NAMESPACE_CONTEXTS.remove(document);
+        }
+    }
+
+    /**
+     * Removes redundant namespace declarations from the given Node and its
+     * descendants. A prefixed declaration is hoisted to the given Element when
+     * its subtree binds the prefix to one namespace URI only, and declarations
+     * repeating the binding already in scope are dropped. The default namespace
+     * is never hoisted. The infoset of the serialized result does not change,
+     * so calling this before {@link #asXml(Node)} only shrinks the output.
+     *
+     * @param node
+     *            the Element or Document to normalize
+     * @return the number of declarations removed, minus the number of hoisted
+     *         declarations added
+     */
+    public static int normalizeNamespaces(Node node)
+    {
+        Element root = (node instanceof Document) ? ((Document) node).getDocumentElement() : (node instanceof Element) ? (Element) node : null;
+        if (root == null)
+        {
+            return ZERO_RESULTS;
+        }
+        int removed = NamespaceNormalizer.normalize(root);
+        invalidateNamespaceContext(root);
+        return removed;
+    }
+
+    static NamespaceContext[] resolveNamespaceContext(Node node, NamespaceContext... namespaceContext)
+    {
+        if (namespaceContext.length == 1 && namespaceContext[0] == DOCUMENT_NAMESPACES)
+        {
+            return new NamespaceContext[] { namespaceContext(node) };
+        }
+        return namespaceContext;
+    }
+
+    private static ImmutableNamespaceContext collectNamespaces(Element documentElement)
     {
-        element.setAttributeNS(DefaultNamespaceContext.NAMESPACE_XMLNS, DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS + ":" + alias, uri);
-        return element;
+        Map<String, String> bindings = new LinkedHashMap<>();
+        traverse(documentElement, new NodeVisitor()
+        {
+            @Override
+            public Traversal enter(Node node)
+            {
+                if (node.getNodeType() != Node.ELEMENT_NODE)
+                {
+                    return Traversal.SKIP_SUBTREE;
+                }
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    String name = attributes.item(i).getNodeName();
+                    String uri = attributes.item(i).getNodeValue();
+                    if (name.startsWith(XMLNS_PREFIX) && !uri.isEmpty())
+                    {
+                        String prefix = name.substring(XMLNS_PREFIX.length());
+                        if (!DefaultNamespaceContext.NAMESPACE_ALIAS_XML.equals(prefix) && !bindings.containsKey(prefix))
+                        {
+                            bindings.put(prefix, uri);
+                        }
+                    }
+                }
+                return Traversal.CONTINUE;
+            }
+        });
+        return ImmutableNamespaceContext.builder().addAll(bindings).build();
     }
 
     /**
@@ -772,6 +1727,12 @@ public class DomUtils
      */
     public static <T extends Node> List<T> selectNodes(Node node, String xpath, NamespaceContext... namespaceContext)
     {
+        List<Element> indexed = DocumentIndex.select(node, xpath);
+        if (indexed != null)
+        {
+            return (List<T>) indexed;
+        }
+
         List<T> result = new ArrayList<>();
 
         NodeList nodeList;
@@ -920,6 +1881,244 @@ public class DomUtils
         return NumberUtils.toInt(selectString(node, xpath, namespaceContext), defaultValue);
     }
 
+    /**
+     * Selects the String values of the Nodes matching the given forward-only
+     * XPath expression in the given XML file. The file is streamed and no DOM is
+     * built; see {@link Projection} for the supported subset of XPath.
+     *
+     * @param file
+     *            the XML file
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the String values of the matching Nodes in document order
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the file cannot be read or parsed
+     */
+    public static List<String> selectStrings(Path file, String xpath, NamespaceContext... namespaceContext)
+    {
+        return stream(file, ForwardPath.compile(xpath, namespaceContext), Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Selects the String values of the Nodes matching the given forward-only
+     * XPath expression in the XML data of the given InputStream. The data is
+     * streamed and no DOM is built; see {@link Projection} for the supported
+     * subset of XPath. The InputStream is not closed.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the String values of the matching Nodes in document order
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    public static List<String> selectStrings(InputStream inputStream, String xpath, NamespaceContext... namespaceContext)
+    {
+        return StreamingSelector.select(inputStream, ForwardPath.compile(xpath, namespaceContext), Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Selects the String value of the first Node matching the given forward-only
+     * XPath expression in the given XML file. Reading stops as soon as the value
+     * is complete.
+     *
+     * @param file
+     *            the XML file
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the String value of the first matching Node, or an empty String if
+     *         nothing matches
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the file cannot be read or parsed
+     */
+    public static String selectString(Path file, String xpath, NamespaceContext... namespaceContext)
+    {
+        return first(stream(file, ForwardPath.compile(xpath, namespaceContext), SINGLE_RESULT, true));
+    }
+
+    /**
+     * Selects the String value of the first Node matching the given forward-only
+     * XPath expression in the XML data of the given InputStream. Reading stops as
+     * soon as the value is complete; the InputStream is not closed and its
+     * position afterwards is undefined.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the String value of the first matching Node, or an empty String if
+     *         nothing matches
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    public static String selectString(InputStream inputStream, String xpath, NamespaceContext... namespaceContext)
+    {
+        return first(StreamingSelector.select(inputStream, ForwardPath.compile(xpath, namespaceContext), SINGLE_RESULT, true));
+    }
+
+    /**
+     * Checks if a Node matching the given forward-only XPath expression exists in
+     * the given XML file. Reading stops at the first match.
+     *
+     * @param file
+     *            the XML file
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return true if a matching Node exists, false otherwise
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the file cannot be read or parsed
+     */
+    public static boolean exists(Path file, String xpath, NamespaceContext... namespaceContext)
+    {
+        return !stream(file, ForwardPath.compile(xpath, namespaceContext), SINGLE_RESULT, false).isEmpty();
+    }
+
+    /**
+     * Checks if a Node matching the given forward-only XPath expression exists in
+     * the XML data of the given InputStream. Reading stops at the first match; the
+     * InputStream is not closed and its position afterwards is undefined.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data
+     * @param xpath
+     *            the forward-only XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return true if a matching Node exists, false otherwise
+     * @throws XpathException
+     *             if the expression is outside the streamable subset
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    public static boolean exists(InputStream inputStream, String xpath, NamespaceContext... namespaceContext)
+    {
+        return !StreamingSelector.select(inputStream, ForwardPath.compile(xpath, namespaceContext), SINGLE_RESULT, false).isEmpty();
+    }
+
+    private static List<String> stream(Path file, ForwardPath path, int limit, boolean values)
+    {
+        try (InputStream inputStream = Files.newInputStream(file))
+        {
+            return StreamingSelector.select(inputStream, path, limit, values);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Unable to read file: " + file, e);
+        }
+    }
+
+    private static String first(List<String> values)
+    {
+        return values.isEmpty() ? StringUtils.EMPTY : values.get(0);
+    }
+
+    /**
+     * Creates a publisher of the records, i.e. the elements matching the given
+     * forward-only XPath expression, in the given XML file. The file is opened
+     * per Subscription and read only as far as records are requested; see
+     * {@link RecordPublisher} for the delivery contract.
+     *
+     * @param file
+     *            the XML file
+     * @param recordPath
+     *            the forward-only XPath expression selecting the record elements
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the RecordPublisher
+     * @throws XpathException
+     *             if the expression is outside the streamable subset or does not
+     *             select elements
+     */
+    public static RecordPublisher publishRecords(File file, String recordPath, NamespaceContext... namespaceContext)
+    {
+        return publishRecords(file.toPath(), recordPath, namespaceContext);
+    }
+
+    /**
+     * Creates a publisher of the records, i.e. the elements matching the given
+     * forward-only XPath expression, in the given XML file. The file is opened
+     * per Subscription and read only as far as records are requested; see
+     * {@link RecordPublisher} for the delivery contract.
+     *
+     * @param file
+     *            the XML file
+     * @param recordPath
+     *            the forward-only XPath expression selecting the record elements
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the RecordPublisher
+     * @throws XpathException
+     *             if the expression is outside the streamable subset or does not
+     *             select elements
+     */
+    public static RecordPublisher publishRecords(Path file, String recordPath, NamespaceContext... namespaceContext)
+    {
+        return new RecordPublisher(() -> Files.newInputStream(file), recordPath(recordPath, namespaceContext));
+    }
+
+    /**
+     * Creates a publisher of the records, i.e. the elements matching the given
+     * forward-only XPath expression, in the XML data of the given InputStream.
+     * The publisher accepts a single Subscriber, reads the InputStream only as
+     * far as records are requested and closes it when the Subscription ends; see
+     * {@link RecordPublisher} for the delivery contract.
+     *
+     * @param inputStream
+     *            the InputStream containing the XML data
+     * @param recordPath
+     *            the forward-only XPath expression selecting the record elements
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the RecordPublisher
+     * @throws XpathException
+     *             if the expression is outside the streamable subset or does not
+     *             select elements
+     */
+    public static RecordPublisher publishRecords(InputStream inputStream, String recordPath, NamespaceContext... namespaceContext)
+    {
+        return new RecordPublisher(RecordPublisher.once(inputStream), recordPath(recordPath, namespaceContext));
+    }
+
+    private static ForwardPath recordPath(String xpath, NamespaceContext... namespaceContext)
+    {
+        ForwardPath path = ForwardPath.compile(xpath, namespaceContext);
+        if (path.getTarget() != ForwardPath.Target.ELEMENT)
+        {
+            throw new XpathException("XPath expression does not select elements - " + xpath);
+        }
+        return path;
+    }
+
     /**
      * Selects a single Boolean value from the Node matching the given XPath
      * expression in the specified Node.
@@ -986,7 +2185,13 @@ public class DomUtils
     {
         try
         {
-            return (T) createXPathExpression(xpath, namespaceContext).evaluate(node, expectedType);
+            NamespaceContext[] nsc = resolveNamespaceContext(node, namespaceContext);
+            XPathResultCache cache = XPathResultCache.isCacheable(expectedType) ? XPathResultCache.get(node) : null;
+            if (cache == null)
+            {
+                return (T) createXPathExpression(xpath, nsc).evaluate(node, expectedType);
+            }
+            return (T) cache.evaluate(node, xpath, fromNamespaceContextList(nsc), expectedType);
         }
         catch (XPathExpressionException e)
         {
@@ -1038,15 +2243,9 @@ public class DomUtils
     public static <T> List<T> children(Node parent, short nodeType)
     {
         List<T> result = new ArrayList<T>();
-
-        List<Node> nodes = translateListOfNodes(parent.getChildNodes());
-
-        for (Node n : nodes)
+        for (Node n : childNodes(parent, nodeType))
         {
-            if (n.getNodeType() == nodeType)
-            {
-                result.add((T) n);
-            }
+            result.add((T) n);
         }
         return result;
     }
@@ -1107,6 +2306,49 @@ public class DomUtils
     {
         Document doc = getOwnerDocument(parent);
         Node node = doc.importNode(child, true);
+        invalidateNamespaceContext(doc);
+        return (T) node;
+    }
+
+    /**
+     * Prepares the specified Node for being moved into the specified parent Node.
+     * A Node of the same Document is returned as is. A Node of another Document
+     * is adopted, which detaches it from its parent, or copied and removed from
+     * its parent if the Document cannot adopt it.
+     *
+     * @param parent
+     *            the parent Node into which the child Node will be moved
+     * @param child
+     *            the child Node to be moved
+     * @param <T>
+     *            the type of the adopted Node
+     * @return the Node to be linked into the parent Node
+     */
+    public static <T> T adoptNode(Node parent, Node child)
+    {
+        Document doc = getOwnerDocument(parent);
+        invalidateNamespaceContext(doc);
+        if (child.getOwnerDocument() == doc)
+        {
+            return (T) child;
+        }
+        Node node = null;
+        try
+        {
+            node = doc.adoptNode(child);
+        }
+        catch (DOMException e)
+        {
+            // adopting is not supported across DOM implementations, copy instead
+        }
+        if (node == null)
+        {
+            node = doc.importNode(child, true);
+            if (child.getParentNode() != null)
+            {
+                child.getParentNode().removeChild(child);
+            }
+        }
         return (T) node;
     }
 
@@ -1230,6 +2472,10 @@ public class DomUtils
     public static void setAttribute(Node node, String name, String value)
     {
         ((Element) node).setAttribute(name, value);
+        if (name.startsWith(XMLNS_PREFIX))
+        {
+            invalidateNamespaceContext(node);
+        }
     }
 
     /**
@@ -1261,7 +2507,9 @@ public class DomUtils
 
     /**
      * Converts the given Node to its XML representation as a String, with
-     * additional formatting options provided by the properties map.
+     * additional formatting options provided by the properties map. Without
+     * additional properties, common trees are written by a fast DOM serializer
+     * which produces the same output as Saxon.
      *
      * @param node
      *            the Node to convert to XML
@@ -1274,6 +2522,19 @@ public class DomUtils
      */
     public static String asXml(Node node, boolean indent, Map<String, String> properties)
     {
+        if (properties == null || properties.isEmpty())
+        {
+            String xml;
+            synchronized (node)
+            {
+                xml = DomSerializer.serialize(node, indent);
+            }
+            if (xml != null)
+            {
+                return xml;
+            }
+        }
+
         Properties outputProperties = new Properties();
         if (indent)
         {
@@ -1291,17 +2552,18 @@ public class DomUtils
 
         StringWriter writer = new StringWriter();
         write(node, writer, outputProperties);
-        String result = writer.toString();
+        StringBuffer result = writer.getBuffer();
 
         // Saxon 12+ adds a trailing newline when indenting is enabled, which wasn't
         // present in Saxon 9.6
         // To maintain backward compatibility, we remove it if present
-        if (indent && result.endsWith("\n"))
+        int length = result.length();
+        if (indent && length > 0 && result.charAt(length - 1) == '\n')
         {
-            result = result.substring(0, result.length() - 1);
+            result.setLength(length - 1);
         }
 
-        return result;
+        return result.toString();
 
     }
 
@@ -1356,12 +2618,122 @@ public class DomUtils
      *             if the XML cannot be written
      */
     public static void write(Node node, Writer writer, Properties outputProperties)
+    {
+        write(node, new StreamResult(writer), outputProperties);
+    }
+
+    /**
+     * Writes the XML representation of the given Node to the specified
+     * OutputStream, with additional formatting options provided by the output
+     * properties. The output is encoded directly in the encoding given by the
+     * output properties, which defaults to UTF-8.
+     *
+     * @param node
+     *            the Node to write to XML
+     * @param outputStream
+     *            the OutputStream to which the XML should be written
+     * @param outputProperties
+     *            the properties specifying the output format of the XML
+     * @throws RuntimeException
+     *             if the XML cannot be written
+     */
+    public static void write(Node node, OutputStream outputStream, Properties outputProperties)
+    {
+        write(node, new StreamResult(outputStream), outputProperties);
+    }
+
+    /**
+     * Writes the XML representation of the given Node to the specified
+     * WritableByteChannel, with additional formatting options provided by the
+     * output properties. The encoded output is written to the channel in chunks of
+     * a fixed size, so the memory used does not grow with the size of the
+     * document. The channel is not closed.
+     *
+     * @param node
+     *            the Node to write to XML
+     * @param channel
+     *            the WritableByteChannel to which the XML should be written
+     * @param outputProperties
+     *            the properties specifying the output format of the XML
+     * @throws RuntimeException
+     *             if the XML cannot be written
+     */
+    public static void write(Node node, WritableByteChannel channel, Properties outputProperties)
+    {
+        write(node, channel, ByteBuffer.allocate(ChannelOutputStream.DEFAULT_CHUNK_SIZE), outputProperties);
+    }
+
+    /**
+     * Writes the XML representation of the given Node to the specified
+     * WritableByteChannel, using the given buffer to collect the chunks written to
+     * the channel. This allows callers to provide pooled or direct buffers. The
+     * content of the buffer is discarded and the channel is not closed.
+     *
+     * @param node
+     *            the Node to write to XML
+     * @param channel
+     *            the WritableByteChannel to which the XML should be written
+     * @param buffer
+     *            the buffer used to collect the chunks written to the channel
+     * @param outputProperties
+     *            the properties specifying the output format of the XML
+     * @throws RuntimeException
+     *             if the XML cannot be written
+     */
+    public static void write(Node node, WritableByteChannel channel, ByteBuffer buffer, Properties outputProperties)
+    {
+        ChannelOutputStream outputStream = new ChannelOutputStream(channel, buffer);
+        write(node, outputStream, outputProperties);
+        try
+        {
+            outputStream.flush();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("unable to write xml to channel", e);
+        }
+    }
+
+    /**
+     * Writes the XML representation of the given Node into the remaining space of
+     * the specified ByteBuffer, with additional formatting options provided by the
+     * output properties. The position of the buffer is advanced by the number of
+     * bytes written. If writing fails, the position is restored, so the call can
+     * be repeated with a larger buffer; the bytes after the position may have
+     * been overwritten.
+     *
+     * @param node
+     *            the Node to write to XML
+     * @param buffer
+     *            the ByteBuffer into which the XML should be written
+     * @param outputProperties
+     *            the properties specifying the output format of the XML
+     * @return the number of bytes written
+     * @throws RuntimeException
+     *             if the XML cannot be written, including when the remaining space
+     *             of the buffer is too small
+     */
+    public static int write(Node node, ByteBuffer buffer, Properties outputProperties)
+    {
+        int start = buffer.position();
+        try
+        {
+            write(node, new ByteBufferOutputStream(buffer), outputProperties);
+        }
+        catch (RuntimeException e)
+        {
+            ((Buffer) buffer).position(start);
+            throw e;
+        }
+        return buffer.position() - start;
+    }
+
+    private static void write(Node node, StreamResult streamResult, Properties outputProperties)
     {
         try
         {
             synchronized (node)
             {
-                StreamResult streamResult = new StreamResult(writer);
                 DOMSource domSource = new DOMSource(node);
 
                 TransformerFactory tf = new TransformerFactoryImpl();
@@ -1372,8 +2744,7 @@ public class DomUtils
                     String xmlDecl = createXMLDeclarationString(outputProperties);
                     if (xmlDecl.length() > 0)
                     {
-                        writer.write(xmlDecl);
-                        writer.write('\n');
+                        writeDeclaration(streamResult, xmlDecl + '\n', outputProperties);
 
                         serializer.setOutputProperty("omit-xml-declaration", "yes");
                     }
@@ -1397,6 +2768,130 @@ public class DomUtils
         }
     }
 
+    private static void writeDeclaration(StreamResult streamResult, String xmlDecl, Properties outputProperties) throws IOException
+    {
+        if (streamResult.getWriter() != null)
+        {
+            streamResult.getWriter().write(xmlDecl);
+        }
+        else
+        {
+            String encoding = outputProperties.getProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+            streamResult.getOutputStream().write(xmlDecl.getBytes(encoding));
+        }
+    }
+
+    /**
+     * Transforms the given Node with the XSLT stylesheet in the specified file and
+     * returns the result as a new Document. The compiled stylesheet is taken from
+     * the {@link TemplatesCache#getDefault() default TemplatesCache}.
+     *
+     * @param node
+     *            the Node to transform
+     * @param stylesheet
+     *            the XSLT stylesheet file
+     * @param parameters
+     *            optional stylesheet parameters, may be null
+     * @return the Document produced by the transformation
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled or applied
+     */
+    public static Document transform(Node node, File stylesheet, Map<String, ?> parameters)
+    {
+        try
+        {
+            return transform(node, stylesheet.toURI().toURL(), parameters);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new XsltException("Invalid stylesheet file: " + stylesheet.getPath(), e);
+        }
+    }
+
+    /**
+     * Transforms the given Node with the XSLT stylesheet at the specified location
+     * and returns the result as a new Document. The compiled stylesheet is taken
+     * from the {@link TemplatesCache#getDefault() default TemplatesCache}.
+     *
+     * @param node
+     *            the Node to transform
+     * @param stylesheet
+     *            the location of the XSLT stylesheet
+     * @param parameters
+     *            optional stylesheet parameters, may be null
+     * @return the Document produced by the transformation
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled or applied
+     */
+    public static Document transform(Node node, URL stylesheet, Map<String, ?> parameters)
+    {
+        synchronized (node)
+        {
+            return transform(new DOMSource(node), stylesheet, parameters);
+        }
+    }
+
+    /**
+     * Transforms the given Source with the XSLT stylesheet at the specified
+     * location and returns the result as a new Document. The compiled stylesheet
+     * is taken from the {@link TemplatesCache#getDefault() default
+     * TemplatesCache}.
+     *
+     * @param source
+     *            the Source to transform
+     * @param stylesheet
+     *            the location of the XSLT stylesheet
+     * @param parameters
+     *            optional stylesheet parameters, may be null
+     * @return the Document produced by the transformation
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled or applied
+     */
+    public static Document transform(Source source, URL stylesheet, Map<String, ?> parameters)
+    {
+        Document result = createDocument();
+        transform(source, new DOMResult(result), stylesheet, parameters);
+        return result;
+    }
+
+    /**
+     * Transforms the given Source with the XSLT stylesheet at the specified
+     * location and writes the output to the given Result. The compiled stylesheet
+     * is taken from the {@link TemplatesCache#getDefault() default
+     * TemplatesCache}.
+     *
+     * @param source
+     *            the Source to transform
+     * @param result
+     *            the Result receiving the output of the transformation
+     * @param stylesheet
+     *            the location of the XSLT stylesheet
+     * @param parameters
+     *            optional stylesheet parameters, may be null
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled or applied
+     */
+    public static void transform(Source source, Result result, URL stylesheet, Map<String, ?> parameters)
+    {
+        Templates templates = TemplatesCache.getDefault().getTemplates(stylesheet);
+        try
+        {
+            Transformer transformer = templates.newTransformer();
+            if (parameters != null)
+            {
+                for (Map.Entry<String, ?> entry : parameters.entrySet())
+                {
+                    transformer.setParameter(entry.getKey(), entry.getValue());
+                }
+            }
+            transformer.transform(source, result);
+        }
+        catch (TransformerException e)
+        {
+            throw new XsltException("Unable to apply stylesheet: " + stylesheet, e);
+        }
+    }
+
     /**
      * Selects a child Element of the specified parent Node with the given name.
      *
@@ -1409,8 +2904,7 @@ public class DomUtils
      */
     public static Element selectChild(Node parent, String name)
     {
-        List<Element> children = selectChildren(parent, name);
-        return (!children.isEmpty()) ? children.get(0) : null;
+        return DomUtils.<Element> childElements(parent, name).first();
     }
 
     /**
@@ -1425,17 +2919,7 @@ public class DomUtils
      */
     public static List<Element> selectChildren(Node parent, String name)
     {
-        List<Element> result = new ArrayList<Element>();
-        List<Node> nodes = translateListOfNodes(parent.getChildNodes());
-
-        for (Node n : nodes)
-        {
-            if (n.getNodeType() == Node.ELEMENT_NODE && n.getNodeName().equals(name))
-            {
-                result.add((Element) n);
-            }
-        }
-        return result;
+        return DomUtils.<Element> childElements(parent, name).toList();
     }
 
     /**
@@ -1550,7 +3034,14 @@ public class DomUtils
      */
     public static Node renameNode(Node node, String namespaceUri, String name)
     {
-        return node.getOwnerDocument().renameNode(node, namespaceUri, name);
+        String oldName = node.getNodeName();
+        Node result = node.getOwnerDocument().renameNode(node, namespaceUri, name);
+        ChangeTracker tracker = ChangeTracker.get(result);
+        if (tracker != null)
+        {
+            tracker.fire(ChangeTracker.Change.renamed(result, node, oldName));
+        }
+        return result;
     }
 
     /**
@@ -1566,14 +3057,146 @@ public class DomUtils
      */
     public static void renameAll(Node node, String from, String to)
     {
-        if (Strings.CI.equals(node.getNodeName(), from))
+        traverse(node, current ->
+        {
+            if (Strings.CI.equals(current.getNodeName(), from))
+            {
+                return Traversal.replaceWith(renameNode(current, to));
+            }
+            return Traversal.CONTINUE;
+        });
+    }
+
+    /**
+     * Walks the given Node and its descendants in document order, calling
+     * {@link NodeVisitor#enter(Node)} before and {@link NodeVisitor#leave(Node)}
+     * after the children of each Node. The walk is not recursive: its memory is
+     * bounded by a single explicit stack holding the open ancestors, so documents
+     * of any depth can be traversed.
+     * <p>
+     * The Traversal returned by the visitor controls the walk. The visited Node
+     * may be removed or moved by the visitor, the walk continues with the sibling
+     * that followed it before the visit.
+     *
+     * @param node
+     *            the Node at which the traversal starts
+     * @param visitor
+     *            the visitor to call for each Node
+     * @return true if all Nodes have been visited, false if the visitor stopped
+     *         the traversal
+     */
+    public static boolean traverse(Node node, NodeVisitor visitor)
+    {
+        List<Node> stack = new ArrayList<>();
+        Node current = node;
+        Node next = null;
+        while (current != null)
+        {
+            Traversal traversal = visitor.enter(current);
+            if (traversal == Traversal.STOP)
+            {
+                return false;
+            }
+            if (traversal.replacement != null)
+            {
+                current = replace(current, traversal.replacement);
+            }
+
+            Node firstChild = (traversal == Traversal.SKIP_SUBTREE) ? null : current.getFirstChild();
+            if (firstChild != null)
+            {
+                stack.add(current);
+                stack.add(next);
+                current = firstChild;
+                next = firstChild.getNextSibling();
+                continue;
+            }
+
+            visitor.leave(current);
+            while (next == null && !stack.isEmpty())
+            {
+                next = stack.remove(stack.size() - 1);
+                visitor.leave(stack.remove(stack.size() - 1));
+            }
+            current = next;
+            next = (current != null) ? current.getNextSibling() : null;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a sequential Stream of the descendants of the given Node in document
+     * order, excluding the Node itself.
+     *
+     * @param node
+     *            the Node whose descendants should be streamed
+     * @return a Stream of the descendant Nodes
+     */
+    public static Stream<Node> descendants(Node node)
+    {
+        return descendants(node, false);
+    }
+
+    /**
+     * Returns a Stream of the descendants of the given Node in document order,
+     * excluding the Node itself. The Stream splits at subtree boundaries, so a
+     * parallel Stream distributes whole subtrees across the fork-join pool.
+     * <p>
+     * DOM implementations are not thread-safe for reading while nodes are still
+     * expanded lazily. Before a parallel Stream is returned, the subtree is
+     * therefore walked once to expand all children, values and attributes. The
+     * Stream is read-only: the tree must not be modified while it is consumed,
+     * and operations should not use NodeLists, as DOM implementations cache
+     * them without synchronization.
+     *
+     * @param node
+     *            the Node whose descendants should be streamed
+     * @param parallel
+     *            true for a parallel Stream, false for a sequential one
+     * @return a Stream of the descendant Nodes
+     */
+    public static Stream<Node> descendants(Node node, boolean parallel)
+    {
+        if (parallel)
+        {
+            expand(node);
+        }
+        return StreamSupport.stream(DescendantSpliterator.of(node), parallel);
+    }
+
+    private static void expand(Node node)
+    {
+        traverse(node, current ->
+        {
+            current.getNodeValue();
+            NamedNodeMap attributes = current.getAttributes();
+            if (attributes != null)
+            {
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    attributes.item(i).getNodeValue();
+                }
+            }
+            return Traversal.CONTINUE;
+        });
+    }
+
+    private static Node replace(Node node, Node replacement)
+    {
+        if (replacement == node)
         {
-            renameNode(node, to);
+            return node;
         }
-        for (Node child : DomUtils.translateListOfNodes(node.getChildNodes()))
+        Node parent = node.getParentNode();
+        if (parent == null)
         {
-            renameAll(child, from, to);
+            return replacement;
         }
+        Node result = (replacement.getOwnerDocument() == getOwnerDocument(parent)) ? replacement
+                : getOwnerDocument(parent).importNode(replacement, true);
+        parent.replaceChild(result, node);
+        invalidateNamespaceContext(parent);
+        return result;
     }
 
     /**
@@ -1585,7 +3208,102 @@ public class DomUtils
      */
     public static List<Node> selectChildNodes(Node node)
     {
-        return DomUtils.translateListOfNodes(node.getChildNodes());
+        return DomUtils.childNodes(node).toList();
+    }
+
+    /**
+     * Returns a live view of the child Nodes of the specified Node. The view walks
+     * the sibling links of the children on each iteration instead of copying them
+     * into a List.
+     *
+     * @param node
+     *            the Node whose children should be iterated
+     * @return a view of the child Nodes
+     */
+    public static NodeSequence<Node> childNodes(Node node)
+    {
+        return NodeSequence.children(node);
+    }
+
+    /**
+     * Returns a live view of the child Nodes of the specified Node with the given
+     * node type.
+     *
+     * @param node
+     *            the Node whose children should be iterated
+     * @param nodeType
+     *            the node type of the children, e.g. {@link Node#TEXT_NODE}
+     * @param <T>
+     *            the type of the child Nodes
+     * @return a view of the child Nodes with the given node type
+     */
+    public static <T extends Node> NodeSequence<T> childNodes(Node node, short nodeType)
+    {
+        return NodeSequence.children(node, nodeType);
+    }
+
+    /**
+     * Returns a live view of the child Elements of the specified Node.
+     *
+     * @param node
+     *            the Node whose child Elements should be iterated
+     * @param <T>
+     *            the type of the child Elements
+     * @return a view of the child Elements
+     */
+    public static <T extends Element> NodeSequence<T> childElements(Node node)
+    {
+        return NodeSequence.childElements(node, null);
+    }
+
+    /**
+     * Returns a live view of the child Elements of the specified Node with the
+     * given node name.
+     *
+     * @param node
+     *            the Node whose child Elements should be iterated
+     * @param name
+     *            the node name of the child Elements
+     * @param <T>
+     *            the type of the child Elements
+     * @return a view of the child Elements with the given node name
+     */
+    public static <T extends Element> NodeSequence<T> childElements(Node node, String name)
+    {
+        return NodeSequence.childElements(node, name);
+    }
+
+    /**
+     * Returns a live view of the child Elements of the specified Node with the
+     * given namespace URI and local name.
+     *
+     * @param node
+     *            the Node whose child Elements should be iterated
+     * @param namespaceUri
+     *            the namespace URI of the child Elements, or null for no namespace
+     * @param localName
+     *            the local name of the child Elements
+     * @param <T>
+     *            the type of the child Elements
+     * @return a view of the matching child Elements
+     */
+    public static <T extends Element> NodeSequence<T> childElementsNS(Node node, String namespaceUri, String localName)
+    {
+        return NodeSequence.childElementsNS(node, namespaceUri, localName);
+    }
+
+    /**
+     * Returns a live view of the sibling Elements following the specified Node.
+     *
+     * @param node
+     *            the Node after which the iteration starts
+     * @param <T>
+     *            the type of the sibling Elements
+     * @return a view of the following sibling Elements
+     */
+    public static <T extends Element> NodeSequence<T> followingSiblingElements(Node node)
+    {
+        return NodeSequence.followingSiblingElements(node);
     }
 
     /**
@@ -1748,18 +3466,33 @@ public class DomUtils
      */
     public static Element selectSuccessorElementFromOrder(Element parent, List<String> orderedElementNames, String elementName)
     {
-        Element successor = null;
+        return selectSuccessorElementFromOrder(parent, ElementOrder.of(orderedElementNames), elementName);
+    }
 
-        Set<String> predecessors = selectPredecessors(orderedElementNames, elementName);
-        for (Element child : selectChildren(parent))
+    /**
+     * Selects the first child Element that has to follow an Element with the
+     * given name according to the precompiled element order.
+     *
+     * @param parent
+     *            the parent Node from which to select the next Element
+     * @param order
+     *            the precompiled order of the element names
+     * @param elementName
+     *            the current element name
+     * @return the next Element according to the order, or null if the current
+     *         element has to be appended
+     */
+    public static Element selectSuccessorElementFromOrder(Node parent, ElementOrder order, String elementName)
+    {
+        int rank = order.insertionRank(elementName);
+        for (Element child : DomUtils.<Element> childElements(parent))
         {
-            if (!predecessors.contains(child.getNodeName()))
+            if (order.isSuccessor(child.getNodeName(), rank))
             {
-                successor = child;
-                break;
+                return child;
             }
         }
-        return successor;
+        return null;
     }
 
     /**
@@ -1855,6 +3588,176 @@ public class DomUtils
         void process(Node node, T param);
     }
 
+    /**
+     * A visitor for the Nodes of a tree walked by
+     * {@link DomUtils#traverse(Node, NodeVisitor)}.
+     */
+    public interface NodeVisitor
+    {
+        /**
+         * Called for a Node before its children are visited.
+         *
+         * @param node
+         *            the visited Node
+         * @return how the traversal should continue, never null
+         */
+        Traversal enter(Node node);
+
+        /**
+         * Called for a Node after its children have been visited or skipped. Not
+         * called for Nodes visited after the traversal has been stopped.
+         *
+         * @param node
+         *            the visited Node, or its replacement
+         */
+        default void leave(Node node)
+        {
+        }
+    }
+
+    /**
+     * An InputStream that ignores {@link #close()}, for parsers that close the
+     * stream they read from.
+     */
+    private static final class UnclosableInputStream extends FilterInputStream
+    {
+        UnclosableInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public void close()
+        {
+            // the caller owns the stream
+        }
+    }
+
+    /**
+     * Reads a sequence of CharSequences without copying them into one String.
+     */
+    private static final class CharSequenceReader extends Reader
+    {
+        private final CharSequence[] parts;
+        private int part;
+        private int position;
+
+        CharSequenceReader(CharSequence... parts)
+        {
+            this.parts = parts;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            while (part < parts.length && position == parts[part].length())
+            {
+                part++;
+                position = 0;
+            }
+            if (part == parts.length)
+            {
+                return -1;
+            }
+            CharSequence current = parts[part];
+            int count = Math.min(length, current.length() - position);
+            if (current instanceof String)
+            {
+                ((String) current).getChars(position, position + count, buffer, offset);
+            }
+            else
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    buffer[offset + i] = current.charAt(position + i);
+                }
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close()
+        {
+            part = parts.length;
+        }
+    }
+
+    private static final class DocumentNamespaces implements NamespaceContext
+    {
+        @Override
+        public String getNamespaceURI(String prefix)
+        {
+            throw new IllegalStateException("DOCUMENT_NAMESPACES must be resolved against a Node - use namespaceContext(Node)");
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI)
+        {
+            throw new IllegalStateException("DOCUMENT_NAMESPACES must be resolved against a Node - use namespaceContext(Node)");
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(String namespaceURI)
+        {
+            throw new IllegalStateException("DOCUMENT_NAMESPACES must be resolved against a Node - use namespaceContext(Node)");
+        }
+    }
+
+    /**
+     * Tells {@link DomUtils#traverse(Node, NodeVisitor)} how to continue after a
+     * Node has been entered.
+     */
+    public static final class Traversal
+    {
+        /**
+         * Continues with the children of the entered Node.
+         */
+        public static final Traversal CONTINUE = new Traversal(null);
+
+        /**
+         * Skips the children of the entered Node and continues with its next
+         * sibling.
+         */
+        public static final Traversal SKIP_SUBTREE = new Traversal(null);
+
+        /**
+         * Stops the traversal.
+         */
+        public static final Traversal STOP = new Traversal(null);
+
+        private final Node replacement;
+
+        private Traversal(Node replacement)
+        {
+            this.replacement = replacement;
+        }
+
+        /**
+         * Replaces the entered Node with the given Node and continues with the
+         * children of the replacement. The replacement is imported if it belongs
+         * to another Document. A replacement that has already taken the place of
+         * the entered Node, e.g. the result of {@link Document#renameNode}, is
+         * left where it is.
+         *
+         * @param replacement
+         *            the Node replacing the entered Node
+         * @return the Traversal replacing the entered Node
+         */
+        public static Traversal replaceWith(Node replacement)
+        {
+            if (replacement == null)
+            {
+                throw new IllegalArgumentException("Replacement must not be null");
+            }
+            return new Traversal(replacement);
+        }
+    }
+
     /**
      * Copies the attributes from the source Element to the destination Element.
      *
@@ -1893,6 +3796,34 @@ public class DomUtils
         return dest;
     }
 
+    /**
+     * Moves the child Elements from the source Element to the destination
+     * Element. Unlike {@link #copyChildren(Element, Element)}, the children are
+     * removed from the source: they are relinked, adopted if the destination
+     * belongs to another Document, or copied and then removed if that Document
+     * cannot adopt them. Moving the children of an Element to itself does
+     * nothing.
+     *
+     * @param src
+     *            the source Element from which to move the child Elements
+     * @param dest
+     *            the destination Element to which the child Elements should be
+     *            moved
+     * @return the destination Element with the moved child Elements
+     */
+    public static Element moveChildren(Element src, Element dest)
+    {
+        if (src == dest)
+        {
+            return dest;
+        }
+        for (Element child : DomUtils.<Element> childElements(src))
+        {
+            DomUtils.moveElement(dest, child);
+        }
+        return dest;
+    }
+
     /**
      * Appends a new Text node with the specified text content to the given parent
      * Element.
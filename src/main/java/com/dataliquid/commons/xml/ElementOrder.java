@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, precompiled order of element names, e.g. the sequence of a
+ * schema type, used to insert Elements at their ordered position. The rank of
+ * a name is looked up in constant time; for names listed more than once the
+ * first occurrence counts.
+ * <p>
+ * An Element is inserted before the first child Element whose name is either
+ * unknown to the order or ranked after the name of the inserted Element.
+ * Elements with an unknown name are inserted before the first child Element
+ * with an unknown name, or appended.
+ * <p>
+ * An order created with {@link #ofLocalNames(List)} ignores namespace prefixes
+ * and compares local names only, as element names are declared in a schema.
+ */
+public final class ElementOrder
+{
+    /**
+     * The rank of names that are not part of the order.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final char PREFIX_SEPARATOR = ':';
+
+    private final List<String> names;
+    private final Map<String, Integer> ranks;
+    private final boolean localNames;
+
+    private ElementOrder(List<String> names, boolean localNames)
+    {
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.ranks = new HashMap<>();
+        this.localNames = localNames;
+        for (int i = 0; i < names.size(); i++)
+        {
+            ranks.putIfAbsent(key(names.get(i)), i);
+        }
+    }
+
+    /**
+     * Compiles an ElementOrder from the given ordered element names.
+     *
+     * @param orderedElementNames
+     *            the element names in their desired order
+     * @return the compiled ElementOrder
+     */
+    public static ElementOrder of(List<String> orderedElementNames)
+    {
+        if (orderedElementNames == null)
+        {
+            throw new IllegalArgumentException("Element names must not be null");
+        }
+        return new ElementOrder(orderedElementNames, false);
+    }
+
+    /**
+     * Compiles an ElementOrder from the given ordered element names.
+     *
+     * @param orderedElementNames
+     *            the element names in their desired order
+     * @return the compiled ElementOrder
+     */
+    public static ElementOrder of(String... orderedElementNames)
+    {
+        return of(Arrays.asList(orderedElementNames));
+    }
+
+    /**
+     * Compiles an ElementOrder from the given ordered local names. Element names
+     * looked up in the order are compared without their namespace prefix.
+     *
+     * @param orderedLocalNames
+     *            the local names in their desired order
+     * @return the compiled ElementOrder
+     */
+    public static ElementOrder ofLocalNames(List<String> orderedLocalNames)
+    {
+        if (orderedLocalNames == null)
+        {
+            throw new IllegalArgumentException("Element names must not be null");
+        }
+        return new ElementOrder(orderedLocalNames, true);
+    }
+
+    /**
+     * Compiles an ElementOrder from the given ordered local names. Element names
+     * looked up in the order are compared without their namespace prefix.
+     *
+     * @param orderedLocalNames
+     *            the local names in their desired order
+     * @return the compiled ElementOrder
+     */
+    public static ElementOrder ofLocalNames(String... orderedLocalNames)
+    {
+        return ofLocalNames(Arrays.asList(orderedLocalNames));
+    }
+
+    /**
+     * Returns the rank of the given element name.
+     *
+     * @param name
+     *            the element name
+     * @return the zero-based rank of the name, or {@link #UNKNOWN} if the name is
+     *         not part of the order
+     */
+    public int rank(String name)
+    {
+        Integer rank = ranks.get(key(name));
+        return (rank != null) ? rank : UNKNOWN;
+    }
+
+    /**
+     * Checks whether the given element name is part of the order.
+     *
+     * @param name
+     *            the element name
+     * @return true if the name is part of the order, false otherwise
+     */
+    public boolean contains(String name)
+    {
+        return ranks.containsKey(key(name));
+    }
+
+    /**
+     * Checks whether this order compares local names only.
+     *
+     * @return true if namespace prefixes are ignored, false otherwise
+     */
+    public boolean isLocalNames()
+    {
+        return localNames;
+    }
+
+    /**
+     * Returns the ordered element names.
+     *
+     * @return an unmodifiable List of the element names
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+    /**
+     * Returns the number of ordered element names.
+     *
+     * @return the number of element names
+     */
+    public int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * Returns the position that decides where an Element with the given name is
+     * inserted: its rank, or the last rank if the name is unknown.
+     */
+    int insertionRank(String name)
+    {
+        int rank = rank(name);
+        return (rank != UNKNOWN) ? rank : names.size() - 1;
+    }
+
+    /**
+     * Checks whether a child Element with the given name has to follow an
+     * Element inserted at the given insertion rank.
+     */
+    boolean isSuccessor(String childName, int insertionRank)
+    {
+        int rank = rank(childName);
+        return rank == UNKNOWN || rank > insertionRank;
+    }
+
+    private String key(String name)
+    {
+        if (!localNames || name == null)
+        {
+            return name;
+        }
+        int separator = name.indexOf(PREFIX_SEPARATOR);
+        return (separator < 0) ? name : name.substring(separator + 1);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof ElementOrder))
+        {
+            return false;
+        }
+        ElementOrder other = (ElementOrder) obj;
+        return localNames == other.localNames && names.equals(other.names);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * names.hashCode() + (localNames ? 1 : 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ElementOrder" + names;
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+
+import org.xml.sax.Attributes;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+
+/**
+ * A compiled forward-only XPath subset that can be matched against a stream of
+ * start-element events without building a DOM.
+ * <p>
+ * Supported are absolute location paths of child ({@code /}) and descendant
+ * ({@code //}) steps with name tests ({@code name}, {@code prefix:name},
+ * {@code *}, {@code prefix:*}) and attribute predicates ({@code [@a]},
+ * {@code [@a='v']}), optionally ending in {@code @name} or {@code text()}. Any
+ * other expression is rejected by {@link #compile(String, NamespaceContext...)}.
+ * <p>
+ * Matching is a small nondeterministic automaton whose states are bits of a
+ * long: bit {@code i} means that step {@code i} is to be matched next, so the
+ * state of an element is derived from the state of its parent with
+ * {@link #advance(long, String, String, Attributes)}.
+ */
+final class ForwardPath
+{
+    /**
+     * What a matching path selects.
+     */
+    enum Target
+    {
+        /** The matched element, evaluated to its string value. */
+        ELEMENT,
+        /** An attribute of the matched element. */
+        ATTRIBUTE,
+        /** The text nodes directly below the matched element. */
+        TEXT
+    }
+
+    static final long START = 1L;
+
+    private static final int MAXIMUM_STEPS = 62;
+    private static final String TEXT_TEST = "text()";
+
+    private final String expression;
+    private final Step[] steps;
+    private final Target target;
+    private final NameTest attribute;
+    private final long matchMask;
+
+    private ForwardPath(String expression, List<Step> steps, Target target, NameTest attribute, boolean orSelf)
+    {
+        this.expression = expression;
+        this.steps = steps.toArray(new Step[0]);
+        this.target = target;
+        this.attribute = attribute;
+        // for a trailing //@name or //text() the last step is descendant-or-self::*,
+        // so an element reaching that step is selected as well as its descendants
+        this.matchMask = 1L << (orSelf ? steps.size() - 1 : steps.size());
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param xpath
+     *            the XPath expression
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            XPath expression
+     * @return the compiled path
+     * @throws XpathException
+     *             if the expression is outside the supported subset or uses an
+     *             unbound prefix
+     */
+    static ForwardPath compile(String xpath, NamespaceContext... namespaceContext)
+    {
+        return new Parser(xpath, DomUtils.fromNamespaceContextList(namespaceContext)).parse();
+    }
+
+    String getExpression()
+    {
+        return expression;
+    }
+
+    Target getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * Returns the state of an element from the state of its parent.
+     *
+     * @param states
+     *            the state of the parent, {@link #START} for the document element
+     * @param uri
+     *            the namespace URI of the element, empty for none
+     * @param localName
+     *            the local name of the element
+     * @param attributes
+     *            the attributes of the element
+     * @return the state of the element
+     */
+    long advance(long states, String uri, String localName, Attributes attributes)
+    {
+        long result = 0L;
+        for (int i = 0; i < steps.length; i++)
+        {
+            if ((states & (1L << i)) == 0)
+            {
+                continue;
+            }
+            if (steps[i].descendant)
+            {
+                result |= 1L << i;
+            }
+            if (steps[i].matches(uri, localName, attributes))
+            {
+                result |= 1L << (i + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the element with the given state is selected by the path
+     */
+    boolean isMatch(long states)
+    {
+        return (states & matchMask) != 0;
+    }
+
+    /**
+     * @return true if descendants of the element with the given state may still
+     *         be selected by the path
+     */
+    boolean isActive(long states)
+    {
+        return (states & ((1L << steps.length) - 1)) != 0;
+    }
+
+    /**
+     * Checks if an attribute of an element is needed to evaluate the path, i.e.
+     * if a step that may be matched against the element tests it, or if the
+     * element is selected and the path selects the attribute.
+     *
+     * @param parentStates
+     *            the state of the parent of the element
+     * @param states
+     *            the state of the element
+     * @param uri
+     *            the namespace URI of the attribute, empty for none
+     * @param localName
+     *            the local name of the attribute
+     * @return true if the attribute is needed
+     */
+    boolean isReferenced(long parentStates, long states, String uri, String localName)
+    {
+        if (attribute != null && isMatch(states) && attribute.matches(uri, localName))
+        {
+            return true;
+        }
+        for (int i = 0; i < steps.length; i++)
+        {
+            if ((parentStates & (1L << i)) == 0)
+            {
+                continue;
+            }
+            for (AttributeTest test : steps[i].predicates)
+            {
+                if (test.name.matches(uri, localName))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the value of the selected attribute, or null if the element does
+     *         not have it
+     */
+    String selectAttribute(Attributes attributes)
+    {
+        return attribute.valueOf(attributes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return expression;
+    }
+
+    private static final class NameTest
+    {
+        private final String uri;
+        private final String localName;
+
+        NameTest(String uri, String localName)
+        {
+            this.uri = uri;
+            this.localName = localName;
+        }
+
+        boolean matches(String otherUri, String otherLocalName)
+        {
+            return (uri == null || uri.equals(otherUri)) && (localName == null || localName.equals(otherLocalName));
+        }
+
+        String valueOf(Attributes attributes)
+        {
+            for (int i = 0; i < attributes.getLength(); i++)
+            {
+                if (matches(attributes.getURI(i), attributes.getLocalName(i)) && !isNamespaceDeclaration(attributes.getQName(i)))
+                {
+                    return attributes.getValue(i);
+                }
+            }
+            return null;
+        }
+
+        private static boolean isNamespaceDeclaration(String qName)
+        {
+            return qName.equals("xmlns") || qName.startsWith("xmlns:");
+        }
+    }
+
+    private static final class AttributeTest
+    {
+        private final NameTest name;
+        private final String value;
+
+        AttributeTest(NameTest name, String value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        boolean matches(Attributes attributes)
+        {
+            String actual = name.valueOf(attributes);
+            return actual != null && (value == null || value.equals(actual));
+        }
+    }
+
+    private static final class Step
+    {
+        private final boolean descendant;
+        private final NameTest name;
+        private final List<AttributeTest> predicates;
+
+        Step(boolean descendant, NameTest name, List<AttributeTest> predicates)
+        {
+            this.descendant = descendant;
+            this.name = name;
+            this.predicates = predicates;
+        }
+
+        boolean matches(String uri, String localName, Attributes attributes)
+        {
+            if (!name.matches(uri, localName))
+            {
+                return false;
+            }
+            for (AttributeTest predicate : predicates)
+            {
+                if (!predicate.matches(attributes))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Parser
+    {
+        private final String xpath;
+        private final NamespaceContext namespaceContext;
+        private int position;
+
+        Parser(String xpath, NamespaceContext namespaceContext)
+        {
+            this.xpath = xpath.trim();
+            this.namespaceContext = namespaceContext;
+        }
+
+        ForwardPath parse()
+        {
+            List<Step> steps = new ArrayList<>();
+            Target target = Target.ELEMENT;
+            NameTest attribute = null;
+            boolean orSelf = false;
+            if (!xpath.startsWith("/"))
+            {
+                throw unsupported("only absolute paths are streamable");
+            }
+            while (position < xpath.length())
+            {
+                boolean descendant = xpath.startsWith("//", position);
+                position += descendant ? 2 : 1;
+                if (peek() == '@' || xpath.startsWith(TEXT_TEST, position))
+                {
+                    if (descendant)
+                    {
+                        steps.add(new Step(true, new NameTest(null, null), new ArrayList<AttributeTest>()));
+                        orSelf = true;
+                    }
+                    if (peek() == '@')
+                    {
+                        position++;
+                        attribute = nameTest();
+                        target = Target.ATTRIBUTE;
+                    }
+                    else
+                    {
+                        position += TEXT_TEST.length();
+                        target = Target.TEXT;
+                    }
+                    if (position < xpath.length())
+                    {
+                        throw unsupported("attribute and text() steps must be last");
+                    }
+                    break;
+                }
+                NameTest name = nameTest();
+                List<AttributeTest> predicates = new ArrayList<>();
+                while (peek() == '[')
+                {
+                    predicates.add(predicate());
+                }
+                steps.add(new Step(descendant, name, predicates));
+                if (position < xpath.length() && peek() != '/')
+                {
+                    throw unsupported("unexpected '" + peek() + "' at position " + position);
+                }
+            }
+            if (steps.isEmpty())
+            {
+                throw unsupported("the path has no element step");
+            }
+            if (steps.size() > MAXIMUM_STEPS)
+            {
+                throw unsupported("more than " + MAXIMUM_STEPS + " steps");
+            }
+            return new ForwardPath(xpath, steps, target, attribute, orSelf);
+        }
+
+        private AttributeTest predicate()
+        {
+            position++;
+            skipSpaces();
+            if (peek() != '@')
+            {
+                throw unsupported("only attribute predicates are streamable");
+            }
+            position++;
+            NameTest name = nameTest();
+            skipSpaces();
+            String value = null;
+            if (peek() == '=')
+            {
+                position++;
+                skipSpaces();
+                char quote = peek();
+                if (quote != '\'' && quote != '"')
+                {
+                    throw unsupported("attribute predicates must compare with a string literal");
+                }
+                int end = xpath.indexOf(quote, position + 1);
+                if (end < 0)
+                {
+                    throw unsupported("unterminated string literal");
+                }
+                value = xpath.substring(position + 1, end);
+                position = end + 1;
+                skipSpaces();
+            }
+            if (peek() != ']')
+            {
+                throw unsupported("unexpected '" + peek() + "' in predicate at position " + position);
+            }
+            position++;
+            return new AttributeTest(name, value);
+        }
+
+        private NameTest nameTest()
+        {
+            if (peek() == '*')
+            {
+                position++;
+                return new NameTest(null, null);
+            }
+            String first = ncName();
+            if (peek() != ':')
+            {
+                return new NameTest("", first);
+            }
+            position++;
+            String uri = namespaceContext != null ? namespaceContext.getNamespaceURI(first) : null;
+            if (uri == null || uri.isEmpty())
+            {
+                throw new XpathException("Unbound namespace prefix '" + first + "' in XPath expression: " + xpath);
+            }
+            if (peek() == '*')
+            {
+                position++;
+                return new NameTest(uri, null);
+            }
+            return new NameTest(uri, ncName());
+        }
+
+        private String ncName()
+        {
+            int start = position;
+            while (position < xpath.length())
+            {
+                char c = xpath.charAt(position);
+                boolean valid = Character.isLetter(c) || c == '_' || (position > start && (Character.isDigit(c) || c == '-' || c == '.'));
+                if (!valid)
+                {
+                    break;
+                }
+                position++;
+            }
+            if (position == start)
+            {
+                throw unsupported(position < xpath.length() ? "unexpected '" + peek() + "' at position " + position : "missing name test");
+            }
+            return xpath.substring(start, position);
+        }
+
+        private void skipSpaces()
+        {
+            while (position < xpath.length() && Character.isWhitespace(xpath.charAt(position)))
+            {
+                position++;
+            }
+        }
+
+        private char peek()
+        {
+            return position < xpath.length() ? xpath.charAt(position) : '\0';
+        }
+
+        private XpathException unsupported(String reason)
+        {
+            return new XpathException("XPath expression is not streamable - " + reason + ": " + xpath);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.DomUtils.NodeVisitor;
+import com.dataliquid.commons.xml.DomUtils.Traversal;
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+/**
+ * Removes redundant namespace declarations below an Element and hoists
+ * prefixed declarations to it.
+ * <p>
+ * The first walk collects, per prefix, the namespace URIs that are declared
+ * and the namespace URIs of the element and attribute names using the prefix.
+ * A prefix declared with exactly one URI and never used with another one is
+ * declared on the root Element and its declarations below are dropped. The
+ * second walk tracks the bindings in scope and removes every declaration that
+ * repeats the binding already in scope. The default namespace is never
+ * hoisted, only its redundant declarations are removed.
+ * <p>
+ * Prefixes of element and attribute names count as bindings in scope, so the
+ * result serializes to the same infoset even for Nodes created without
+ * explicit declarations.
+ */
+final class NamespaceNormalizer implements NodeVisitor
+{
+    private static final String DEFAULT_PREFIX = "";
+
+    private final Element root;
+    private final Map<String, String> scope = new HashMap<>();
+    private final List<List<String[]>> undo = new ArrayList<>();
+    private int removed;
+
+    private NamespaceNormalizer(Element root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * Normalizes the namespace declarations of the given Element and its
+     * descendants.
+     *
+     * @param root
+     *            the Element to normalize
+     * @return the number of declarations removed, minus the number added to the
+     *         root Element
+     */
+    static int normalize(Element root)
+    {
+        NamespaceNormalizer normalizer = new NamespaceNormalizer(root);
+        normalizer.hoist();
+        DomUtils.traverse(root, normalizer);
+        return normalizer.removed;
+    }
+
+    private void hoist()
+    {
+        Map<String, Usage> usages = new LinkedHashMap<>();
+        DomUtils.traverse(root, new NodeVisitor()
+        {
+            @Override
+            public Traversal enter(Node node)
+            {
+                if (node.getNodeType() != Node.ELEMENT_NODE)
+                {
+                    return Traversal.SKIP_SUBTREE;
+                }
+                use(usages, node);
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    Attr attribute = (Attr) attributes.item(i);
+                    String prefix = declaredPrefix(attribute);
+                    if (prefix == null)
+                    {
+                        use(usages, attribute);
+                    }
+                    else if (!prefix.isEmpty())
+                    {
+                        usage(usages, prefix).declare(attribute.getValue(), node != root);
+                    }
+                }
+                return Traversal.CONTINUE;
+            }
+        });
+
+        for (Map.Entry<String, Usage> entry : usages.entrySet())
+        {
+            Usage usage = entry.getValue();
+            if (usage.isHoistable() && !usage.declaredOnRoot)
+            {
+                root.setAttributeNS(DefaultNamespaceContext.NAMESPACE_XMLNS, DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS + ":" + entry.getKey(),
+                        usage.uri);
+                removed--;
+            }
+        }
+    }
+
+    private static void use(Map<String, Usage> usages, Node node)
+    {
+        String prefix = node.getPrefix();
+        if (prefix != null && node.getNamespaceURI() != null)
+        {
+            usage(usages, prefix).use(node.getNamespaceURI());
+        }
+    }
+
+    private static Usage usage(Map<String, Usage> usages, String prefix)
+    {
+        Usage usage = usages.get(prefix);
+        if (usage == null)
+        {
+            usage = new Usage();
+            usages.put(prefix, usage);
+        }
+        return usage;
+    }
+
+    @Override
+    public Traversal enter(Node node)
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+        {
+            return Traversal.SKIP_SUBTREE;
+        }
+        List<String[]> previous = new ArrayList<>();
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = attributes.getLength() - 1; i >= 0; i--)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+            String prefix = declaredPrefix(attribute);
+            if (prefix == null)
+            {
+                continue;
+            }
+            if (Objects.equals(inScope(node, prefix), attribute.getValue()))
+            {
+                if (node != root)
+                {
+                    ((Element) node).removeAttributeNode(attribute);
+                    removed++;
+                }
+            }
+            else
+            {
+                bind(previous, prefix, attribute.getValue());
+            }
+        }
+        bind(previous, node);
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            bind(previous, attributes.item(i));
+        }
+        undo.add(previous);
+        return Traversal.CONTINUE;
+    }
+
+    @Override
+    public void leave(Node node)
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+        {
+            return;
+        }
+        List<String[]> previous = undo.remove(undo.size() - 1);
+        for (int i = previous.size() - 1; i >= 0; i--)
+        {
+            String[] binding = previous.get(i);
+            if (binding[1] == null)
+            {
+                scope.remove(binding[0]);
+            }
+            else
+            {
+                scope.put(binding[0], binding[1]);
+            }
+        }
+    }
+
+    private void bind(List<String[]> previous, Node node)
+    {
+        String prefix = node.getPrefix();
+        String uri = node.getNamespaceURI();
+        if (uri != null && !DefaultNamespaceContext.NAMESPACE_XMLNS.equals(uri))
+        {
+            bind(previous, prefix != null ? prefix : DEFAULT_PREFIX, uri);
+        }
+        else if (node.getNodeType() == Node.ELEMENT_NODE && node.getLocalName() != null && prefix == null)
+        {
+            bind(previous, DEFAULT_PREFIX, DEFAULT_PREFIX);
+        }
+    }
+
+    private void bind(List<String[]> previous, String prefix, String uri)
+    {
+        previous.add(new String[] { prefix, scope.put(prefix, uri) });
+    }
+
+    private String inScope(Node node, String prefix)
+    {
+        if (scope.containsKey(prefix))
+        {
+            return scope.get(prefix);
+        }
+        Node parent = root.getParentNode();
+        String uri = (parent != null) ? parent.lookupNamespaceURI(prefix.isEmpty() ? null : prefix) : null;
+        if (uri == null && prefix.isEmpty())
+        {
+            return DEFAULT_PREFIX;
+        }
+        return uri;
+    }
+
+    private static String declaredPrefix(Attr attribute)
+    {
+        String name = attribute.getName();
+        if (DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS.equals(name))
+        {
+            return DEFAULT_PREFIX;
+        }
+        if (name.startsWith(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS + ":"))
+        {
+            return name.substring(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS.length() + 1);
+        }
+        return null;
+    }
+
+    private static final class Usage
+    {
+        private String uri;
+        private boolean conflict;
+        private boolean declaredBelow;
+        private boolean declaredOnRoot;
+
+        void declare(String declared, boolean below)
+        {
+            use(declared);
+            declaredBelow |= below;
+            declaredOnRoot |= !below;
+        }
+
+        void use(String used)
+        {
+            if (uri == null)
+            {
+                uri = used;
+            }
+            else if (!uri.equals(used))
+            {
+                conflict = true;
+            }
+        }
+
+        boolean isHoistable()
+        {
+            return declaredBelow && !conflict && !uri.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import org.w3c.dom.Node;
+
+/**
+ * A live view of a run of sibling Nodes, filtered by node type, node name or
+ * namespace URI and local name. Iterating the view walks the
+ * {@code getFirstChild}/{@code getNextSibling} links directly instead of
+ * copying a NodeList, so nothing is allocated per visited Node.
+ * <p>
+ * The iterator looks ahead to the next matching Node before returning the
+ * current one. The current Node may therefore be removed, moved or replaced
+ * during iteration without affecting the remaining Nodes.
+ *
+ * @param <T>
+ *            the type of the Nodes in the sequence
+ */
+public final class NodeSequence<T extends Node> implements Iterable<T>
+{
+    private static final short ANY_TYPE = 0;
+
+    private final Node parent;
+    private final Node predecessor;
+    private final short nodeType;
+    private final String nodeName;
+    private final String namespaceUri;
+    private final String localName;
+    private final boolean matchNamespace;
+
+    private NodeSequence(Node parent, Node predecessor, short nodeType, String nodeName, String namespaceUri, String localName,
+            boolean matchNamespace)
+    {
+        this.parent = parent;
+        this.predecessor = predecessor;
+        this.nodeType = nodeType;
+        this.nodeName = nodeName;
+        this.namespaceUri = namespaceUri;
+        this.localName = localName;
+        this.matchNamespace = matchNamespace;
+    }
+
+    /**
+     * Creates a view of all children of the given parent Node.
+     *
+     * @param parent
+     *            the parent Node
+     * @return the view of the children
+     */
+    static NodeSequence<Node> children(Node parent)
+    {
+        return new NodeSequence<>(parent, null, ANY_TYPE, null, null, null, false);
+    }
+
+    /**
+     * Creates a view of the children of the given parent Node with the given node
+     * type.
+     *
+     * @param parent
+     *            the parent Node
+     * @param nodeType
+     *            the node type of the children
+     * @param <T>
+     *            the type of the Nodes in the sequence
+     * @return the view of the children
+     */
+    static <T extends Node> NodeSequence<T> children(Node parent, short nodeType)
+    {
+        return new NodeSequence<>(parent, null, nodeType, null, null, null, false);
+    }
+
+    /**
+     * Creates a view of the child elements of the given parent Node with the given
+     * node name, or of all child elements if the name is null.
+     *
+     * @param parent
+     *            the parent Node
+     * @param nodeName
+     *            the node name of the child elements, may be null
+     * @param <T>
+     *            the type of the Nodes in the sequence
+     * @return the view of the child elements
+     */
+    static <T extends Node> NodeSequence<T> childElements(Node parent, String nodeName)
+    {
+        return new NodeSequence<>(parent, null, Node.ELEMENT_NODE, nodeName, null, null, false);
+    }
+
+    /**
+     * Creates a view of the child elements of the given parent Node with the given
+     * namespace URI and local name.
+     *
+     * @param parent
+     *            the parent Node
+     * @param namespaceUri
+     *            the namespace URI of the child elements, null for no namespace
+     * @param localName
+     *            the local name of the child elements
+     * @param <T>
+     *            the type of the Nodes in the sequence
+     * @return the view of the child elements
+     */
+    static <T extends Node> NodeSequence<T> childElementsNS(Node parent, String namespaceUri, String localName)
+    {
+        return new NodeSequence<>(parent, null, Node.ELEMENT_NODE, null, namespaceUri, localName, true);
+    }
+
+    /**
+     * Creates a view of the sibling elements following the given Node.
+     *
+     * @param node
+     *            the Node after which the sequence starts
+     * @param <T>
+     *            the type of the Nodes in the sequence
+     * @return the view of the following sibling elements
+     */
+    static <T extends Node> NodeSequence<T> followingSiblingElements(Node node)
+    {
+        return new NodeSequence<>(null, node, Node.ELEMENT_NODE, null, null, null, false);
+    }
+
+    /**
+     * Returns the first Node of this sequence.
+     *
+     * @return the first Node, or null if the sequence is empty
+     */
+    public T first()
+    {
+        return next(start());
+    }
+
+    /**
+     * Checks whether this sequence contains no Nodes.
+     *
+     * @return true if the sequence is empty, false otherwise
+     */
+    public boolean isEmpty()
+    {
+        return first() == null;
+    }
+
+    /**
+     * Copies the Nodes of this sequence into a new List.
+     *
+     * @return a List of the Nodes of this sequence
+     */
+    public List<T> toList()
+    {
+        List<T> result = new ArrayList<>();
+        for (T node : this)
+        {
+            result.add(node);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        return new SequenceIterator(next(start()));
+    }
+
+    private Node start()
+    {
+        return predecessor != null ? predecessor.getNextSibling() : parent.getFirstChild();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T next(Node candidate)
+    {
+        for (Node node = candidate; node != null; node = node.getNextSibling())
+        {
+            if (matches(node))
+            {
+                return (T) node;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(Node node)
+    {
+        if (nodeType != ANY_TYPE && node.getNodeType() != nodeType)
+        {
+            return false;
+        }
+        if (nodeName != null && !nodeName.equals(node.getNodeName()))
+        {
+            return false;
+        }
+        if (matchNamespace)
+        {
+            String name = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+            return localName.equals(name) && Objects.equals(namespaceUri, node.getNamespaceURI());
+        }
+        return true;
+    }
+
+    private final class SequenceIterator implements Iterator<T>
+    {
+        private T next;
+        private T current;
+
+        SequenceIterator(T first)
+        {
+            this.next = first;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public T next()
+        {
+            if (next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = NodeSequence.this.next(current.getNextSibling());
+            return current;
+        }
+
+        @Override
+        public void remove()
+        {
+            if (current == null)
+            {
+                throw new IllegalStateException("next() has not been called");
+            }
+            current.getParentNode().removeChild(current);
+            current = null;
+        }
+    }
+}
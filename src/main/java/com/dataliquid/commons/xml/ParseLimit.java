@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+/**
+ * A condition that ends a parse early, e.g. for routing decisions based on a
+ * header near the start of a message. Parsing with a ParseLimit, e.g.
+ * {@link DomUtils#parse(java.io.InputStream, ParseLimit)}, returns the part of
+ * the Document built until the condition was met; elements still open at that
+ * point are kept with the content read so far.
+ */
+public final class ParseLimit
+{
+    private final int elements;
+    private final String namespaceUri;
+    private final String name;
+
+    private ParseLimit(int elements, String namespaceUri, String name)
+    {
+        this.elements = elements;
+        this.namespaceUri = namespaceUri;
+        this.name = name;
+    }
+
+    /**
+     * Creates a limit that stops before the element following the first
+     * {@code count} elements is started.
+     *
+     * @param count
+     *            the number of elements to build
+     * @return the limit
+     * @throws IllegalArgumentException
+     *             if count is less than 1
+     */
+    public static ParseLimit elements(int count)
+    {
+        if (count < 1)
+        {
+            throw new IllegalArgumentException("Element count must be at least 1 - got " + count);
+        }
+        return new ParseLimit(count, null, null);
+    }
+
+    /**
+     * Creates a limit that stops as soon as the first element with the given
+     * qualified name has been closed.
+     *
+     * @param name
+     *            the qualified name of the element
+     * @return the limit
+     */
+    public static ParseLimit afterElement(String name)
+    {
+        return new ParseLimit(0, null, name);
+    }
+
+    /**
+     * Creates a limit that stops as soon as the first element with the given
+     * namespace URI and local name has been closed.
+     *
+     * @param namespaceUri
+     *            the namespace URI of the element, null or empty for none
+     * @param localName
+     *            the local name of the element
+     * @return the limit
+     */
+    public static ParseLimit afterElement(String namespaceUri, String localName)
+    {
+        return new ParseLimit(0, (namespaceUri != null) ? namespaceUri : "", localName);
+    }
+
+    /**
+     * @return true if another element may be started after the given number of
+     *         started elements
+     */
+    boolean allowsStart(int startedElements)
+    {
+        return elements == 0 || startedElements < elements;
+    }
+
+    /**
+     * @return true if parsing ends after the given element has been closed
+     */
+    boolean isLast(String uri, String localName, String qName)
+    {
+        if (name == null)
+        {
+            return false;
+        }
+        return (namespaceUri == null) ? name.equals(qName) : namespaceUri.equals(uri) && name.equals(localName);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (name == null)
+        {
+            return "ParseLimit[elements=" + elements + "]";
+        }
+        return "ParseLimit[afterElement=" + ((namespaceUri == null || namespaceUri.isEmpty()) ? name : "{" + namespaceUri + "}" + name) + "]";
+    }
+}
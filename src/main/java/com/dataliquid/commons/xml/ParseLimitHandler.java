@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that forwards events to a {@link DomBuilder} until a
+ * {@link ParseLimit} is reached, then ends the parse by throwing
+ * {@link LimitReachedException}.
+ */
+final class ParseLimitHandler extends DefaultHandler implements LexicalHandler
+{
+    private final DomBuilder builder;
+    private final ParseLimit limit;
+    private int startedElements;
+    private boolean reached;
+
+    ParseLimitHandler(DomBuilder builder, ParseLimit limit)
+    {
+        this.builder = builder;
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if parsing was ended by the limit
+     */
+    boolean isReached()
+    {
+        return reached;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+        if (!limit.allowsStart(startedElements))
+        {
+            stop();
+        }
+        startedElements++;
+        builder.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+        builder.endElement(uri, localName, qName);
+        if (limit.isLast(uri, localName, qName))
+        {
+            stop();
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+    {
+        builder.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+    {
+        builder.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+    {
+        builder.processingInstruction(target, data);
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length)
+    {
+        builder.comment(ch, start, length);
+    }
+
+    @Override
+    public void startCDATA()
+    {
+        builder.startCDATA();
+    }
+
+    @Override
+    public void endCDATA()
+    {
+        builder.endCDATA();
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId)
+    {
+        builder.startDTD(name, publicId, systemId);
+    }
+
+    @Override
+    public void endDTD()
+    {
+        builder.endDTD();
+    }
+
+    @Override
+    public void startEntity(String name)
+    {
+        builder.startEntity(name);
+    }
+
+    @Override
+    public void endEntity(String name)
+    {
+        builder.endEntity(name);
+    }
+
+    @Override
+    public void endDocument()
+    {
+        builder.endDocument();
+    }
+
+    private void stop() throws LimitReachedException
+    {
+        builder.endDocument();
+        reached = true;
+        throw new LimitReachedException();
+    }
+
+    /**
+     * Thrown to end a parse once the limit has been reached.
+     */
+    static final class LimitReachedException extends SAXException
+    {
+        private static final long serialVersionUID = 1L;
+
+        LimitReachedException()
+        {
+            super("Parse limit reached");
+        }
+    }
+}
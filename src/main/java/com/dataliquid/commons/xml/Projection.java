@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+
+/**
+ * The set of paths a caller will query on a projected Document. Parsing with
+ * a Projection, e.g. {@link DomUtils#parse(java.io.InputStream, Projection)},
+ * keeps only the Nodes that can contribute to these paths: the selected
+ * elements with their whole subtree, and their ancestors with the attributes
+ * tested by the paths. Everything else is dropped while parsing.
+ * <p>
+ * The paths use the forward-only subset supported by the streaming select
+ * methods: absolute child and descendant steps with name tests and attribute
+ * predicates, optionally ending in {@code @name} or {@code text()}, e.g.
+ * {@code /order/customer[@type='b2b']/name} or {@code //item/@id}. The
+ * select methods may be used with the same paths on the projected Document.
+ */
+public final class Projection
+{
+    private final List<ForwardPath> paths;
+
+    private Projection(List<ForwardPath> paths)
+    {
+        this.paths = Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * Creates a Projection keeping the Nodes needed by the given paths.
+     *
+     * @param paths
+     *            the paths that will be queried
+     * @return the Projection
+     * @throws com.dataliquid.commons.xml.exception.XpathException
+     *             if a path is outside the supported subset
+     */
+    public static Projection of(String... paths)
+    {
+        return of(Arrays.asList(paths));
+    }
+
+    /**
+     * Creates a Projection keeping the Nodes needed by the given paths.
+     *
+     * @param paths
+     *            the paths that will be queried
+     * @param namespaceContext
+     *            optional NamespaceContext for resolving namespace prefixes in the
+     *            paths
+     * @return the Projection
+     * @throws com.dataliquid.commons.xml.exception.XpathException
+     *             if a path is outside the supported subset
+     */
+    public static Projection of(List<String> paths, NamespaceContext... namespaceContext)
+    {
+        if (paths.isEmpty())
+        {
+            throw new IllegalArgumentException("A projection needs at least one path");
+        }
+        List<ForwardPath> compiled = new ArrayList<>(paths.size());
+        for (String path : paths)
+        {
+            compiled.add(ForwardPath.compile(path, namespaceContext));
+        }
+        return new Projection(compiled);
+    }
+
+    /**
+     * Returns the paths of this Projection.
+     *
+     * @return the unmodifiable list of paths
+     */
+    public List<String> getPaths()
+    {
+        List<String> result = new ArrayList<>(paths.size());
+        for (ForwardPath path : paths)
+        {
+            result.add(path.getExpression());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    List<ForwardPath> getForwardPaths()
+    {
+        return paths;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Projection" + getPaths();
+    }
+}
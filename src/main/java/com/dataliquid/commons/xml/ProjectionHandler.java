@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that forwards to a {@link DomBuilder} only the events needed
+ * by a {@link Projection}. The state of every path is tracked per open element;
+ * an element whose paths can no longer match anything is skipped together
+ * with its subtree, an element on the way to a match is kept with its
+ * namespace declarations and tested attributes only, and a selected element is
+ * kept with everything below it. Below a descendant step every element may
+ * still lead to a match, so the element structure is kept there without text.
+ */
+final class ProjectionHandler extends DefaultHandler implements LexicalHandler
+{
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+
+    private final DomBuilder builder;
+    private final ForwardPath[] paths;
+    private final List<long[]> states = new ArrayList<>();
+    private int skipped;
+    private int kept;
+
+    ProjectionHandler(DomBuilder builder, Projection projection)
+    {
+        this.builder = builder;
+        this.paths = projection.getForwardPaths().toArray(new ForwardPath[0]);
+        long[] start = new long[paths.length];
+        for (int i = 0; i < start.length; i++)
+        {
+            start[i] = ForwardPath.START;
+        }
+        states.add(start);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+    {
+        if (skipped > 0)
+        {
+            skipped++;
+            return;
+        }
+        if (kept > 0)
+        {
+            kept++;
+            builder.startElement(uri, localName, qName, attributes);
+            return;
+        }
+
+        long[] parent = states.get(states.size() - 1);
+        long[] current = new long[paths.length];
+        boolean active = false;
+        boolean matched = false;
+        boolean subtree = false;
+        for (int i = 0; i < paths.length; i++)
+        {
+            current[i] = paths[i].advance(parent[i], uri, localName, attributes);
+            active |= paths[i].isActive(current[i]);
+            if (paths[i].isMatch(current[i]))
+            {
+                matched = true;
+                subtree |= paths[i].getTarget() != ForwardPath.Target.ATTRIBUTE;
+            }
+        }
+
+        if (subtree)
+        {
+            kept = 1;
+            builder.startElement(uri, localName, qName, attributes);
+        }
+        else if (matched || active)
+        {
+            states.add(current);
+            builder.startElement(uri, localName, qName, referencedAttributes(parent, current, attributes));
+        }
+        else
+        {
+            skipped = 1;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+    {
+        if (skipped > 0)
+        {
+            skipped--;
+            return;
+        }
+        if (kept > 0)
+        {
+            kept--;
+        }
+        else
+        {
+            states.remove(states.size() - 1);
+        }
+        builder.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+    {
+        if (kept > 0)
+        {
+            builder.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+    {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+    {
+        if (kept > 0)
+        {
+            builder.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length)
+    {
+        if (kept > 0)
+        {
+            builder.comment(ch, start, length);
+        }
+    }
+
+    @Override
+    public void startCDATA()
+    {
+        if (kept > 0)
+        {
+            builder.startCDATA();
+        }
+    }
+
+    @Override
+    public void endCDATA()
+    {
+        if (kept > 0)
+        {
+            builder.endCDATA();
+        }
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId)
+    {
+        builder.startDTD(name, publicId, systemId);
+    }
+
+    @Override
+    public void endDTD()
+    {
+        builder.endDTD();
+    }
+
+    @Override
+    public void startEntity(String name)
+    {
+        builder.startEntity(name);
+    }
+
+    @Override
+    public void endEntity(String name)
+    {
+        builder.endEntity(name);
+    }
+
+    @Override
+    public void endDocument()
+    {
+        builder.endDocument();
+    }
+
+    private Attributes referencedAttributes(long[] parent, long[] current, Attributes attributes)
+    {
+        AttributesImpl result = new AttributesImpl();
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            String name = attributes.getQName(i);
+            if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLNS_PREFIX) || isReferenced(parent, current, attributes.getURI(i), attributes.getLocalName(i)))
+            {
+                result.addAttribute(attributes.getURI(i), attributes.getLocalName(i), name, attributes.getType(i), attributes.getValue(i));
+            }
+        }
+        return result;
+    }
+
+    private boolean isReferenced(long[] parent, long[] current, String uri, String localName)
+    {
+        for (int i = 0; i < paths.length; i++)
+        {
+            if (paths[i].isReferenced(parent[i], current[i], uri, localName))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Publishes the records of an XML feed, i.e. the elements matching a
+ * forward-only path, as standalone Elements with backpressure. The input is
+ * pulled with StAX only as far as subscribers request records, so memory is
+ * bounded by the demand instead of by the size of the feed: apart from the
+ * parser buffer, only the record being emitted is held.
+ * <p>
+ * The nested {@link Subscriber} and {@link Subscription} interfaces follow the
+ * contract of {@code java.util.concurrent.Flow} (Reactive Streams), which is
+ * not available on Java 8; adapting them to Flow types is a matter of
+ * delegation. Records are built and delivered on the thread calling
+ * {@link Subscription#request(long)}; reentrant requests from
+ * {@link Subscriber#onNext(Object)} are served by the running loop instead of
+ * recursing. Cancelling, completing or failing closes the input; an exception
+ * thrown by {@link Subscriber#onNext(Object)} ends the Subscription and is
+ * passed to {@link Subscriber#onError(Throwable)}.
+ * <p>
+ * Each record is built into its own Document, with the namespaces in scope of
+ * the record in the feed declared on its root. A record matching the path
+ * inside another record is delivered as part of the outer record only.
+ */
+public final class RecordPublisher
+{
+    private final StreamSource source;
+    private final ForwardPath path;
+
+    RecordPublisher(StreamSource source, ForwardPath path)
+    {
+        this.source = source;
+        this.path = path;
+    }
+
+    /**
+     * Subscribes the given Subscriber. A publisher created from a file may be
+     * subscribed several times, each Subscription reading the file anew; a
+     * publisher created from an InputStream can only be subscribed once, later
+     * Subscribers receive an {@link IllegalStateException} through
+     * {@link Subscriber#onError(Throwable)}.
+     *
+     * @param subscriber
+     *            the Subscriber
+     * @throws NullPointerException
+     *             if the subscriber is null
+     */
+    public void subscribe(Subscriber<? super Element> subscriber)
+    {
+        if (subscriber == null)
+        {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        RecordSubscription subscription = new RecordSubscription(subscriber, path, source);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Receives the records of a RecordPublisher, like
+     * {@code java.util.concurrent.Flow.Subscriber}.
+     *
+     * @param <T>
+     *            the type of records
+     */
+    public interface Subscriber<T>
+    {
+        /**
+         * Called once before any other method with the Subscription to request
+         * records from.
+         *
+         * @param subscription
+         *            the Subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called for each requested record.
+         *
+         * @param item
+         *            the record
+         */
+        void onNext(T item);
+
+        /**
+         * Called once if reading the records fails; no other method is called
+         * afterwards.
+         *
+         * @param throwable
+         *            the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called once after the last record; no other method is called
+         * afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a RecordPublisher and a Subscriber, like
+     * {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription
+    {
+        /**
+         * Requests up to the given number of further records.
+         *
+         * @param n
+         *            the number of records, must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops delivering records and closes the input.
+         */
+        void cancel();
+    }
+
+    /**
+     * Opens the input of a Subscription.
+     */
+    interface StreamSource
+    {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Creates a source handing out the given InputStream once.
+     */
+    static StreamSource once(InputStream inputStream)
+    {
+        AtomicBoolean opened = new AtomicBoolean();
+        return () ->
+        {
+            if (opened.getAndSet(true))
+            {
+                throw new IllegalStateException("The InputStream of this publisher has already been subscribed");
+            }
+            return inputStream;
+        };
+    }
+
+    private static final class RecordSubscription implements Subscription
+    {
+        private final Subscriber<? super Element> subscriber;
+        private final ForwardPath path;
+        private final StreamSource source;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private final NamespaceSupport namespaces = new NamespaceSupport();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private boolean done;
+        private InputStream inputStream;
+        private XMLStreamReader reader;
+        private long[] states = new long[16];
+        private int depth;
+
+        RecordSubscription(Subscriber<? super Element> subscriber, ForwardPath path, StreamSource source)
+        {
+            this.subscriber = subscriber;
+            this.path = path;
+            this.source = source;
+            this.states[0] = ForwardPath.START;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                invalidRequest = new IllegalArgumentException("Requested number of records must be positive - got " + n);
+            }
+            else
+            {
+                long current;
+                do
+                {
+                    current = demand.get();
+                }
+                while (current != Long.MAX_VALUE && !demand.compareAndSet(current, (Long.MAX_VALUE - current < n) ? Long.MAX_VALUE : current + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Emits records while there is demand. Only one thread runs the loop at a
+         * time; calls arriving meanwhile, including reentrant ones from
+         * {@code onNext}, only make the running loop check again.
+         */
+        private void drain()
+        {
+            if (work.getAndIncrement() != 0)
+            {
+                return;
+            }
+            int missed = 1;
+            do
+            {
+                while (!done)
+                {
+                    if (cancelled)
+                    {
+                        finish();
+                        break;
+                    }
+                    if (invalidRequest != null)
+                    {
+                        fail(invalidRequest);
+                        break;
+                    }
+                    if (demand.get() == 0)
+                    {
+                        break;
+                    }
+                    Element record;
+                    try
+                    {
+                        record = next();
+                    }
+                    catch (XMLStreamException | IOException | RuntimeException e)
+                    {
+                        fail((e instanceof XMLStreamException) ? new IllegalArgumentException("Unable to parse from input stream", e) : e);
+                        break;
+                    }
+                    if (record == null)
+                    {
+                        finish();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE)
+                    {
+                        demand.decrementAndGet();
+                    }
+                    try
+                    {
+                        subscriber.onNext(record);
+                    }
+                    catch (Throwable e)
+                    {
+                        // a failing Subscriber ends the Subscription, otherwise the
+                        // loop would stay claimed and the input would never be closed
+                        fail(e);
+                        break;
+                    }
+                }
+                missed = work.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        private void fail(Throwable throwable)
+        {
+            finish();
+            subscriber.onError(throwable);
+        }
+
+        private void finish()
+        {
+            done = true;
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException e)
+                {
+                    // the input stream is closed below
+                }
+            }
+            if (inputStream != null)
+            {
+                try
+                {
+                    inputStream.close();
+                }
+                catch (IOException e)
+                {
+                    // nothing more is read from the input
+                }
+            }
+        }
+
+        private Element next() throws XMLStreamException, IOException
+        {
+            if (reader == null)
+            {
+                inputStream = source.open();
+                reader = StreamingSelector.INPUT_FACTORY.createXMLStreamReader(inputStream);
+            }
+            Attributes attributes = new StreamReaderAttributes(reader);
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    long parent = states[depth];
+                    long current = (parent == 0L) ? 0L : path.advance(parent, namespaceUri(reader), reader.getLocalName(), attributes);
+                    if (path.isMatch(current))
+                    {
+                        return readRecord(attributes);
+                    }
+                    namespaces.pushContext();
+                    for (int i = 0; i < reader.getNamespaceCount(); i++)
+                    {
+                        String prefix = reader.getNamespacePrefix(i);
+                        String uri = reader.getNamespaceURI(i);
+                        namespaces.declarePrefix((prefix != null) ? prefix : "", (uri != null) ? uri : "");
+                    }
+                    depth++;
+                    if (depth == states.length)
+                    {
+                        states = Arrays.copyOf(states, depth * 2);
+                    }
+                    states[depth] = current;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    namespaces.popContext();
+                    depth--;
+                }
+            }
+            return null;
+        }
+
+        private Element readRecord(Attributes attributes) throws XMLStreamException
+        {
+            Document document = DomUtils.createDocument();
+            DomBuilder builder = new DomBuilder(document, document, true, 0);
+            int level = 0;
+            do
+            {
+                switch (reader.getEventType())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        level++;
+                        builder.startElement(namespaceUri(reader), reader.getLocalName(), qualifiedName(reader), attributes);
+                        if (level == 1)
+                        {
+                            declareInheritedNamespaces((Element) builder.getCurrent());
+                        }
+                        declareNamespaces((Element) builder.getCurrent());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        level--;
+                        builder.endElement(namespaceUri(reader), reader.getLocalName(), qualifiedName(reader));
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        builder.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        builder.comment(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        builder.processingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+                    default:
+                        break;
+                }
+                if (level > 0)
+                {
+                    reader.next();
+                }
+            }
+            while (level > 0);
+            builder.endDocument();
+            return document.getDocumentElement();
+        }
+
+        /**
+         * Declares the namespaces in scope of the record on its root, so that
+         * prefixes in QName-valued content such as {@code xsi:type} still resolve
+         * in the standalone Document.
+         */
+        private void declareInheritedNamespaces(Element element)
+        {
+            Enumeration<?> prefixes = namespaces.getPrefixes();
+            while (prefixes.hasMoreElements())
+            {
+                String prefix = (String) prefixes.nextElement();
+                String uri = namespaces.getURI(prefix);
+                if (!XMLConstants.XML_NS_PREFIX.equals(prefix) && uri != null && !uri.isEmpty())
+                {
+                    element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, uri);
+                }
+            }
+            String defaultNamespace = namespaces.getURI("");
+            if (defaultNamespace != null && !defaultNamespace.isEmpty())
+            {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, defaultNamespace);
+            }
+        }
+
+        private void declareNamespaces(Element element)
+        {
+            for (int i = 0; i < reader.getNamespaceCount(); i++)
+            {
+                String prefix = reader.getNamespacePrefix(i);
+                String name = (prefix == null || prefix.isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE
+                        : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+                String uri = reader.getNamespaceURI(i);
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, (uri != null) ? uri : "");
+            }
+        }
+
+        private static String namespaceUri(XMLStreamReader reader)
+        {
+            String uri = reader.getNamespaceURI();
+            return (uri != null) ? uri : "";
+        }
+
+        private static String qualifiedName(XMLStreamReader reader)
+        {
+            String prefix = reader.getPrefix();
+            return (prefix == null || prefix.isEmpty()) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+
+/**
+ * The attributes of the current start element of an XMLStreamReader as SAX
+ * Attributes. Namespace declarations are not attributes in StAX.
+ */
+final class StreamReaderAttributes implements Attributes
+{
+    private final XMLStreamReader reader;
+
+    StreamReaderAttributes(XMLStreamReader reader)
+    {
+        this.reader = reader;
+    }
+
+    @Override
+    public int getLength()
+    {
+        return reader.getAttributeCount();
+    }
+
+    @Override
+    public String getURI(int index)
+    {
+        String uri = reader.getAttributeNamespace(index);
+        return (uri != null) ? uri : "";
+    }
+
+    @Override
+    public String getLocalName(int index)
+    {
+        return reader.getAttributeLocalName(index);
+    }
+
+    @Override
+    public String getQName(int index)
+    {
+        String prefix = reader.getAttributePrefix(index);
+        return (prefix == null || prefix.isEmpty()) ? getLocalName(index) : prefix + ":" + getLocalName(index);
+    }
+
+    @Override
+    public String getType(int index)
+    {
+        return reader.getAttributeType(index);
+    }
+
+    @Override
+    public String getValue(int index)
+    {
+        return reader.getAttributeValue(index);
+    }
+
+    @Override
+    public int getIndex(String uri, String localName)
+    {
+        for (int i = 0; i < getLength(); i++)
+        {
+            if (getURI(i).equals(uri) && getLocalName(i).equals(localName))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getIndex(String qName)
+    {
+        for (int i = 0; i < getLength(); i++)
+        {
+            if (getQName(i).equals(qName))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getType(String uri, String localName)
+    {
+        int index = getIndex(uri, localName);
+        return (index >= 0) ? getType(index) : null;
+    }
+
+    @Override
+    public String getType(String qName)
+    {
+        int index = getIndex(qName);
+        return (index >= 0) ? getType(index) : null;
+    }
+
+    @Override
+    public String getValue(String uri, String localName)
+    {
+        int index = getIndex(uri, localName);
+        return (index >= 0) ? getValue(index) : null;
+    }
+
+    @Override
+    public String getValue(String qName)
+    {
+        int index = getIndex(qName);
+        return (index >= 0) ? getValue(index) : null;
+    }
+}
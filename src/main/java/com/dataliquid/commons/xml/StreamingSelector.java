@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Evaluates a {@link ForwardPath} over a StAX event stream without building a
+ * DOM. Only the state of the open elements is kept, plus the text of selected
+ * elements whose string value is still being collected. Reading stops as soon
+ * as the requested number of results is complete, so the rest of the input is
+ * never parsed.
+ */
+final class StreamingSelector
+{
+    static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final ForwardPath path;
+    private final int limit;
+    private final boolean values;
+    private final List<String> results = new ArrayList<>();
+    private final List<Collector> collectors = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private long[] states = new long[16];
+    private boolean[] matched = new boolean[16];
+    private int depth;
+
+    private StreamingSelector(ForwardPath path, int limit, boolean values)
+    {
+        this.path = path;
+        this.limit = limit;
+        this.values = values;
+        this.states[0] = ForwardPath.START;
+    }
+
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Selects the values of the Nodes matching the given path in document order.
+     *
+     * @param inputStream
+     *            the XML input; it is not closed
+     * @param path
+     *            the compiled path
+     * @param limit
+     *            the number of results after which reading stops
+     * @param values
+     *            false if only the existence of matches is of interest, in which
+     *            case matched elements are not read to their end
+     * @return the selected values, at most {@code limit}
+     * @throws IllegalArgumentException
+     *             if the XML cannot be parsed
+     */
+    static List<String> select(InputStream inputStream, ForwardPath path, int limit, boolean values)
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+            return new StreamingSelector(path, limit, values).select(reader);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IllegalArgumentException("Unable to parse from input stream", e);
+        }
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    private static void close(XMLStreamReader reader)
+    {
+        if (reader != null)
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (XMLStreamException e)
+            {
+                // the selected values are complete
+            }
+        }
+    }
+
+    private List<String> select(XMLStreamReader reader) throws XMLStreamException
+    {
+        Attributes attributes = new StreamReaderAttributes(reader);
+        while (reader.hasNext() && !isComplete())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    flushText();
+                    startElement(reader, attributes);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    flushText();
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    characters(reader);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    flushText();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return results;
+    }
+
+    private boolean isComplete()
+    {
+        return results.size() >= limit && collectors.isEmpty() && text.length() == 0;
+    }
+
+    private void startElement(XMLStreamReader reader, Attributes attributes)
+    {
+        long parent = states[depth];
+        String uri = reader.getNamespaceURI();
+        long current = (parent == 0L) ? 0L : path.advance(parent, (uri != null) ? uri : "", reader.getLocalName(), attributes);
+        depth++;
+        if (depth == states.length)
+        {
+            states = Arrays.copyOf(states, depth * 2);
+            matched = Arrays.copyOf(matched, depth * 2);
+        }
+        states[depth] = current;
+        matched[depth] = path.isMatch(current) && results.size() < limit;
+        if (!matched[depth])
+        {
+            return;
+        }
+        switch (path.getTarget())
+        {
+            case ATTRIBUTE:
+                String value = path.selectAttribute(attributes);
+                if (value != null)
+                {
+                    results.add(value);
+                }
+                break;
+            case ELEMENT:
+                if (values)
+                {
+                    collectors.add(new Collector(depth, results.size()));
+                    results.add(null);
+                }
+                else
+                {
+                    results.add("");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void endElement()
+    {
+        int last = collectors.size() - 1;
+        if (last >= 0 && collectors.get(last).depth == depth)
+        {
+            Collector collector = collectors.remove(last);
+            results.set(collector.slot, collector.text.toString());
+        }
+        depth--;
+    }
+
+    private void characters(XMLStreamReader reader)
+    {
+        if (depth == 0)
+        {
+            return;
+        }
+        if (!collectors.isEmpty())
+        {
+            for (Collector collector : collectors)
+            {
+                collector.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+        if (path.getTarget() == ForwardPath.Target.TEXT && matched[depth])
+        {
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+    }
+
+    private void flushText()
+    {
+        if (text.length() > 0)
+        {
+            if (results.size() < limit)
+            {
+                results.add(text.toString());
+            }
+            text.setLength(0);
+        }
+    }
+
+    private static final class Collector
+    {
+        private final int depth;
+        private final int slot;
+        private final StringBuilder text = new StringBuilder();
+
+        Collector(int depth, int slot)
+        {
+            this.depth = depth;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,765 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+/**
+ * A fluent writer which streams XML to its target without building a DOM.
+ * Markup is written as soon as it is produced, so the memory used does not
+ * depend on the size of the generated document. Text and attribute values are
+ * escaped automatically, namespace declarations are added when a prefix is not
+ * bound yet, and existing DOM subtrees can be written inline.
+ * <p>
+ * Instances are created through a {@link Builder} and are not thread-safe.
+ * Closing the writer flushes all pending output but leaves the target open.
+ */
+public final class StreamingXmlWriter implements Closeable
+{
+    private static final String XML_VERSION = "1.0";
+    private static final char NEWLINE = '\n';
+
+    private final XMLStreamWriter writer;
+    private final OutputStream outputStream;
+    private final String encoding;
+    private final int indent;
+    private final boolean xmlDeclaration;
+    private final BitSet childElements = new BitSet();
+    private final BitSet mixedContent = new BitSet();
+    private char[] indentation = new char[0];
+    private int depth;
+    private boolean started;
+
+    private StreamingXmlWriter(Builder builder, XMLStreamWriter writer, OutputStream outputStream)
+    {
+        this.writer = writer;
+        this.outputStream = outputStream;
+        this.encoding = builder.encoding;
+        this.indent = builder.indent;
+        this.xmlDeclaration = builder.xmlDeclaration;
+    }
+
+    /**
+     * Creates a new Builder for a StreamingXmlWriter.
+     *
+     * @return the newly created Builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Starts the document by writing the XML declaration, unless it has been
+     * disabled on the builder.
+     *
+     * @return this writer
+     */
+    public StreamingXmlWriter startDocument()
+    {
+        if (xmlDeclaration)
+        {
+            try
+            {
+                writer.writeStartDocument(encoding, XML_VERSION);
+            }
+            catch (XMLStreamException e)
+            {
+                throw failure(e);
+            }
+            started = true;
+        }
+        return this;
+    }
+
+    /**
+     * Ends the document by closing all open elements.
+     *
+     * @return this writer
+     */
+    public StreamingXmlWriter endDocument()
+    {
+        while (depth > 0)
+        {
+            endElement();
+        }
+        try
+        {
+            writer.writeEndDocument();
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Starts an element without namespace.
+     *
+     * @param name
+     *            the name of the element
+     * @return this writer
+     */
+    public StreamingXmlWriter startElement(String name)
+    {
+        return startElement(null, name);
+    }
+
+    /**
+     * Starts an element with the given namespace URI and qualified name. The
+     * namespace is declared on the element if its prefix is not bound to the
+     * namespace URI yet.
+     *
+     * @param namespaceUri
+     *            the namespace URI of the element, may be null
+     * @param name
+     *            the qualified name of the element
+     * @return this writer
+     */
+    public StreamingXmlWriter startElement(String namespaceUri, String name)
+    {
+        beforeChild();
+        try
+        {
+            writeStartElement(namespaceUri, name, false);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        depth++;
+        childElements.clear(depth);
+        mixedContent.clear(depth);
+        return this;
+    }
+
+    /**
+     * Writes an empty element without namespace. Attributes may be added until the
+     * next element, text or end tag is written.
+     *
+     * @param name
+     *            the name of the element
+     * @return this writer
+     */
+    public StreamingXmlWriter emptyElement(String name)
+    {
+        return emptyElement(null, name);
+    }
+
+    /**
+     * Writes an empty element with the given namespace URI and qualified name.
+     * Attributes may be added until the next element, text or end tag is written.
+     *
+     * @param namespaceUri
+     *            the namespace URI of the element, may be null
+     * @param name
+     *            the qualified name of the element
+     * @return this writer
+     */
+    public StreamingXmlWriter emptyElement(String namespaceUri, String name)
+    {
+        beforeChild();
+        try
+        {
+            writeStartElement(namespaceUri, name, true);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an element without namespace containing the given text.
+     *
+     * @param name
+     *            the name of the element
+     * @param text
+     *            the text content of the element
+     * @return this writer
+     */
+    public StreamingXmlWriter element(String name, String text)
+    {
+        return startElement(name).text(text).endElement();
+    }
+
+    /**
+     * Ends the current element.
+     *
+     * @return this writer
+     * @throws IllegalStateException
+     *             if there is no open element
+     */
+    public StreamingXmlWriter endElement()
+    {
+        if (depth == 0)
+        {
+            throw new IllegalStateException("No open element to end");
+        }
+        boolean indentEndTag = indent > 0 && childElements.get(depth) && !mixedContent.get(depth);
+        depth--;
+        try
+        {
+            if (indentEndTag)
+            {
+                writeIndentation();
+            }
+            writer.writeEndElement();
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Declares a namespace on the current element.
+     *
+     * @param prefix
+     *            the prefix of the namespace, or an empty String for the default
+     *            namespace
+     * @param namespaceUri
+     *            the namespace URI
+     * @return this writer
+     */
+    public StreamingXmlWriter namespace(String prefix, String namespaceUri)
+    {
+        try
+        {
+            declareNamespace(prefix, namespaceUri);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an attribute without namespace on the current element.
+     *
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute
+     * @return this writer
+     */
+    public StreamingXmlWriter attribute(String name, String value)
+    {
+        try
+        {
+            writer.writeAttribute(name, value);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an attribute with the given namespace URI and qualified name on the
+     * current element. The namespace is declared if its prefix is not bound to the
+     * namespace URI yet.
+     *
+     * @param namespaceUri
+     *            the namespace URI of the attribute, may be null
+     * @param name
+     *            the qualified name of the attribute
+     * @param value
+     *            the value of the attribute
+     * @return this writer
+     */
+    public StreamingXmlWriter attribute(String namespaceUri, String name, String value)
+    {
+        if (StringUtils.isEmpty(namespaceUri))
+        {
+            return attribute(name, value);
+        }
+        try
+        {
+            String prefix = prefixOf(name);
+            if (prefix.isEmpty())
+            {
+                throw new IllegalArgumentException("Attribute in namespace requires a prefix: " + name);
+            }
+            if (!namespaceUri.equals(boundNamespaceUri(prefix)))
+            {
+                declareNamespace(prefix, namespaceUri);
+            }
+            writer.writeAttribute(prefix, namespaceUri, localNameOf(name), value);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes escaped text into the current element.
+     *
+     * @param text
+     *            the text to write
+     * @return this writer
+     */
+    public StreamingXmlWriter text(String text)
+    {
+        if (depth > 0)
+        {
+            mixedContent.set(depth);
+        }
+        try
+        {
+            writer.writeCharacters(text);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a CDATA section into the current element.
+     *
+     * @param content
+     *            the content of the CDATA section
+     * @return this writer
+     */
+    public StreamingXmlWriter cdata(String content)
+    {
+        if (depth > 0)
+        {
+            mixedContent.set(depth);
+        }
+        try
+        {
+            writer.writeCData(content);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a comment.
+     *
+     * @param comment
+     *            the text of the comment
+     * @return this writer
+     */
+    public StreamingXmlWriter comment(String comment)
+    {
+        beforeChild();
+        try
+        {
+            writer.writeComment(comment);
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the given Node and its subtree inline at the current position. A
+     * Document is written as its children.
+     *
+     * @param node
+     *            the Node to write
+     * @return this writer
+     */
+    public StreamingXmlWriter node(Node node)
+    {
+        Node root = node;
+        if (node.getNodeType() == Node.DOCUMENT_NODE)
+        {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                node(child);
+            }
+            return this;
+        }
+
+        synchronized (node)
+        {
+            Node current = root;
+            while (true)
+            {
+                if (current.getNodeType() == Node.ELEMENT_NODE && current.getFirstChild() != null)
+                {
+                    writeStartElement(current);
+                    current = current.getFirstChild();
+                    continue;
+                }
+
+                writeLeaf(current);
+                while (current != root && current.getNextSibling() == null)
+                {
+                    current = current.getParentNode();
+                    endElement();
+                }
+                if (current == root)
+                {
+                    return this;
+                }
+                current = current.getNextSibling();
+            }
+        }
+    }
+
+    /**
+     * Flushes all pending output to the target.
+     *
+     * @return this writer
+     */
+    public StreamingXmlWriter flush()
+    {
+        try
+        {
+            writer.flush();
+            if (outputStream != null)
+            {
+                outputStream.flush();
+            }
+        }
+        catch (XMLStreamException | IOException e)
+        {
+            throw new IllegalStateException("Unable to flush xml", e);
+        }
+        return this;
+    }
+
+    /**
+     * Flushes all pending output and releases the writer. The target is not
+     * closed.
+     */
+    @Override
+    public void close()
+    {
+        flush();
+        try
+        {
+            writer.close();
+        }
+        catch (XMLStreamException e)
+        {
+            throw failure(e);
+        }
+    }
+
+    private void writeStartElement(Node element)
+    {
+        startElement(element.getNamespaceURI(), element.getNodeName());
+        writeAttributes(element);
+    }
+
+    private void writeLeaf(Node node)
+    {
+        switch (node.getNodeType())
+        {
+            case Node.ELEMENT_NODE:
+                emptyElement(node.getNamespaceURI(), node.getNodeName());
+                writeAttributes(node);
+                break;
+            case Node.TEXT_NODE:
+                text(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                cdata(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                comment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                beforeChild();
+                try
+                {
+                    writer.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+                }
+                catch (XMLStreamException e)
+                {
+                    throw failure(e);
+                }
+                break;
+            default:
+                // document types and entity references are not written
+                break;
+        }
+    }
+
+    private void writeAttributes(Node element)
+    {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getName();
+            if (DefaultNamespaceContext.NAMESPACE_XMLNS.equals(attribute.getNamespaceURI()))
+            {
+                String prefix = name.equals(DefaultNamespaceContext.NAMESPACE_ALIAS_XMLNS) ? StringUtils.EMPTY : localNameOf(name);
+                if (!attribute.getValue().equals(boundNamespaceUri(prefix)))
+                {
+                    namespace(prefix, attribute.getValue());
+                }
+            }
+            else
+            {
+                attribute(attribute.getNamespaceURI(), name, attribute.getValue());
+            }
+        }
+    }
+
+    private void writeStartElement(String namespaceUri, String name, boolean empty) throws XMLStreamException
+    {
+        String prefix = prefixOf(name);
+        String uri = StringUtils.defaultString(namespaceUri);
+        boolean declare = !uri.equals(boundNamespaceUri(prefix));
+        if (uri.isEmpty())
+        {
+            if (empty)
+            {
+                writer.writeEmptyElement(name);
+            }
+            else
+            {
+                writer.writeStartElement(name);
+            }
+        }
+        else if (empty)
+        {
+            writer.writeEmptyElement(prefix, localNameOf(name), uri);
+        }
+        else
+        {
+            writer.writeStartElement(prefix, localNameOf(name), uri);
+        }
+        if (declare)
+        {
+            declareNamespace(prefix, uri);
+        }
+    }
+
+    private void declareNamespace(String prefix, String namespaceUri) throws XMLStreamException
+    {
+        if (StringUtils.isEmpty(prefix))
+        {
+            writer.writeDefaultNamespace(namespaceUri);
+            writer.setDefaultNamespace(namespaceUri);
+        }
+        else
+        {
+            writer.writeNamespace(prefix, namespaceUri);
+            writer.setPrefix(prefix, namespaceUri);
+        }
+    }
+
+    private String boundNamespaceUri(String prefix)
+    {
+        NamespaceContext context = writer.getNamespaceContext();
+        String uri = context != null ? context.getNamespaceURI(prefix) : null;
+        return StringUtils.defaultString(uri);
+    }
+
+    private void beforeChild()
+    {
+        if (depth > 0)
+        {
+            childElements.set(depth);
+        }
+        if (indent > 0 && started && !mixedContent.get(depth))
+        {
+            try
+            {
+                writeIndentation();
+            }
+            catch (XMLStreamException e)
+            {
+                throw failure(e);
+            }
+        }
+        started = true;
+    }
+
+    private void writeIndentation() throws XMLStreamException
+    {
+        int length = 1 + depth * indent;
+        if (indentation.length < length)
+        {
+            indentation = new char[Math.max(length, indentation.length * 2)];
+            indentation[0] = NEWLINE;
+            Arrays.fill(indentation, 1, indentation.length, ' ');
+        }
+        writer.writeCharacters(indentation, 0, length);
+    }
+
+    private static String prefixOf(String name)
+    {
+        int colon = name.indexOf(':');
+        return colon < 0 ? StringUtils.EMPTY : name.substring(0, colon);
+    }
+
+    private static String localNameOf(String name)
+    {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private static IllegalStateException failure(XMLStreamException e)
+    {
+        return new IllegalStateException("Unable to write xml", e);
+    }
+
+    /**
+     * A builder for StreamingXmlWriter instances.
+     */
+    public static final class Builder
+    {
+        private String encoding = StandardCharsets.UTF_8.name();
+        private int indent;
+        private boolean xmlDeclaration = true;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Sets the encoding used when writing to an OutputStream or channel.
+         * Defaults to UTF-8.
+         *
+         * @param encoding
+         *            the name of the encoding
+         * @return this Builder
+         */
+        public Builder encoding(String encoding)
+        {
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * Sets the number of spaces used to indent nested elements. Elements
+         * containing text are not indented. Defaults to 0, which disables
+         * indentation.
+         *
+         * @param indent
+         *            the number of spaces per level
+         * @return this Builder
+         */
+        public Builder indent(int indent)
+        {
+            if (indent < 0)
+            {
+                throw new IllegalArgumentException("Indent must not be negative - got " + indent);
+            }
+            this.indent = indent;
+            return this;
+        }
+
+        /**
+         * Sets whether {@link StreamingXmlWriter#startDocument()} writes the XML
+         * declaration. Defaults to true.
+         *
+         * @param xmlDeclaration
+         *            true to write the XML declaration
+         * @return this Builder
+         */
+        public Builder xmlDeclaration(boolean xmlDeclaration)
+        {
+            this.xmlDeclaration = xmlDeclaration;
+            return this;
+        }
+
+        /**
+         * Creates a StreamingXmlWriter which encodes its output to the given
+         * OutputStream.
+         *
+         * @param outputStream
+         *            the target OutputStream
+         * @return the newly created StreamingXmlWriter
+         */
+        public StreamingXmlWriter build(OutputStream outputStream)
+        {
+            try
+            {
+                return new StreamingXmlWriter(this, XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, encoding),
+                        outputStream);
+            }
+            catch (XMLStreamException e)
+            {
+                throw failure(e);
+            }
+        }
+
+        /**
+         * Creates a StreamingXmlWriter which writes its output to the given Writer.
+         *
+         * @param writer
+         *            the target Writer
+         * @return the newly created StreamingXmlWriter
+         */
+        public StreamingXmlWriter build(Writer writer)
+        {
+            try
+            {
+                return new StreamingXmlWriter(this, XMLOutputFactory.newInstance().createXMLStreamWriter(writer), null);
+            }
+            catch (XMLStreamException e)
+            {
+                throw failure(e);
+            }
+        }
+
+        /**
+         * Creates a StreamingXmlWriter which encodes its output to the given
+         * channel in chunks of a fixed size.
+         *
+         * @param channel
+         *            the target WritableByteChannel
+         * @return the newly created StreamingXmlWriter
+         */
+        public StreamingXmlWriter build(WritableByteChannel channel)
+        {
+            return build(new ChannelOutputStream(channel, ByteBuffer.allocate(ChannelOutputStream.DEFAULT_CHUNK_SIZE)));
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+/**
+ * A bounded cache of XPath results for a single Document. Entries are keyed by
+ * the context Node, the compiled expression and the result type, and are valid
+ * for one version of the Document as reported by its {@link ChangeTracker}; any
+ * change clears the results. The least recently used entry is evicted once the
+ * maximum size is exceeded.
+ * <p>
+ * Compiled expressions are kept across Document versions and keyed by the
+ * expression and its namespace bindings, so equal contexts share them: all
+ * {@link DefaultNamespaceContext}s bind the same prefixes, and
+ * {@link com.dataliquid.commons.xml.ns.ImmutableNamespaceContext} compares its
+ * bindings. Other NamespaceContexts are compared with {@code equals}.
+ * <p>
+ * Only string, boolean and number results are cached, because Node results
+ * could be changed by the caller. A cache is attached with
+ * {@link DomUtils#cacheResults(Node, int)} and then used by the evaluating
+ * select methods such as
+ * {@link DomUtils#selectString(Node, String, NamespaceContext...)}.
+ */
+public final class XPathResultCache
+{
+    static final String USER_DATA_KEY = XPathResultCache.class.getName();
+
+    private final Document document;
+    private final ChangeTracker tracker;
+    private final int maximumSize;
+    private final Map<Key, Object> entries;
+    private final Map<ExpressionKey, XPathExpression> expressions;
+    private long version;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    XPathResultCache(Document document, int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("Maximum size must be at least 1 - got " + maximumSize);
+        }
+        this.document = document;
+        this.tracker = ChangeTracker.attach(document);
+        this.maximumSize = maximumSize;
+        this.version = tracker.getVersion();
+        this.entries = new LinkedHashMap<Key, Object>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest)
+            {
+                return size() > maximumSize;
+            }
+        };
+        this.expressions = new LinkedHashMap<ExpressionKey, XPathExpression>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ExpressionKey, XPathExpression> eldest)
+            {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache attached to the Document of the given Node.
+     *
+     * @param node
+     *            a Node of the Document
+     * @return the attached cache, or null if none is attached
+     */
+    static XPathResultCache get(Node node)
+    {
+        Document owner = DomUtils.getOwnerDocument(node);
+        return (owner != null) ? (XPathResultCache) owner.getUserData(USER_DATA_KEY) : null;
+    }
+
+    static boolean isCacheable(QName type)
+    {
+        return XPathConstants.STRING.equals(type) || XPathConstants.BOOLEAN.equals(type) || XPathConstants.NUMBER.equals(type);
+    }
+
+    void attach()
+    {
+        document.setUserData(USER_DATA_KEY, this, null);
+    }
+
+    void detach()
+    {
+        if (document.getUserData(USER_DATA_KEY) == this)
+        {
+            document.setUserData(USER_DATA_KEY, null, null);
+            tracker.release();
+        }
+    }
+
+    /**
+     * Returns the cached result of the given expression, evaluating it with a
+     * cached compiled expression on a miss. The lock of this cache is held only
+     * while the maps are accessed, the expression is compiled and evaluated
+     * outside of it. A result is not cached if the Document changed while it
+     * was evaluated.
+     */
+    Object evaluate(Node node, String xpath, NamespaceContext namespaceContext, QName type) throws XPathExpressionException
+    {
+        ExpressionKey expressionKey = new ExpressionKey(xpath, bindings(namespaceContext));
+        Key key = new Key(node, expressionKey, type);
+        XPathExpression expression;
+        long evaluatedVersion;
+        synchronized (this)
+        {
+            validate();
+            Object result = entries.get(key);
+            if (result != null)
+            {
+                hits++;
+                return result;
+            }
+            misses++;
+            expression = expressions.get(expressionKey);
+            evaluatedVersion = version;
+        }
+
+        boolean compiled = expression == null;
+        if (compiled)
+        {
+            expression = (namespaceContext != null) ? DomUtils.createXPathExpression(xpath, namespaceContext)
+                    : DomUtils.createXPathExpression(xpath);
+        }
+        Object result = expression.evaluate(node, type);
+
+        synchronized (this)
+        {
+            if (compiled)
+            {
+                expressions.putIfAbsent(expressionKey, expression);
+            }
+            validate();
+            if (result != null && version == evaluatedVersion)
+            {
+                entries.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private static Object bindings(NamespaceContext namespaceContext)
+    {
+        // the bindings of DefaultNamespaceContext are static, so all its instances are equal
+        return (namespaceContext != null && namespaceContext.getClass() == DefaultNamespaceContext.class) ? DefaultNamespaceContext.class
+                : namespaceContext;
+    }
+
+    private void validate()
+    {
+        long current = tracker.getVersion();
+        if (current != version)
+        {
+            if (!entries.isEmpty())
+            {
+                entries.clear();
+                invalidations++;
+            }
+            version = current;
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached results.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of results cached for the current version of the
+     * Document.
+     *
+     * @return the number of cached results
+     */
+    public synchronized int size()
+    {
+        validate();
+        return entries.size();
+    }
+
+    /**
+     * Removes all cached results and compiled expressions.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        expressions.clear();
+    }
+
+    /**
+     * Returns a snapshot of the usage statistics of this cache.
+     *
+     * @return the statistics
+     */
+    public synchronized Statistics getStatistics()
+    {
+        return new Statistics(hits, misses, invalidations, entries.size());
+    }
+
+    private static final class ExpressionKey
+    {
+        private final String xpath;
+        private final Object bindings;
+        private final int hashCode;
+
+        ExpressionKey(String xpath, Object bindings)
+        {
+            this.xpath = xpath;
+            this.bindings = bindings;
+            this.hashCode = Objects.hash(xpath, bindings);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ExpressionKey))
+            {
+                return false;
+            }
+            ExpressionKey other = (ExpressionKey) obj;
+            return xpath.equals(other.xpath) && Objects.equals(bindings, other.bindings);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    private static final class Key
+    {
+        private final Node node;
+        private final ExpressionKey expression;
+        private final QName type;
+        private final int hashCode;
+
+        Key(Node node, ExpressionKey expression, QName type)
+        {
+            this.node = node;
+            this.expression = expression;
+            this.type = type;
+            this.hashCode = Objects.hash(System.identityHashCode(node), expression, type);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return node == other.node && expression.equals(other.expression) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the usage statistics of an XPathResultCache.
+     */
+    public static final class Statistics
+    {
+        private final long hits;
+        private final long misses;
+        private final long invalidations;
+        private final int size;
+
+        Statistics(long hits, long misses, long invalidations, int size)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of lookups served from the cache
+         */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * @return the number of lookups that had to evaluate the expression
+         */
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        /**
+         * @return the number of times cached results were discarded because the
+         *         Document changed
+         */
+        public long getInvalidations()
+        {
+            return invalidations;
+        }
+
+        /**
+         * @return the number of cached results
+         */
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return the ratio of hits to lookups, or 0 if there were no lookups
+         */
+        public double getHitRate()
+        {
+            long lookups = hits + misses;
+            return (lookups == 0) ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Statistics[hits=" + hits + ", misses=" + misses + ", invalidations=" + invalidations + ", size=" + size + "]";
+        }
+    }
+}
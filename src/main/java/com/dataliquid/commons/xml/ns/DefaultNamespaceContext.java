@@ -17,6 +17,7 @@ package com.dataliquid.commons.xml.ns;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -108,6 +109,6 @@ public class DefaultNamespaceContext implements javax.xml.namespace.NamespaceCon
     public Iterator<String> getPrefixes(String namespaceURI)
     {
         Collection<String> prefixes = uri.get(namespaceURI);
-        return prefixes != null ? prefixes.iterator() : new ArrayList<String>().iterator();
+        return prefixes != null ? prefixes.iterator() : Collections.<String> emptyIterator();
     }
 }
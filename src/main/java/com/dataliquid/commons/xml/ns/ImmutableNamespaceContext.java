@@ -0,0 +1,379 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.ns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+
+/**
+ * An immutable NamespaceContext created by a {@link Builder}. Each instance
+ * holds its own bindings, so application namespaces can be registered per
+ * context instead of JVM-wide.
+ * <p>
+ * The bindings are stored in small arrays sorted by prefix, and lookups scan
+ * them without allocating. The predefined {@code xml} and {@code xmlns}
+ * prefixes are always bound as required by {@link NamespaceContext}. Two
+ * contexts with the same bindings are equal, so a context can be part of the
+ * key of a compiled expression cache.
+ */
+public final class ImmutableNamespaceContext implements NamespaceContext
+{
+    private static final String[] EMPTY = new String[0];
+
+    private final String[] prefixes;
+    private final int[] prefixHashes;
+    private final String[] uris;
+    private final String defaultNamespaceUri;
+    private final Map<String, List<String>> prefixesByUri;
+    private final int hashCode;
+
+    private ImmutableNamespaceContext(Map<String, String> bindings, String defaultNamespaceUri)
+    {
+        this.prefixes = bindings.keySet().toArray(EMPTY);
+        this.uris = bindings.values().toArray(EMPTY);
+        this.prefixHashes = new int[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            prefixHashes[i] = prefixes[i].hashCode();
+        }
+        this.defaultNamespaceUri = defaultNamespaceUri;
+        this.prefixesByUri = indexPrefixes(prefixes, uris, defaultNamespaceUri);
+        this.hashCode = 31 * (31 * Arrays.hashCode(prefixes) + Arrays.hashCode(uris)) + defaultNamespaceUri.hashCode();
+    }
+
+    private static Map<String, List<String>> indexPrefixes(String[] prefixes, String[] uris, String defaultNamespaceUri)
+    {
+        Map<String, List<String>> index = new HashMap<>();
+        index.put(XMLConstants.XML_NS_URI, new ArrayList<>(Collections.singletonList(XMLConstants.XML_NS_PREFIX)));
+        index.put(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, new ArrayList<>(Collections.singletonList(XMLConstants.XMLNS_ATTRIBUTE)));
+        // without a default namespace the empty prefix stands for no namespace, as in getPrefix
+        index.put(defaultNamespaceUri, new ArrayList<>(Collections.singletonList(XMLConstants.DEFAULT_NS_PREFIX)));
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            List<String> bound = index.get(uris[i]);
+            if (bound == null)
+            {
+                bound = new ArrayList<>();
+                index.put(uris[i], bound);
+            }
+            bound.add(prefixes[i]);
+        }
+        for (Map.Entry<String, List<String>> entry : index.entrySet())
+        {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return index;
+    }
+
+    /**
+     * Creates a new, empty Builder.
+     *
+     * @return a new Builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Creates a context binding a single prefix.
+     *
+     * @param prefix
+     *            the prefix
+     * @param namespaceUri
+     *            the namespace URI bound to the prefix
+     * @return the new context
+     */
+    public static ImmutableNamespaceContext of(String prefix, String namespaceUri)
+    {
+        return builder().add(prefix, namespaceUri).build();
+    }
+
+    /**
+     * Creates a Builder initialized with the bindings of this context.
+     *
+     * @return a new Builder
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            builder.add(prefixes[i], uris[i]);
+        }
+        return builder.defaultNamespace(defaultNamespaceUri);
+    }
+
+    /**
+     * Get the namespace URI bound to the given prefix.
+     *
+     * @param prefix
+     *            the prefix for which to retrieve the namespace URI
+     * @return the namespace URI bound to the prefix, the default namespace URI for
+     *         the empty prefix, or {@link XMLConstants#NULL_NS_URI} if the prefix
+     *         is not bound
+     * @throws IllegalArgumentException
+     *             if the prefix is null
+     */
+    @Override
+    public String getNamespaceURI(String prefix)
+    {
+        if (prefix == null)
+        {
+            throw new IllegalArgumentException("Prefix must not be null");
+        }
+        if (prefix.isEmpty())
+        {
+            return defaultNamespaceUri;
+        }
+        int hash = prefix.hashCode();
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            if (prefixHashes[i] == hash && prefixes[i].equals(prefix))
+            {
+                return uris[i];
+            }
+        }
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix))
+        {
+            return XMLConstants.XML_NS_URI;
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))
+        {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        return XMLConstants.NULL_NS_URI;
+    }
+
+    /**
+     * Get a prefix bound to the given namespace URI. If several prefixes are
+     * bound, the first in alphabetical order is returned.
+     *
+     * @param namespaceURI
+     *            the namespace URI for which to retrieve the prefix
+     * @return the prefix bound to the namespace URI, or null if none is bound
+     * @throws IllegalArgumentException
+     *             if the namespace URI is null
+     */
+    @Override
+    public String getPrefix(String namespaceURI)
+    {
+        if (namespaceURI == null)
+        {
+            throw new IllegalArgumentException("Namespace URI must not be null");
+        }
+        if (defaultNamespaceUri.equals(namespaceURI))
+        {
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        for (int i = 0; i < uris.length; i++)
+        {
+            if (uris[i].equals(namespaceURI))
+            {
+                return prefixes[i];
+            }
+        }
+        if (XMLConstants.XML_NS_URI.equals(namespaceURI))
+        {
+            return XMLConstants.XML_NS_PREFIX;
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI))
+        {
+            return XMLConstants.XMLNS_ATTRIBUTE;
+        }
+        return null;
+    }
+
+    /**
+     * Get all prefixes bound to the given namespace URI in alphabetical order.
+     *
+     * @param namespaceURI
+     *            the namespace URI for which to retrieve the prefixes
+     * @return an unmodifiable Iterator over the prefixes
+     * @throws IllegalArgumentException
+     *             if the namespace URI is null
+     */
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI)
+    {
+        if (namespaceURI == null)
+        {
+            throw new IllegalArgumentException("Namespace URI must not be null");
+        }
+        List<String> result = prefixesByUri.get(namespaceURI);
+        return result != null ? result.iterator() : Collections.<String> emptyIterator();
+    }
+
+    /**
+     * Returns the number of bound prefixes, excluding the default namespace and
+     * the predefined prefixes.
+     *
+     * @return the number of bound prefixes
+     */
+    public int size()
+    {
+        return prefixes.length;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof ImmutableNamespaceContext))
+        {
+            return false;
+        }
+        ImmutableNamespaceContext other = (ImmutableNamespaceContext) obj;
+        return hashCode == other.hashCode && defaultNamespaceUri.equals(other.defaultNamespaceUri) && Arrays.equals(prefixes, other.prefixes)
+                && Arrays.equals(uris, other.uris);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder("ImmutableNamespaceContext[");
+        if (!defaultNamespaceUri.isEmpty())
+        {
+            result.append("default=").append(defaultNamespaceUri);
+        }
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            if (result.charAt(result.length() - 1) != '[')
+            {
+                result.append(", ");
+            }
+            result.append(prefixes[i]).append('=').append(uris[i]);
+        }
+        return result.append(']').toString();
+    }
+
+    /**
+     * A Builder for ImmutableNamespaceContext instances.
+     */
+    public static final class Builder
+    {
+        private final Map<String, String> bindings = new TreeMap<>();
+        private String defaultNamespaceUri = XMLConstants.NULL_NS_URI;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Binds the given prefix to the given namespace URI, replacing an earlier
+         * binding of the prefix.
+         *
+         * @param prefix
+         *            the prefix, must not be empty
+         * @param namespaceUri
+         *            the namespace URI, must not be empty
+         * @return this Builder
+         * @throws IllegalArgumentException
+         *             if the prefix or namespace URI is empty, or if a predefined
+         *             prefix would be rebound
+         */
+        public Builder add(String prefix, String namespaceUri)
+        {
+            if (prefix == null || prefix.isEmpty())
+            {
+                throw new IllegalArgumentException("Prefix must not be empty - use defaultNamespace() instead");
+            }
+            if (namespaceUri == null || namespaceUri.isEmpty())
+            {
+                throw new IllegalArgumentException("Namespace URI for prefix \"" + prefix + "\" must not be empty");
+            }
+            if ((XMLConstants.XML_NS_PREFIX.equals(prefix) && !XMLConstants.XML_NS_URI.equals(namespaceUri))
+                    || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))
+            {
+                throw new IllegalArgumentException("Predefined prefix \"" + prefix + "\" must not be rebound");
+            }
+            if (!XMLConstants.XML_NS_PREFIX.equals(prefix))
+            {
+                bindings.put(prefix, namespaceUri);
+            }
+            return this;
+        }
+
+        /**
+         * Binds all prefixes of the given Map.
+         *
+         * @param namespaces
+         *            a Map of prefixes to namespace URIs
+         * @return this Builder
+         */
+        public Builder addAll(Map<String, String> namespaces)
+        {
+            for (Map.Entry<String, String> namespace : namespaces.entrySet())
+            {
+                add(namespace.getKey(), namespace.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Binds the prefixes {@code xs} and {@code html} as
+         * {@link DefaultNamespaceContext} does.
+         *
+         * @return this Builder
+         */
+        public Builder addDefaults()
+        {
+            add(DefaultNamespaceContext.NAMESPACE_ALIAS_XS, DefaultNamespaceContext.NAMESPACE_XS);
+            return add(DefaultNamespaceContext.NAMESPACE_ALIAS_HTML, DefaultNamespaceContext.NAMESPACE_HTML);
+        }
+
+        /**
+         * Sets the namespace URI of the empty prefix.
+         *
+         * @param namespaceUri
+         *            the default namespace URI, null or empty for none
+         * @return this Builder
+         */
+        public Builder defaultNamespace(String namespaceUri)
+        {
+            this.defaultNamespaceUri = (namespaceUri != null) ? namespaceUri : XMLConstants.NULL_NS_URI;
+            return this;
+        }
+
+        /**
+         * Creates the ImmutableNamespaceContext from the current bindings.
+         *
+         * @return the new context
+         */
+        public ImmutableNamespaceContext build()
+        {
+            return new ImmutableNamespaceContext(bindings, defaultNamespaceUri);
+        }
+    }
+}
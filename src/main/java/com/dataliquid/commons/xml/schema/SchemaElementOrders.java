@@ -0,0 +1,584 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.DomUtils;
+import com.dataliquid.commons.xml.ElementOrder;
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+/**
+ * The element orders derived from the content models of an XML Schema. For
+ * every complex type and every element declared with a complex type, the
+ * names of the child elements are collected in the order of their declaration
+ * and compiled into an {@link ElementOrder} that compares local names.
+ * <p>
+ * Sequences, choices, all groups, named model groups, element references and
+ * complex content extensions are followed. Included, imported and redefined
+ * schemas are read as well. Types are keyed by their local name; if a type
+ * name is declared more than once, the first declaration wins. Elements are
+ * keyed by their local name as well, unless local elements of the same name
+ * are declared with different content models. Such ambiguous names are not
+ * answered by {@link #forElement(String)}; {@link #forParent(Node)} resolves
+ * them within the content model of the parent's parent instead.
+ * <p>
+ * Instances are immutable. {@link #load(URL)} caches them by schema location
+ * and reads the schema again once the last modification time of the schema
+ * file or of any schema file it includes, imports or redefines changes. Schemas
+ * at other locations are not checked for changes. The cache holds the element
+ * orders of at most {@value #MAXIMUM_CACHE_SIZE} schemas and evicts the least
+ * recently used.
+ */
+public final class SchemaElementOrders
+{
+    /**
+     * The maximum number of schemas whose element orders are cached by
+     * {@link #load(URL)}.
+     */
+    public static final int MAXIMUM_CACHE_SIZE = 32;
+
+    private static final String PROTOCOL_FILE = "file";
+    private static final String XS_ALL = "all";
+    private static final String XS_ATTRIBUTE_BASE = "base";
+    private static final String XS_ATTRIBUTE_NAME = "name";
+    private static final String XS_ATTRIBUTE_REF = "ref";
+    private static final String XS_ATTRIBUTE_SCHEMA_LOCATION = "schemaLocation";
+    private static final String XS_ATTRIBUTE_TYPE = "type";
+    private static final String XS_CHOICE = "choice";
+    private static final String XS_COMPLEX_CONTENT = "complexContent";
+    private static final String XS_COMPLEX_TYPE = "complexType";
+    private static final String XS_ELEMENT = "element";
+    private static final String XS_EXTENSION = "extension";
+    private static final String XS_GROUP = "group";
+    private static final String XS_IMPORT = "import";
+    private static final String XS_INCLUDE = "include";
+    private static final String XS_REDEFINE = "redefine";
+    private static final String XS_RESTRICTION = "restriction";
+    private static final String XS_SCHEMA = "schema";
+    private static final String XS_SEQUENCE = "sequence";
+
+    private static final Map<String, CacheEntry> CACHE = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+        {
+            return size() > MAXIMUM_CACHE_SIZE;
+        }
+    };
+
+    private final Map<String, ElementOrder> typeOrders;
+    private final Map<String, ElementOrder> elementOrders;
+    private final Set<String> ambiguousNames;
+    private final Map<String, ElementOrder> globalOrders;
+    private final Map<ElementOrder, Map<String, ElementOrder>> childOrders;
+
+    private SchemaElementOrders(Builder builder)
+    {
+        this.typeOrders = Collections.unmodifiableMap(builder.typeOrders);
+        this.elementOrders = Collections.unmodifiableMap(builder.elementOrders);
+        this.ambiguousNames = builder.ambiguousNames;
+        this.globalOrders = builder.globalOrders;
+        this.childOrders = builder.childOrders;
+    }
+
+    /**
+     * Returns the element orders of the given schema file, reading the schema
+     * if it is not cached yet or has been modified since it was read.
+     *
+     * @param schema
+     *            the schema file
+     * @return the element orders of the schema
+     * @throws IllegalArgumentException
+     *             if the schema cannot be read
+     */
+    public static SchemaElementOrders load(File schema)
+    {
+        try
+        {
+            return load(schema.toURI().toURL());
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("Invalid schema file: " + schema.getPath(), e);
+        }
+    }
+
+    /**
+     * Returns the element orders of the schema at the given location, reading
+     * the schema if it is not cached yet or has been modified since it was read.
+     *
+     * @param schema
+     *            the schema location
+     * @return the element orders of the schema
+     * @throws IllegalArgumentException
+     *             if the schema cannot be read
+     */
+    public static SchemaElementOrders load(URL schema)
+    {
+        String location = schema.toExternalForm();
+        CacheEntry entry;
+        synchronized (CACHE)
+        {
+            entry = CACHE.get(location);
+        }
+        if (entry != null && entry.isCurrent())
+        {
+            return entry.orders;
+        }
+        Builder builder = new Builder();
+        builder.addSchema(schema, new HashSet<>());
+        entry = new CacheEntry(builder.build(), builder.locations, builder.lastModified);
+        synchronized (CACHE)
+        {
+            CACHE.put(location, entry);
+        }
+        return entry.orders;
+    }
+
+    /**
+     * Reads the element orders of the schema at the given location without
+     * caching them.
+     *
+     * @param schema
+     *            the schema location
+     * @return the element orders of the schema
+     * @throws IllegalArgumentException
+     *             if the schema cannot be read
+     */
+    public static SchemaElementOrders read(URL schema)
+    {
+        Builder builder = new Builder();
+        builder.addSchema(schema, new HashSet<>());
+        return builder.build();
+    }
+
+    /**
+     * Removes all cached element orders.
+     */
+    public static void clearCache()
+    {
+        synchronized (CACHE)
+        {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Returns the order of the child elements of the complex type with the given
+     * name.
+     *
+     * @param typeName
+     *            the local name of the complex type
+     * @return the element order, or null if the type is not declared
+     */
+    public ElementOrder forType(String typeName)
+    {
+        return typeOrders.get(localName(typeName));
+    }
+
+    /**
+     * Returns the order of the child elements of the element with the given
+     * name.
+     *
+     * @param elementName
+     *            the local name of the element
+     * @return the element order, or null if the element is not declared with a
+     *         complex type or is declared with different content models
+     */
+    public ElementOrder forElement(String elementName)
+    {
+        return elementOrders.get(localName(elementName));
+    }
+
+    /**
+     * Returns the order of the child elements of the given parent Node, looked
+     * up by the local name of the parent. If local elements of that name are
+     * declared with different content models, the declaration is looked up in
+     * the content model of the parent's parent, or among the global elements
+     * for a root element.
+     *
+     * @param parent
+     *            the parent Node
+     * @return the element order, or null if the parent is not declared with a
+     *         complex type or its declaration cannot be resolved
+     */
+    public ElementOrder forParent(Node parent)
+    {
+        String name = localName(parent.getLocalName() != null ? parent.getLocalName() : parent.getNodeName());
+        if (!ambiguousNames.contains(name))
+        {
+            return elementOrders.get(name);
+        }
+        Node grandParent = parent.getParentNode();
+        if (grandParent == null || grandParent.getNodeType() != Node.ELEMENT_NODE)
+        {
+            return globalOrders.get(name);
+        }
+        ElementOrder scope = forParent(grandParent);
+        Map<String, ElementOrder> children = (scope != null) ? childOrders.get(scope) : null;
+        return (children != null) ? children.get(name) : null;
+    }
+
+    /**
+     * Returns the names of the complex types with an element order.
+     *
+     * @return an unmodifiable Set of type names
+     */
+    public Set<String> getTypeNames()
+    {
+        return typeOrders.keySet();
+    }
+
+    /**
+     * Returns the names of the elements with an unambiguous element order.
+     *
+     * @return an unmodifiable Set of element names
+     */
+    public Set<String> getElementNames()
+    {
+        return elementOrders.keySet();
+    }
+
+    private static String localName(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        int separator = name.indexOf(':');
+        return (separator < 0) ? name : name.substring(separator + 1);
+    }
+
+    /**
+     * Returns the last modification time of a schema file, or 0 for schemas at
+     * other locations, which are not contacted.
+     */
+    private static long lastModified(URL location)
+    {
+        if (!PROTOCOL_FILE.equals(location.getProtocol()))
+        {
+            return 0L;
+        }
+        try
+        {
+            return new File(location.toURI()).lastModified();
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return 0L;
+        }
+    }
+
+    private static boolean isXs(Node node, String localName)
+    {
+        return node.getNodeType() == Node.ELEMENT_NODE && DefaultNamespaceContext.NAMESPACE_XS.equals(node.getNamespaceURI())
+                && localName.equals(node.getLocalName());
+    }
+
+    private static final class CacheEntry
+    {
+        private final SchemaElementOrders orders;
+        private final List<URL> locations;
+        private final List<Long> lastModified;
+
+        CacheEntry(SchemaElementOrders orders, List<URL> locations, List<Long> lastModified)
+        {
+            this.orders = orders;
+            this.locations = locations;
+            this.lastModified = lastModified;
+        }
+
+        boolean isCurrent()
+        {
+            for (int i = 0; i < locations.size(); i++)
+            {
+                if (lastModified(locations.get(i)) != lastModified.get(i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Builder
+    {
+        private final Map<String, Element> complexTypes = new LinkedHashMap<>();
+        private final Map<String, Element> groups = new HashMap<>();
+        private final List<Element> elements = new ArrayList<>();
+        private final Map<String, List<Element>> typeParticles = new HashMap<>();
+        private final List<URL> locations = new ArrayList<>();
+        private final List<Long> lastModified = new ArrayList<>();
+        private final Map<String, ElementOrder> typeOrders = new LinkedHashMap<>();
+        private final Map<String, ElementOrder> elementOrders = new LinkedHashMap<>();
+        private final Set<String> ambiguousNames = new HashSet<>();
+        private final Map<String, ElementOrder> globalOrders = new HashMap<>();
+        private final Map<ElementOrder, Map<String, ElementOrder>> childOrders = new IdentityHashMap<>();
+
+        void addSchema(URL location, Set<String> visited)
+        {
+            if (!visited.add(location.toExternalForm()))
+            {
+                return;
+            }
+            locations.add(location);
+            lastModified.add(lastModified(location));
+            Document schema;
+            try (InputStream inputStream = location.openStream())
+            {
+                schema = DomUtils.parse(inputStream, true);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException("Unable to read schema: " + location, e);
+            }
+
+            for (Element child : DomUtils.<Element> childElements(schema.getDocumentElement()))
+            {
+                if (isXs(child, XS_INCLUDE) || isXs(child, XS_IMPORT) || isXs(child, XS_REDEFINE))
+                {
+                    addReferencedSchema(location, child, visited);
+                }
+            }
+            DomUtils.traverse(schema.getDocumentElement(), node ->
+            {
+                if (isXs(node, XS_COMPLEX_TYPE) && ((Element) node).hasAttribute(XS_ATTRIBUTE_NAME))
+                {
+                    complexTypes.putIfAbsent(((Element) node).getAttribute(XS_ATTRIBUTE_NAME), (Element) node);
+                }
+                else if (isXs(node, XS_GROUP) && ((Element) node).hasAttribute(XS_ATTRIBUTE_NAME))
+                {
+                    groups.putIfAbsent(((Element) node).getAttribute(XS_ATTRIBUTE_NAME), (Element) node);
+                }
+                else if (isXs(node, XS_ELEMENT) && ((Element) node).hasAttribute(XS_ATTRIBUTE_NAME))
+                {
+                    elements.add((Element) node);
+                }
+                return DomUtils.Traversal.CONTINUE;
+            });
+        }
+
+        private void addReferencedSchema(URL base, Element reference, Set<String> visited)
+        {
+            String schemaLocation = reference.getAttribute(XS_ATTRIBUTE_SCHEMA_LOCATION);
+            if (schemaLocation.isEmpty())
+            {
+                return;
+            }
+            try
+            {
+                addSchema(new URL(base, schemaLocation), visited);
+            }
+            catch (MalformedURLException e)
+            {
+                throw new IllegalArgumentException("Invalid schema location: " + schemaLocation, e);
+            }
+        }
+
+        SchemaElementOrders build()
+        {
+            Map<ElementOrder, List<Element>> contentParticles = new IdentityHashMap<>();
+            for (String name : complexTypes.keySet())
+            {
+                List<Element> particles = typeParticles(name, new HashSet<>());
+                ElementOrder order = ElementOrder.ofLocalNames(names(particles));
+                typeOrders.put(name, order);
+                contentParticles.put(order, particles);
+            }
+
+            Map<Element, ElementOrder> declarationOrders = new HashMap<>();
+            for (Element element : elements)
+            {
+                ElementOrder order;
+                Element anonymousType = firstXsChild(element, XS_COMPLEX_TYPE);
+                if (anonymousType != null)
+                {
+                    List<Element> particles = new ArrayList<>();
+                    addContentParticles(anonymousType, particles, new HashSet<>());
+                    order = ElementOrder.ofLocalNames(names(particles));
+                    contentParticles.put(order, particles);
+                }
+                else
+                {
+                    order = typeOrders.get(localName(element.getAttribute(XS_ATTRIBUTE_TYPE)));
+                }
+                if (order == null)
+                {
+                    continue;
+                }
+
+                String name = element.getAttribute(XS_ATTRIBUTE_NAME);
+                declarationOrders.put(element, order);
+                if (isXs(element.getParentNode(), XS_SCHEMA))
+                {
+                    globalOrders.putIfAbsent(name, order);
+                }
+                ElementOrder declared = elementOrders.putIfAbsent(name, order);
+                if (declared != null && !declared.getNames().equals(order.getNames()))
+                {
+                    ambiguousNames.add(name);
+                }
+            }
+            elementOrders.keySet().removeAll(ambiguousNames);
+
+            if (!ambiguousNames.isEmpty())
+            {
+                // ambiguous names are resolved within the content model of their parent
+                for (Map.Entry<ElementOrder, List<Element>> content : contentParticles.entrySet())
+                {
+                    Map<String, ElementOrder> children = new HashMap<>();
+                    for (Element particle : content.getValue())
+                    {
+                        ElementOrder order = particle.hasAttribute(XS_ATTRIBUTE_NAME) ? declarationOrders.get(particle)
+                                : globalOrders.get(localName(particle.getAttribute(XS_ATTRIBUTE_REF)));
+                        if (order != null)
+                        {
+                            children.putIfAbsent(particleName(particle), order);
+                        }
+                    }
+                    childOrders.put(content.getKey(), children);
+                }
+            }
+            return new SchemaElementOrders(this);
+        }
+
+        private List<Element> typeParticles(String typeName, Set<String> visiting)
+        {
+            List<Element> particles = typeParticles.get(typeName);
+            if (particles != null)
+            {
+                return particles;
+            }
+            particles = new ArrayList<>();
+            Element complexType = complexTypes.get(typeName);
+            if (complexType != null && visiting.add(typeName))
+            {
+                addContentParticles(complexType, particles, visiting);
+                visiting.remove(typeName);
+                typeParticles.put(typeName, particles);
+            }
+            return particles;
+        }
+
+        private void addContentParticles(Element complexType, List<Element> particles, Set<String> visiting)
+        {
+            for (Element child : DomUtils.<Element> childElements(complexType))
+            {
+                if (isXs(child, XS_COMPLEX_CONTENT))
+                {
+                    Element extension = firstXsChild(child, XS_EXTENSION);
+                    if (extension != null)
+                    {
+                        particles.addAll(typeParticles(localName(extension.getAttribute(XS_ATTRIBUTE_BASE)), visiting));
+                        addParticles(extension, particles, new HashSet<>());
+                    }
+                    Element restriction = firstXsChild(child, XS_RESTRICTION);
+                    if (restriction != null)
+                    {
+                        addParticles(restriction, particles, new HashSet<>());
+                    }
+                }
+                else if (isModelGroup(child))
+                {
+                    addParticles(complexType, particles, new HashSet<>());
+                    return;
+                }
+            }
+        }
+
+        private void addParticles(Element container, List<Element> particles, Set<String> visitedGroups)
+        {
+            for (Element child : DomUtils.<Element> childElements(container))
+            {
+                if (isXs(child, XS_ELEMENT))
+                {
+                    if (!particleName(child).isEmpty())
+                    {
+                        particles.add(child);
+                    }
+                }
+                else if (isXs(child, XS_GROUP) && child.hasAttribute(XS_ATTRIBUTE_REF))
+                {
+                    String groupName = localName(child.getAttribute(XS_ATTRIBUTE_REF));
+                    Element group = groups.get(groupName);
+                    if (group != null && visitedGroups.add(groupName))
+                    {
+                        addParticles(group, particles, visitedGroups);
+                        visitedGroups.remove(groupName);
+                    }
+                }
+                else if (isModelGroup(child))
+                {
+                    addParticles(child, particles, visitedGroups);
+                }
+            }
+        }
+
+        private static List<String> names(List<Element> particles)
+        {
+            List<String> names = new ArrayList<>(particles.size());
+            for (Element particle : particles)
+            {
+                names.add(particleName(particle));
+            }
+            return names;
+        }
+
+        private static String particleName(Element particle)
+        {
+            return particle.hasAttribute(XS_ATTRIBUTE_NAME) ? particle.getAttribute(XS_ATTRIBUTE_NAME)
+                    : localName(particle.getAttribute(XS_ATTRIBUTE_REF));
+        }
+
+        private static boolean isModelGroup(Node node)
+        {
+            return isXs(node, XS_SEQUENCE) || isXs(node, XS_CHOICE) || isXs(node, XS_ALL) || isXs(node, XS_GROUP);
+        }
+
+        private static Element firstXsChild(Element parent, String localName)
+        {
+            for (Element child : DomUtils.<Element> childElements(parent))
+            {
+                if (isXs(child, localName))
+                {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.xslt;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import com.dataliquid.commons.xml.exception.XsltException;
+
+import net.sf.saxon.TransformerFactoryImpl;
+
+/**
+ * A thread-safe, bounded cache of compiled XSLT stylesheets. Entries are keyed
+ * by the stylesheet location and recompiled when the last modification time of
+ * a stylesheet file changes; stylesheets at other locations, e.g. in a JAR or
+ * on a web server, are not checked for changes and stay compiled until they
+ * are evicted or the cache is cleared. The least recently used entry is
+ * evicted once the maximum size is exceeded.
+ */
+public class TemplatesCache
+{
+    /**
+     * The maximum number of compiled stylesheets held by the default cache.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    /**
+     * The Saxon factory compiling the cached stylesheets, shared with
+     * {@link XsltPipeline}. It is not reconfigured after creation and can be
+     * used by several threads.
+     */
+    static final SAXTransformerFactory TRANSFORMER_FACTORY = new TransformerFactoryImpl();
+
+    private static final String PROTOCOL_FILE = "file";
+    private static final TemplatesCache DEFAULT = new TemplatesCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates a new TemplatesCache holding at most the given number of compiled
+     * stylesheets.
+     *
+     * @param maximumSize
+     *            the maximum number of compiled stylesheets to keep
+     * @throws IllegalArgumentException
+     *             if the maximum size is less than 1
+     */
+    public TemplatesCache(int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("Maximum size must be at least 1 - got " + maximumSize);
+        }
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by the transform methods of DomUtils.
+     *
+     * @return the default TemplatesCache
+     */
+    public static TemplatesCache getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the compiled stylesheet for the given file, compiling it if it is
+     * not cached yet or has been modified since it was compiled.
+     *
+     * @param stylesheet
+     *            the stylesheet file
+     * @return the compiled stylesheet
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled
+     */
+    public Templates getTemplates(File stylesheet)
+    {
+        return getTemplates(toUrl(stylesheet));
+    }
+
+    /**
+     * Returns the compiled stylesheet for the given location, compiling it if it
+     * is not cached yet or has been modified since it was compiled.
+     *
+     * @param stylesheet
+     *            the stylesheet location
+     * @return the compiled stylesheet
+     * @throws XsltException
+     *             if the stylesheet cannot be compiled
+     */
+    public Templates getTemplates(URL stylesheet)
+    {
+        String location = stylesheet.toExternalForm();
+        Entry entry;
+        synchronized (entries)
+        {
+            entry = entries.get(location);
+            if (entry == null)
+            {
+                entry = new Entry(location);
+                entries.put(location, entry);
+            }
+        }
+        return entry.getTemplates(lastModified(stylesheet));
+    }
+
+    /**
+     * Returns the statistics of the cached stylesheet with the given location.
+     *
+     * @param stylesheet
+     *            the stylesheet location
+     * @return the statistics, or null if the stylesheet is not cached
+     */
+    public Statistics getStatistics(URL stylesheet)
+    {
+        Entry entry;
+        synchronized (entries)
+        {
+            entry = entries.get(stylesheet.toExternalForm());
+        }
+        return entry != null ? entry.getStatistics() : null;
+    }
+
+    /**
+     * Returns the statistics of the cached stylesheet with the given file.
+     *
+     * @param stylesheet
+     *            the stylesheet file
+     * @return the statistics, or null if the stylesheet is not cached
+     */
+    public Statistics getStatistics(File stylesheet)
+    {
+        return getStatistics(toUrl(stylesheet));
+    }
+
+    /**
+     * Returns the number of cached stylesheets.
+     *
+     * @return the number of cached stylesheets
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Removes all cached stylesheets.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the last modification time of the stylesheet at the given location.
+     * Only {@code file:} locations are checked; other locations are not
+     * contacted, since opening a connection for every lookup would leak
+     * {@code jar:} file handles or cost a network round trip, and are reported
+     * as unknown.
+     */
+    private static long lastModified(URL location)
+    {
+        if (!PROTOCOL_FILE.equals(location.getProtocol()))
+        {
+            return 0L;
+        }
+        try
+        {
+            return new File(location.toURI()).lastModified();
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return 0L;
+        }
+    }
+
+    private static URL toUrl(File file)
+    {
+        try
+        {
+            return file.toURI().toURL();
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("Invalid stylesheet file: " + file.getPath(), e);
+        }
+    }
+
+    private static final class Entry
+    {
+        private final String location;
+        private Templates templates;
+        private long lastModified;
+        private long hits;
+        private long compilations;
+        private long compileTimeNanos;
+
+        Entry(String location)
+        {
+            this.location = location;
+        }
+
+        synchronized Templates getTemplates(long modified)
+        {
+            if (templates != null && modified == lastModified)
+            {
+                hits++;
+                return templates;
+            }
+
+            long start = System.nanoTime();
+            try
+            {
+                templates = TRANSFORMER_FACTORY.newTemplates(new StreamSource(location));
+            }
+            catch (TransformerConfigurationException e)
+            {
+                throw new XsltException("Unable to compile stylesheet: " + location, e);
+            }
+            compileTimeNanos += System.nanoTime() - start;
+            compilations++;
+            lastModified = modified;
+            return templates;
+        }
+
+        synchronized Statistics getStatistics()
+        {
+            return new Statistics(location, hits, compilations, compileTimeNanos, lastModified);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the usage statistics of a cached stylesheet.
+     */
+    public static final class Statistics
+    {
+        private final String location;
+        private final long hits;
+        private final long compilations;
+        private final long compileTimeNanos;
+        private final long lastModified;
+
+        Statistics(String location, long hits, long compilations, long compileTimeNanos, long lastModified)
+        {
+            this.location = location;
+            this.hits = hits;
+            this.compilations = compilations;
+            this.compileTimeNanos = compileTimeNanos;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the location of the stylesheet
+         */
+        public String getLocation()
+        {
+            return location;
+        }
+
+        /**
+         * @return the number of lookups served from the cache
+         */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * @return the number of times the stylesheet has been compiled
+         */
+        public long getCompilations()
+        {
+            return compilations;
+        }
+
+        /**
+         * @return the total time spent compiling the stylesheet in nanoseconds
+         */
+        public long getCompileTimeNanos()
+        {
+            return compileTimeNanos;
+        }
+
+        /**
+         * @return the modification time of the stylesheet when it was last
+         *         compiled, or 0 if unknown
+         */
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Statistics[location=" + location + ", hits=" + hits + ", compilations=" + compilations + ", compileTimeNanos="
+                    + compileTimeNanos + "]";
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.xslt;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.dataliquid.commons.xml.DomUtils;
+import com.dataliquid.commons.xml.exception.XsltException;
+
+/**
+ * An immutable chain of XSLT stylesheets and identity stages. The stages are
+ * connected through SAX {@link TransformerHandler}s, so the output of one stage
+ * is streamed into the next one without building intermediate trees or
+ * strings. Only the last stage writes to the target {@link Result}.
+ * <p>
+ * Instances are thread-safe and can be reused; the compiled stylesheets are
+ * taken from a {@link TemplatesCache} on every run.
+ */
+public final class XsltPipeline
+{
+    private final List<Stage> stages;
+    private final TemplatesCache cache;
+
+    private XsltPipeline(Builder builder)
+    {
+        this.stages = Collections.unmodifiableList(new ArrayList<>(builder.stages));
+        this.cache = builder.cache;
+    }
+
+    /**
+     * Creates a new Builder for an XsltPipeline.
+     *
+     * @return the newly created Builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Returns the number of stages of this pipeline.
+     *
+     * @return the number of stages
+     */
+    public int size()
+    {
+        return stages.size();
+    }
+
+    /**
+     * Transforms the given Node through all stages and writes the output of the
+     * last stage to the given OutputStream.
+     *
+     * @param node
+     *            the Node to transform
+     * @param outputStream
+     *            the OutputStream receiving the output
+     * @throws XsltException
+     *             if a stylesheet cannot be compiled or applied
+     */
+    public void transform(Node node, OutputStream outputStream)
+    {
+        transform(node, new StreamResult(outputStream));
+    }
+
+    /**
+     * Transforms the given Node through all stages and writes the output of the
+     * last stage to the given Writer.
+     *
+     * @param node
+     *            the Node to transform
+     * @param writer
+     *            the Writer receiving the output
+     * @throws XsltException
+     *             if a stylesheet cannot be compiled or applied
+     */
+    public void transform(Node node, Writer writer)
+    {
+        transform(node, new StreamResult(writer));
+    }
+
+    /**
+     * Transforms the given Node through all stages and returns the output of the
+     * last stage as a new Document.
+     *
+     * @param node
+     *            the Node to transform
+     * @return the Document produced by the last stage
+     * @throws XsltException
+     *             if a stylesheet cannot be compiled or applied
+     */
+    public Document transform(Node node)
+    {
+        Document result = DomUtils.createDocument();
+        transform(node, new DOMResult(result));
+        return result;
+    }
+
+    /**
+     * Transforms the given Node through all stages and writes the output of the
+     * last stage to the given Result.
+     *
+     * @param node
+     *            the Node to transform
+     * @param result
+     *            the Result receiving the output
+     * @throws XsltException
+     *             if a stylesheet cannot be compiled or applied
+     */
+    public void transform(Node node, Result result)
+    {
+        synchronized (node)
+        {
+            transform(new DOMSource(node), result);
+        }
+    }
+
+    /**
+     * Transforms the given Source through all stages and writes the output of the
+     * last stage to the given Result.
+     *
+     * @param source
+     *            the Source to transform
+     * @param result
+     *            the Result receiving the output
+     * @throws XsltException
+     *             if a stylesheet cannot be compiled or applied
+     */
+    public void transform(Source source, Result result)
+    {
+        try
+        {
+            SAXTransformerFactory factory = TemplatesCache.TRANSFORMER_FACTORY;
+            TransformerHandler first = null;
+            TransformerHandler previous = null;
+            for (Stage stage : stages)
+            {
+                TransformerHandler handler = stage.newTransformerHandler(factory, cache);
+                if (previous == null)
+                {
+                    first = handler;
+                }
+                else
+                {
+                    previous.setResult(toSaxResult(handler));
+                }
+                previous = handler;
+            }
+
+            Transformer feeder = factory.newTransformer();
+            if (first == null)
+            {
+                feeder.transform(source, result);
+            }
+            else
+            {
+                previous.setResult(result);
+                feeder.transform(source, toSaxResult(first));
+            }
+        }
+        catch (TransformerException e)
+        {
+            throw new XsltException("Unable to run xslt pipeline", e);
+        }
+    }
+
+    private static SAXResult toSaxResult(TransformerHandler handler)
+    {
+        SAXResult result = new SAXResult(handler);
+        result.setLexicalHandler(handler);
+        return result;
+    }
+
+    private static final class Stage
+    {
+        private final URL stylesheet;
+        private final Map<String, Object> parameters;
+
+        Stage(URL stylesheet, Map<String, ?> parameters)
+        {
+            this.stylesheet = stylesheet;
+            this.parameters = parameters != null ? new HashMap<String, Object>(parameters) : Collections.<String, Object> emptyMap();
+        }
+
+        TransformerHandler newTransformerHandler(SAXTransformerFactory factory, TemplatesCache cache) throws TransformerConfigurationException
+        {
+            if (stylesheet == null)
+            {
+                return factory.newTransformerHandler();
+            }
+
+            TransformerHandler handler = factory.newTransformerHandler(cache.getTemplates(stylesheet));
+            Transformer transformer = handler.getTransformer();
+            for (Map.Entry<String, Object> entry : parameters.entrySet())
+            {
+                transformer.setParameter(entry.getKey(), entry.getValue());
+            }
+            return handler;
+        }
+    }
+
+    /**
+     * A builder for XsltPipeline instances. Stages are applied in the order in
+     * which they are added.
+     */
+    public static final class Builder
+    {
+        private final List<Stage> stages = new ArrayList<>();
+        private TemplatesCache cache = TemplatesCache.getDefault();
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Adds a stage applying the stylesheet in the given file.
+         *
+         * @param stylesheet
+         *            the stylesheet file
+         * @return this Builder
+         */
+        public Builder stylesheet(File stylesheet)
+        {
+            return stylesheet(stylesheet, null);
+        }
+
+        /**
+         * Adds a stage applying the stylesheet in the given file with the given
+         * parameters.
+         *
+         * @param stylesheet
+         *            the stylesheet file
+         * @param parameters
+         *            optional stylesheet parameters, may be null
+         * @return this Builder
+         */
+        public Builder stylesheet(File stylesheet, Map<String, ?> parameters)
+        {
+            try
+            {
+                return stylesheet(stylesheet.toURI().toURL(), parameters);
+            }
+            catch (MalformedURLException e)
+            {
+                throw new IllegalArgumentException("Invalid stylesheet file: " + stylesheet.getPath(), e);
+            }
+        }
+
+        /**
+         * Adds a stage applying the stylesheet at the given location.
+         *
+         * @param stylesheet
+         *            the stylesheet location
+         * @return this Builder
+         */
+        public Builder stylesheet(URL stylesheet)
+        {
+            return stylesheet(stylesheet, null);
+        }
+
+        /**
+         * Adds a stage applying the stylesheet at the given location with the given
+         * parameters.
+         *
+         * @param stylesheet
+         *            the stylesheet location
+         * @param parameters
+         *            optional stylesheet parameters, may be null
+         * @return this Builder
+         */
+        public Builder stylesheet(URL stylesheet, Map<String, ?> parameters)
+        {
+            if (stylesheet == null)
+            {
+                throw new IllegalArgumentException("Stylesheet must not be null");
+            }
+            stages.add(new Stage(stylesheet, parameters));
+            return this;
+        }
+
+        /**
+         * Adds an identity stage which passes its input through unchanged.
+         *
+         * @return this Builder
+         */
+        public Builder identity()
+        {
+            stages.add(new Stage(null, null));
+            return this;
+        }
+
+        /**
+         * Sets the TemplatesCache providing the compiled stylesheets. Defaults to
+         * the {@link TemplatesCache#getDefault() default TemplatesCache}.
+         *
+         * @param cache
+         *            the TemplatesCache to use
+         * @return this Builder
+         */
+        public Builder cache(TemplatesCache cache)
+        {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Creates the XsltPipeline.
+         *
+         * @return the newly created XsltPipeline
+         */
+        public XsltPipeline build()
+        {
+            return new XsltPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.dataliquid.commons.xml.ChangeTracker.Change;
+import com.dataliquid.commons.xml.ChangeTracker.ChangeType;
+
+public class ChangeTrackerTest
+{
+    @Test
+    public void testTrackIsIdempotent()
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>");
+
+        // When
+        ChangeTracker first = DomUtils.track(document);
+        ChangeTracker second = DomUtils.track(document.getDocumentElement());
+
+        // Then
+        assertThat(second, is(sameInstance(first)));
+        assertThat(first.getVersion(), is(0L));
+    }
+
+    @Test
+    public void testChangesAreReported()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a id=\"1\">text</a></root>");
+        Element a = (Element) document.getDocumentElement().getFirstChild();
+        ChangeTracker tracker = DomUtils.track(document);
+        List<Change> changes = new ArrayList<>();
+        tracker.addListener(changes::add);
+
+        // When
+        DomUtils.setAttribute(a, "id", "2");
+        a.removeAttribute("id");
+        Element b = DomUtils.appendElement(document.getDocumentElement(), DomUtils.createDocument("b").getDocumentElement());
+        a.getFirstChild().setNodeValue("changed");
+        DomUtils.delete(b);
+
+        // Then
+        assertThat(changes.size(), is(5));
+        assertThat(changes.get(0).getType(), is(ChangeType.ATTRIBUTE));
+        assertThat(changes.get(0).getName(), is(equalTo("id")));
+        assertThat(changes.get(0).getOldValue(), is(equalTo("1")));
+        assertThat(changes.get(0).getNewValue(), is(equalTo("2")));
+        assertThat(changes.get(1).getNewValue(), is(nullValue()));
+        assertThat(changes.get(2).getType(), is(ChangeType.INSERTED));
+        assertThat(changes.get(2).getNode(), is(sameInstance(b)));
+        assertThat(changes.get(3).getType(), is(ChangeType.TEXT));
+        assertThat(changes.get(4).getType(), is(ChangeType.REMOVED));
+        assertThat(tracker.getVersion(), is(5L));
+    }
+
+    @Test
+    public void testRenameIsReported()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/></root>");
+        ChangeTracker tracker = DomUtils.track(document);
+        List<Change> changes = new ArrayList<>();
+        tracker.addListener(changes::add);
+
+        // When
+        DomUtils.renameNode(document.getDocumentElement().getFirstChild(), "b");
+
+        // Then
+        assertThat(changes.size(), is(1));
+        assertThat(changes.get(0).getType(), is(ChangeType.RENAMED));
+        assertThat(changes.get(0).getOldValue(), is(equalTo("a")));
+        assertThat(changes.get(0).getNewValue(), is(equalTo("b")));
+    }
+
+    @Test
+    public void testRemoveListener()
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>");
+        ChangeTracker tracker = DomUtils.track(document);
+        List<Change> changes = new ArrayList<>();
+        ChangeTracker.Listener listener = changes::add;
+        tracker.addListener(listener);
+
+        // When
+        tracker.removeListener(listener);
+        DomUtils.setAttribute(document.getDocumentElement(), "a", "b");
+
+        // Then
+        assertThat(changes.isEmpty(), is(true));
+        assertThat(tracker.getVersion(), is(1L));
+    }
+
+    @Test
+    public void testTrackerIsDetachedAfterLastUser()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/></root>");
+        ChangeTracker tracker = DomUtils.track(document);
+        DomUtils.index(document);
+
+        // When
+        DomUtils.removeIndex(document);
+        ChangeTracker afterIndex = ChangeTracker.get(document);
+        DomUtils.untrack(document);
+        DomUtils.setAttribute(document.getDocumentElement(), "a", "b");
+
+        // Then
+        assertThat(afterIndex, is(sameInstance(tracker)));
+        assertThat(ChangeTracker.get(document), is(nullValue()));
+        assertThat(tracker.getVersion(), is(0L));
+    }
+
+    @Test
+    public void testUnbalancedUntrackKeepsTrackerOfIndex()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/></root>");
+        DomUtils.index(document);
+        DomUtils.track(document);
+        DomUtils.untrack(document);
+
+        // When / Then
+        assertThrows(IllegalStateException.class, () -> DomUtils.untrack(document));
+        assertThat(ChangeTracker.get(document), is(notNullValue()));
+        DomUtils.removeIndex(document);
+        assertThat(ChangeTracker.get(document), is(nullValue()));
+        assertThrows(IllegalStateException.class, () -> DomUtils.untrack(document));
+    }
+}
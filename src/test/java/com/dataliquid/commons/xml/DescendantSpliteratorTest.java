@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class DescendantSpliteratorTest
+{
+    @Test
+    public void testDocumentOrder()
+    {
+        // Given
+        Document document = DomUtils.parse("<a><b><c/>text</b><d><e/></d></a>");
+
+        // When
+        List<String> names = DomUtils.descendants(document.getDocumentElement()).map(Node::getNodeName).collect(Collectors.toList());
+
+        // Then
+        assertThat(names, equalTo(Arrays.asList("b", "c", "#text", "d", "e")));
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        // Given
+        Document document = DomUtils.parse("<a/>");
+
+        // When
+        Spliterator<Node> spliterator = DescendantSpliterator.of(document.getDocumentElement());
+
+        // Then
+        assertThat(spliterator.estimateSize(), equalTo(0L));
+        assertThat(spliterator.trySplit(), nullValue());
+        assertThat(spliterator.tryAdvance(node -> {}), equalTo(false));
+    }
+
+    @Test
+    public void testSplitsPreserveOrder()
+    {
+        // Given
+        Document document = createRandomDocument(new Random(42), 5000);
+        List<Node> expected = collect(DescendantSpliterator.of(document));
+
+        // When
+        List<Node> actual = new ArrayList<>();
+        splitRecursively(DescendantSpliterator.of(document), actual, 24);
+
+        // Then
+        assertThat(expected.size(), equalTo(5000));
+        assertThat(actual, equalTo(expected));
+    }
+
+    @Test
+    public void testSplitAfterPartialAdvance()
+    {
+        // Given
+        Document document = DomUtils.parse("<a><b><c/><d/></b><e/><f/></a>");
+        Spliterator<Node> spliterator = DescendantSpliterator.of(document);
+        List<String> names = new ArrayList<>();
+        spliterator.tryAdvance(node -> names.add(node.getNodeName()));
+        spliterator.tryAdvance(node -> names.add(node.getNodeName()));
+
+        // When
+        Spliterator<Node> prefix = spliterator.trySplit();
+
+        // Then
+        assertThat(prefix, notNullValue());
+        prefix.forEachRemaining(node -> names.add(node.getNodeName()));
+        names.add("|");
+        spliterator.forEachRemaining(node -> names.add(node.getNodeName()));
+        assertThat(names, equalTo(Arrays.asList("a", "b", "c", "d", "e", "|", "f")));
+    }
+
+    @Test
+    public void testParallelMatchesSequential()
+    {
+        // Given
+        Document document = DomUtils.parse(DomUtils.asXml(createRandomDocument(new Random(7), 20000)));
+
+        // When
+        List<Node> sequential = DomUtils.descendants(document).collect(Collectors.toList());
+        List<Node> parallel = DomUtils.descendants(document, true).collect(Collectors.toList());
+        long elements = DomUtils.descendants(document, true).filter(DomUtils::isElement).count();
+
+        // Then
+        assertThat(parallel, equalTo(sequential));
+        assertThat(elements, equalTo((long) document.getElementsByTagName("*").getLength()));
+    }
+
+    private static Document createRandomDocument(Random random, int size)
+    {
+        Document document = DomUtils.createDocument("root");
+        List<Element> elements = new ArrayList<>();
+        elements.add(document.getDocumentElement());
+        for (int i = 1; i < size; i++)
+        {
+            Element element = document.createElement("e" + i);
+            elements.get(random.nextInt(elements.size())).appendChild(element);
+            elements.add(element);
+        }
+        return document;
+    }
+
+    private static List<Node> collect(Spliterator<Node> spliterator)
+    {
+        List<Node> result = new ArrayList<>();
+        spliterator.forEachRemaining(result::add);
+        return result;
+    }
+
+    private static void splitRecursively(Spliterator<Node> spliterator, List<Node> result, int depth)
+    {
+        Spliterator<Node> prefix = (depth > 0) ? spliterator.trySplit() : null;
+        if (prefix == null)
+        {
+            spliterator.forEachRemaining(result::add);
+            return;
+        }
+        splitRecursively(prefix, result, depth - 1);
+        splitRecursively(spliterator, result, depth - 1);
+    }
+}
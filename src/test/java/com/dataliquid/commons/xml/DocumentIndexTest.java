@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class DocumentIndexTest
+{
+    private static final String XML = "<customers><customer id=\"1\"><item/></customer><customer id=\"42\"><item/><item/></customer>"
+            + "<group xmlns=\"urn:a\"><customer id=\"42\"/></group></customers>";
+
+    @Test
+    public void testLookup()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+
+        // When
+        DocumentIndex index = DomUtils.index(document, "id");
+
+        // Then
+        assertThat(index.lookup("item").size(), is(3));
+        assertThat(index.lookup("customer").size(), is(3));
+        assertThat(index.lookup("missing").isEmpty(), is(true));
+        assertThat(index.lookupByKey("id", "42").size(), is(2));
+        assertThat(DomUtils.lookup(document, "item").size(), is(3));
+        assertThat(DomUtils.lookupByKey(document, "id", "1").get(0).getNodeName(), is(equalTo("customer")));
+        assertThrows(IllegalArgumentException.class, () -> index.lookupByKey("name", "x"));
+    }
+
+    @Test
+    public void testSelectNodesFromIndex()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DomUtils.index(document, "id");
+
+        // When
+        List<Element> byKey = DomUtils.selectNodes(document, "//customer[@id='42']");
+        List<Element> byName = DomUtils.selectNodes(document.getDocumentElement(), "//item");
+
+        // Then
+        assertThat(byKey.size(), is(1));
+        assertThat(byKey.get(0), is(sameInstance(document.getDocumentElement().getChildNodes().item(1))));
+        assertThat(byName.size(), is(3));
+    }
+
+    @Test
+    public void testSelectNodesWithoutIndex()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+
+        // When
+        List<Element> result = DocumentIndex.select(document, "//customer[@id='42']");
+
+        // Then
+        assertThat(result, is(nullValue()));
+    }
+
+    @Test
+    public void testIndexIsUpdatedAfterMutation()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DocumentIndex index = DomUtils.index(document, "id");
+        Element first = index.lookupByKey("id", "1").get(0);
+
+        // When
+        DomUtils.setAttribute(first, "id", "7");
+        Element appended = DomUtils.appendElement(first, DomUtils.parse("<item><item id=\"8\"/></item>").getDocumentElement());
+        DomUtils.delete(DomUtils.lookup(document, "customer").get(1));
+
+        // Then
+        assertThat(index.isStale(), is(false));
+        assertThat(index.lookupByKey("id", "1").isEmpty(), is(true));
+        assertThat(index.lookupByKey("id", "7").size(), is(1));
+        assertThat(index.lookupByKey("id", "8").get(0).getParentNode(), is(sameInstance(appended)));
+        assertThat(index.lookupByKey("id", "42").size(), is(1));
+        assertThat(index.lookup("item").size(), is(3));
+        assertThat(index.lookup("item").get(1), is(sameInstance(appended)));
+    }
+
+    @Test
+    public void testMarkStale()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DocumentIndex index = DomUtils.index(document, "id");
+        index.lookup("item");
+
+        // When
+        index.markStale();
+
+        // Then
+        assertThat(index.isStale(), is(true));
+        assertThat(index.lookup("item").size(), is(3));
+        assertThat(index.isStale(), is(false));
+    }
+
+    @Test
+    public void testIndexIsRebuiltAfterRename()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DocumentIndex index = DomUtils.index(document);
+        index.lookup("item");
+
+        // When
+        DomUtils.renameAll(document, "item", "entry");
+
+        // Then
+        assertThat(index.lookup("item").isEmpty(), is(true));
+        assertThat(index.lookup("entry").size(), is(3));
+    }
+
+    @Test
+    public void testRenameThroughDocumentApi()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DocumentIndex index = DomUtils.index(document, "id");
+        Element first = (Element) document.getDocumentElement().getFirstChild();
+        DomUtils.selectNodes(document, "//customer");
+
+        // When
+        document.renameNode(first, null, "client");
+        List<Element> customers = DomUtils.selectNodes(document, "//customer");
+        List<Element> clientsBeforeRebuild = DomUtils.selectNodes(document, "//client");
+        index.markStale();
+        List<Element> clients = DomUtils.selectNodes(document, "//client");
+
+        // Then
+        assertThat(customers.size(), is(1));
+        assertThat(clientsBeforeRebuild.size(), is(0));
+        assertThat(clients.size(), is(1));
+    }
+
+    @Test
+    public void testDocumentWithoutMutationEventsIsRejected()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        Document proxy = (Document) Proxy.newProxyInstance(Document.class.getClassLoader(), new Class<?>[] { Document.class },
+                (target, method, arguments) -> method.invoke(document, arguments));
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.index(proxy));
+        assertThat(DocumentIndex.get(document), is(nullValue()));
+        assertThat(ChangeTracker.get(document), is(nullValue()));
+    }
+
+    @Test
+    public void testRemoveIndex()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DomUtils.index(document);
+
+        // When
+        DomUtils.removeIndex(document);
+
+        // Then
+        assertThat(DocumentIndex.get(document), is(nullValue()));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class DomBatchTest
+{
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    @Test
+    public void testAppend()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><first/></root>");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When
+        Element item = batch.appendElement("item");
+        item.setAttribute("id", "1");
+        batch.appendText("text").appendCDATA("data").appendComment("comment");
+        int size = batch.size();
+        batch.apply();
+
+        // Then
+        assertThat(size, equalTo(4));
+        assertThat(batch.size(), equalTo(0));
+        assertThat(item.getParentNode(), sameInstance(document.getDocumentElement()));
+        Node text = item.getNextSibling();
+        assertThat(text.getNodeType(), equalTo(Node.TEXT_NODE));
+        assertThat(text.getNextSibling().getNodeType(), equalTo(Node.CDATA_SECTION_NODE));
+        assertThat(text.getNextSibling().getNextSibling().getNodeType(), equalTo(Node.COMMENT_NODE));
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), equalTo(5));
+    }
+
+    @Test
+    public void testNothingVisibleBeforeApply()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/></root>");
+        Element a = DomUtils.selectChild(document.getDocumentElement(), "a");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When
+        batch.appendElement("b");
+        batch.setAttribute(a, "x", "1").rename(a, "c");
+
+        // Then
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION + "<root><a/></root>"));
+        batch.apply();
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION + "<root><c x=\"1\"/><b/></root>"));
+    }
+
+    @Test
+    public void testDelete()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/><b/><c/></root>");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When
+        batch.delete(DomUtils.selectChild(document.getDocumentElement(), "a"));
+        batch.delete(DomUtils.selectChild(document.getDocumentElement(), "c"));
+        batch.appendElement("d");
+        batch.apply();
+
+        // Then
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION + "<root><b/><d/></root>"));
+    }
+
+    @Test
+    public void testDeleteRenamedNode()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/><b/></root>", false);
+        Element root = document.getDocumentElement();
+        Node a = root.getFirstChild();
+        DomBatch batch = DomUtils.batch(root);
+
+        // When
+        batch.rename(a, "urn:a", "a").delete(a);
+        batch.apply();
+
+        // Then
+        assertThat(root.getChildNodes().getLength(), equalTo(1));
+        assertThat(root.getFirstChild().getNodeName(), equalTo("b"));
+    }
+
+    @Test
+    public void testAppendExistingElement()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/></root>");
+        Document other = DomUtils.parse("<other/>");
+        Element created = document.createElement("created");
+        Element existing = DomUtils.selectChild(document.getDocumentElement(), "a");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When
+        Element stagedCreated = batch.appendElement(created);
+        Element stagedExisting = batch.appendElement(existing);
+        Element stagedForeign = batch.appendElement(other.getDocumentElement());
+        batch.apply();
+
+        // Then
+        assertThat(stagedCreated, sameInstance(created));
+        assertThat(stagedExisting, not(sameInstance(existing)));
+        assertThat(stagedForeign.getOwnerDocument(), sameInstance(document));
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION + "<root><a/><created/><a/><other/></root>"));
+    }
+
+    @Test
+    public void testAppendLargeSiblingList()
+    {
+        // Given
+        Document document = DomUtils.createDocument("root");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When
+        for (int i = 0; i < 100000; i++)
+        {
+            batch.appendElement("item").appendChild(document.createTextNode(String.valueOf(i)));
+        }
+        batch.apply();
+
+        // Then
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), equalTo(100000));
+        assertThat(document.getDocumentElement().getLastChild().getTextContent(), equalTo("99999"));
+    }
+
+    @Test
+    public void testNamespaceMixRejected()
+    {
+        // Given
+        Document document = DomUtils.createDocument("root", "urn:test");
+        DomBatch batch = DomUtils.batch(document.getDocumentElement());
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> batch.appendElement("item"));
+        assertThat(batch.appendElement("item", "urn:test").getNamespaceURI(), equalTo("urn:test"));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class DomSerializerTest
+{
+    private static final String FIXTURE_DIRECTORY = "src/test/resources/xml/serializer/";
+    private static final String GOLDEN_DIRECTORY = FIXTURE_DIRECTORY + "expected/";
+
+    @Test
+    public void testElementsMatchGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("elements.xml", false, "elements.xml");
+    }
+
+    @Test
+    public void testEscapingMatchesGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("escaping.xml", false, "escaping.xml");
+    }
+
+    @Test
+    public void testAttributesMatchGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("attributes.xml", false, "attributes.xml");
+    }
+
+    @Test
+    public void testNamespacesMatchGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("namespaces.xml", false, "namespaces.xml");
+    }
+
+    @Test
+    public void testMixedContentMatchesGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("mixed.xml", false, "mixed.xml");
+    }
+
+    @Test
+    public void testIndentedMixedContentMatchesGoldenFile() throws IOException
+    {
+        assertMatchesGoldenFile("mixed.xml", true, "mixed-indent.xml");
+    }
+
+    @Test
+    public void testNonNamespaceAwareDocumentMatchesGoldenFile() throws IOException
+    {
+        // Given
+        Document document = DomUtils.parse(new File(FIXTURE_DIRECTORY + "elements.xml"), false);
+
+        // When
+        String xml = DomSerializer.serialize(document, false);
+
+        // Then
+        assertThat(xml, equalTo(readGoldenFile("elements.xml")));
+    }
+
+    @Test
+    public void testElementDeclaresNamespacesInScope() throws FileNotFoundException
+    {
+        // Given
+        Document document = DomUtils.parse(new File(FIXTURE_DIRECTORY + "namespaces.xml"));
+        Element element = DomUtils.selectNode(document, "//*[local-name() = 'element' and @*]");
+
+        // When
+        String xml = DomUtils.asXml(element);
+
+        // Then
+        assertThat(xml, equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><ns:element xmlns=\"http://example.com/default\" "
+                + "xmlns:ns=\"http://example.com/ns\" ns:attr=\"value\">Value</ns:element>"));
+    }
+
+    @Test
+    public void testIndentedElement()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a><b>Value</b><c/></a><d>Text</d></root>");
+
+        // When
+        String xml = DomUtils.asXml(document.getDocumentElement(), true);
+
+        // Then
+        assertThat(xml, equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n   <a>\n      <b>Value</b>\n      <c/>\n   </a>\n"
+                + "   <d>Text</d>\n</root>"));
+    }
+
+    @Test
+    public void testUnsupportedContentFallsBack() throws FileNotFoundException
+    {
+        // Given
+        Document document = DomUtils.parse(new File(FIXTURE_DIRECTORY + "unsupported.xml"));
+
+        // When
+        String xml = DomSerializer.serialize(document, false);
+
+        // Then
+        assertThat(xml, nullValue());
+    }
+
+    @Test
+    public void testIndentedWhitespaceFallsBack() throws FileNotFoundException
+    {
+        // Given
+        Document document = DomUtils.parse(new File(FIXTURE_DIRECTORY + "elements.xml"));
+
+        // When
+        String xml = DomSerializer.serialize(document, true);
+
+        // Then
+        assertThat(xml, nullValue());
+    }
+
+    @Test
+    public void testUndeclaredNamespaceFallsBack()
+    {
+        // Given
+        Document document = DomUtils.createDocument("root");
+        document.getDocumentElement().appendChild(document.createElementNS("urn:undeclared", "u:child"));
+
+        // When
+        String xml = DomSerializer.serialize(document, false);
+
+        // Then
+        assertThat(xml, nullValue());
+    }
+
+    @Test
+    public void testSerializeCreatedDocument()
+    {
+        // Given
+        Document document = DomUtils.createDocument("root");
+        Element child = DomUtils.createElement(document, "child", null);
+        child.setAttribute("id", "1");
+        DomUtils.appendText(child, "Value");
+        document.getDocumentElement().appendChild(child);
+        document.getDocumentElement().appendChild(DomUtils.createElement(document, "empty", null));
+
+        // When
+        String xml = DomSerializer.serialize(document, false);
+
+        // Then
+        assertThat(xml, equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><child id=\"1\">Value</child><empty/></root>"));
+    }
+
+    private static void assertMatchesGoldenFile(String fixture, boolean indent, String goldenFile) throws IOException
+    {
+        Document document = DomUtils.parse(new File(FIXTURE_DIRECTORY + fixture));
+        String expected = readGoldenFile(goldenFile);
+
+        assertThat(DomSerializer.serialize(document, indent), notNullValue());
+        assertThat(DomUtils.asXml(document, indent), equalTo(expected));
+    }
+
+    private static String readGoldenFile(String name) throws IOException
+    {
+        return new String(Files.readAllBytes(Paths.get(GOLDEN_DIRECTORY + name)), StandardCharsets.UTF_8);
+    }
+}
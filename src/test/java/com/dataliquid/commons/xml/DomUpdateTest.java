@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+
+public class DomUpdateTest
+{
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    @Test
+    public void testUpdate()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><item state=\"new\" old=\"x\">a</item><item>b</item><item state=\"new\"><c/></item></root>");
+
+        // When
+        int updated = DomUtils.update(document)
+                .match("//item[@state='new']")
+                .setAttribute("state", "open")
+                .removeAttribute("old")
+                .setText("done")
+                .rename("entry")
+                .apply();
+
+        // Then
+        assertThat(updated, equalTo(2));
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION
+                + "<root><entry state=\"open\">done</entry><item>b</item><entry state=\"open\">done</entry></root>"));
+    }
+
+    @Test
+    public void testNestedMatchesRemovedByTextAreSkipped()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><item><item>inner</item></item><item>b</item></root>");
+
+        // When
+        int updated = DomUtils.update(document).match("//item").setText("done").setAttribute("state", "open").apply();
+
+        // Then
+        assertThat(updated, equalTo(2));
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION
+                + "<root><item state=\"open\">done</item><item state=\"open\">done</item></root>"));
+    }
+
+    @Test
+    public void testUpdateAttributeMatches()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a id=\"1\"/><b id=\"2\"/></root>");
+
+        // When
+        int updated = DomUtils.update(document.getDocumentElement()).match("*/@id").setText("0").setAttribute("ignored", "x").apply();
+
+        // Then
+        assertThat(updated, equalTo(2));
+        assertThat(DomUtils.asXml(document), equalTo(XML_DECLARATION + "<root><a id=\"0\"/><b id=\"0\"/></root>"));
+    }
+
+    @Test
+    public void testUpdateWithNamespace()
+    {
+        // Given
+        Document document = DomUtils.parse("<root xmlns=\"http://www.w3.org/1999/xhtml\"><p>a</p></root>", true);
+
+        // When
+        int updated = DomUtils.update(document).match("//html:p", new DefaultNamespaceContext()).setAttribute("class", "x").apply();
+
+        // Then
+        assertThat(updated, equalTo(1));
+        assertThat(document.getDocumentElement().getFirstChild().getAttributes().getNamedItem("class").getNodeValue(), equalTo("x"));
+    }
+
+    @Test
+    public void testUpdateWithoutMatch()
+    {
+        assertThrows(IllegalStateException.class, () -> DomUtils.update(DomUtils.parse("<root/>")).setText("x").apply());
+        assertThrows(XpathException.class, () -> DomUtils.update(DomUtils.parse("<root/>")).match("//["));
+    }
+}
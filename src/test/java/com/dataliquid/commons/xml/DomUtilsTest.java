@@ -26,15 +26,23 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -44,6 +52,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -67,6 +76,7 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
+import com.dataliquid.commons.xml.exception.XsltException;
 import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
 
 public class DomUtilsTest
@@ -360,6 +370,145 @@ public class DomUtilsTest
         assertThat(((Element) insertedNode).getTagName(), is("node2"));
     }
 
+    @Test
+    public void testAppendFragment() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><first/></root>");
+
+        // When
+        List<Node> appended = DomUtils.appendFragment(document.getDocumentElement(), "<a x=\"1\">one &amp; two</a>text<!--c--><b/>");
+
+        // Then
+        assertThat(appended.size(), equalTo(4));
+        assertThat(appended.get(0).getOwnerDocument(), sameInstance(document));
+        assertThat(appended.get(0).getParentNode(), sameInstance(document.getDocumentElement()));
+        assertThat(DomUtils.asXml(document),
+                equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><first/><a x=\"1\">one &amp; two</a>text<!--c--><b/></root>"));
+    }
+
+    @Test
+    public void testAppendFragmentWithNamespacesInScope() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<p:root xmlns:p=\"urn:p\" xmlns=\"urn:default\"><child/></p:root>");
+        Element child = (Element) document.getDocumentElement().getFirstChild();
+
+        // When
+        List<Node> appended = DomUtils.appendFragment(child, "<p:a><b xmlns:q=\"urn:q\" q:attr=\"v\"/></p:a><c/>");
+
+        // Then
+        Element a = (Element) appended.get(0);
+        Element b = (Element) a.getFirstChild();
+        assertThat(a.getNamespaceURI(), equalTo("urn:p"));
+        assertThat(a.getLocalName(), equalTo("a"));
+        assertThat(b.getNamespaceURI(), equalTo("urn:default"));
+        assertThat(b.getAttributeNS("urn:q", "attr"), equalTo("v"));
+        assertThat(appended.get(1).getNamespaceURI(), equalTo("urn:default"));
+        assertThat(a.hasAttribute("xmlns:p"), is(false));
+    }
+
+    @Test
+    public void testAppendFragmentToElementWithoutNamespace() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root xmlns=\"urn:default\"/>");
+        Element child = document.createElementNS(null, "child");
+        document.getDocumentElement().appendChild(child);
+
+        // When
+        List<Node> appended = DomUtils.appendFragment(child, "<a><b/></a>");
+
+        // Then
+        Element a = (Element) appended.get(0);
+        assertThat(a.getNamespaceURI(), nullValue());
+        assertThat(a.getFirstChild().getNamespaceURI(), nullValue());
+    }
+
+    @Test
+    public void testAppendFragmentFromInputStream() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>", false);
+        byte[] bom = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+        byte[] fragment = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><a>\u00e4</a><b/>".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(bom);
+        bytes.write(fragment);
+
+        // When
+        List<Node> appended = DomUtils.appendFragment(document.getDocumentElement(), new ByteArrayInputStream(bytes.toByteArray()));
+        List<Node> plain = DomUtils.appendFragment(document.getDocumentElement(), new ByteArrayInputStream("<c/>".getBytes(StandardCharsets.UTF_8)));
+
+        // Then
+        assertThat(appended.size(), equalTo(2));
+        assertThat(appended.get(0).getTextContent(), equalTo("\u00e4"));
+        assertThat(appended.get(0).getLocalName(), is(nullValue()));
+        assertThat(plain.get(0).getNodeName(), equalTo("c"));
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), equalTo(3));
+    }
+
+    @Test
+    public void testAppendInvalidFragment() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>");
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.appendFragment(document.getDocumentElement(), "<a>"));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.appendFragment(document.getDocumentElement(), "<x:a/>"));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.appendFragment(document, "<a/>"));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.appendFragment(DomUtils.createDocument(), "<a/><b/>"));
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), equalTo(0));
+    }
+
+    @Test
+    public void testInsertElementWithElementOrder() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><node1/>text<node3/><unknown/></root>");
+        Element root = document.getDocumentElement();
+        ElementOrder order = ElementOrder.of("node1", "node2", "node3");
+
+        // When
+        DomUtils.insertElement(root, document.createElement("node2"), order);
+        DomUtils.insertElement(root, document.createElement("node4"), order);
+
+        // Then
+        assertThat(DomUtils.asXml(document),
+                equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><node1/>text<node2/><node3/><node4/><unknown/></root>"));
+    }
+
+    @Test
+    public void testInsertElementsMatchesSequentialInsert() throws Exception
+    {
+        // Given
+        ElementOrder order = ElementOrder.of("a", "b", "c", "b", "d");
+        String xml = "<root><b/>text<x/><a/><c/><d/></root>";
+        List<String> names = Arrays.asList("d", "a", "y", "c", "b", "z", "a", "d", "x", "b");
+        Document sequential = DomUtils.parse(xml);
+        Document bulk = DomUtils.parse(xml);
+        List<Element> elements = new ArrayList<>();
+        for (String name : names)
+        {
+            elements.add(bulk.createElement(name));
+            elements.get(elements.size() - 1).setAttribute("id", String.valueOf(elements.size()));
+        }
+
+        // When
+        for (Element element : elements)
+        {
+            DomUtils.insertElement(sequential.getDocumentElement(), element, order);
+        }
+        List<Element> inserted = DomUtils.insertElements(bulk.getDocumentElement(), elements, order);
+
+        // Then
+        assertThat(DomUtils.asXml(bulk), equalTo(DomUtils.asXml(sequential)));
+        assertThat(inserted.size(), equalTo(names.size()));
+        assertThat(inserted.get(2).getAttribute("id"), equalTo("3"));
+        assertThat(inserted.get(2).getParentNode(), sameInstance(bulk.getDocumentElement()));
+    }
+
     @Test
     public void testInsertElementAsFirst() throws Exception
     {
@@ -521,6 +670,35 @@ public class DomUtilsTest
         assertThat(nodeList.getLength(), is(0));
     }
 
+    @Test
+    public void testDeleteAll() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a><a/><b/></a><b id=\"1\"/><a>text</a><c id=\"2\"/></root>");
+
+        // When
+        int removed = DomUtils.deleteAll(document, "//a | //@id");
+
+        // Then
+        assertThat(removed, equalTo(5));
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><b/><c/></root>"));
+    }
+
+    @Test
+    public void testDeleteAllWithNestedMatches() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><item><item><item/></item></item><keep/></root>");
+
+        // When
+        int removed = DomUtils.deleteAll(document.getDocumentElement(), "//item | /");
+
+        // Then
+        assertThat(removed, equalTo(3));
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><keep/></root>"));
+        assertThat(DomUtils.deleteAll(document, "//missing"), equalTo(0));
+    }
+
     @Test
     public void testDeleteWithXpathAndNamespace() throws Exception
     {
@@ -1201,6 +1379,187 @@ public class DomUtilsTest
         assertThat(writer.toString(), equalTo(expectedXml));
     }
 
+    @Test
+    public void testWriteOutputStream() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Grüße</element></root>");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Properties outputProperties = new Properties();
+        outputProperties.setProperty("encoding", "UTF-8");
+
+        // When
+        DomUtils.write(document.getDocumentElement(), outputStream, outputProperties);
+
+        // Then
+        String expectedXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><element>Grüße</element></root>";
+        assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), equalTo(expectedXml));
+    }
+
+    @Test
+    public void testWriteOutputStreamWithEncoding() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Grüße</element></root>");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Properties outputProperties = new Properties();
+        outputProperties.setProperty("encoding", "ISO-8859-1");
+
+        // When
+        DomUtils.write(document.getDocumentElement(), outputStream, outputProperties);
+
+        // Then
+        String xml = new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(DomUtils.selectString(DomUtils.parse(new ByteArrayInputStream(outputStream.toByteArray())), "/root/element"),
+                equalTo("Grüße"));
+        assertThat(xml.contains("Grüße"), is(true));
+    }
+
+    @Test
+    public void testWriteChannel() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value</element></root>");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        DomUtils.write(document.getDocumentElement(), Channels.newChannel(outputStream), new Properties());
+
+        // Then
+        String expectedXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><element>Value</element></root>";
+        assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), equalTo(expectedXml));
+    }
+
+    @Test
+    public void testWriteChannelInChunks() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value</element><element>Other value</element></root>");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        List<Integer> chunks = new ArrayList<>();
+        WritableByteChannel channel = new WritableByteChannel()
+        {
+            private final WritableByteChannel target = Channels.newChannel(outputStream);
+
+            @Override
+            public int write(ByteBuffer src) throws IOException
+            {
+                chunks.add(src.remaining());
+                return target.write(src);
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+
+        // When
+        DomUtils.write(document.getDocumentElement(), channel, ByteBuffer.allocate(16), new Properties());
+
+        // Then
+        assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), equalTo(DomUtils.asXml(document.getDocumentElement())));
+        for (Integer chunk : chunks)
+        {
+            assertThat(chunk <= 16, is(true));
+        }
+        assertThat(chunks.size() > 1, is(true));
+    }
+
+    @Test
+    public void testWriteByteBuffer() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value</element></root>");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put((byte) 'x');
+
+        // When
+        int written = DomUtils.write(document.getDocumentElement(), buffer, new Properties());
+
+        // Then
+        String expectedXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><element>Value</element></root>";
+        assertThat(written, equalTo(expectedXml.length()));
+        assertThat(buffer.position(), equalTo(expectedXml.length() + 1));
+        assertThat(new String(buffer.array(), 1, written, StandardCharsets.UTF_8), equalTo(expectedXml));
+    }
+
+    @Test
+    public void testWriteByteBufferTooSmall()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value</element></root>");
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.position(4);
+
+        // When & Then
+        assertThrows(RuntimeException.class, () -> DomUtils.write(document.getDocumentElement(), buffer, new Properties()));
+        assertThat(buffer.position(), is(4));
+    }
+
+    @Test
+    public void testTransform() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value1</element><element>Value2</element></root>");
+        File stylesheet = new File("src/test/resources/xslt/test-transform.xsl");
+
+        // When
+        Document result = DomUtils.transform(document, stylesheet, null);
+
+        // Then
+        assertThat(result.getDocumentElement().getNodeName(), equalTo("result"));
+        assertThat(DomUtils.selectStrings(result, "/result/item"), equalTo(Arrays.asList("Hello Value1", "Hello Value2")));
+    }
+
+    @Test
+    public void testTransformWithParameters() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>Value</element></root>");
+        File stylesheet = new File("src/test/resources/xslt/test-transform.xsl");
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("greeting", "Hi");
+
+        // When
+        Document result = DomUtils.transform(document, stylesheet, parameters);
+
+        // Then
+        assertThat(DomUtils.selectString(result, "/result/item"), equalTo("Hi Value"));
+    }
+
+    @Test
+    public void testTransformSourceToResult() throws Exception
+    {
+        // Given
+        Source source = new StreamSource(new StringReader("<root><element>Value</element></root>"));
+        URL stylesheet = Thread.currentThread().getContextClassLoader().getResource("xslt/test-transform.xsl");
+        StringWriter writer = new StringWriter();
+
+        // When
+        DomUtils.transform(source, new StreamResult(writer), stylesheet, null);
+
+        // Then
+        assertThat(DomUtils.selectString(DomUtils.parse(writer.toString()), "/result/item"), equalTo("Hello Value"));
+    }
+
+    @Test
+    public void testTransformInvalidStylesheet()
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>");
+        File stylesheet = new File("src/test/resources/xml/test-parse-file.xml");
+
+        // When & Then
+        assertThrows(XsltException.class, () -> DomUtils.transform(document, stylesheet, null));
+    }
+
     @Test
     public void testSelectChild() throws Exception
     {
@@ -1392,6 +1751,224 @@ public class DomUtilsTest
         assertThat(renamedNode2.getTextContent(), equalTo("Value2"));
     }
 
+    @Test
+    public void testRenameAllDeepDocument() throws Exception
+    {
+        // Given
+        Document document = DomUtils.createDocument("root");
+        Node parent = document.getDocumentElement();
+        for (int i = 0; i < 20000; i++)
+        {
+            parent = parent.appendChild(document.createElement("from"));
+        }
+
+        // When
+        DomUtils.renameAll(document.getDocumentElement(), "from", "to");
+
+        // Then
+        assertThat(document.getElementsByTagName("from").getLength(), equalTo(0));
+        assertThat(document.getElementsByTagName("to").getLength(), equalTo(20000));
+    }
+
+    @Test
+    public void testTraverse() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<a><b><c/></b><d/></a>");
+        List<String> events = new ArrayList<>();
+
+        // When
+        boolean completed = DomUtils.traverse(document.getDocumentElement(), new DomUtils.NodeVisitor()
+        {
+            @Override
+            public DomUtils.Traversal enter(Node node)
+            {
+                events.add("+" + node.getNodeName());
+                return DomUtils.Traversal.CONTINUE;
+            }
+
+            @Override
+            public void leave(Node node)
+            {
+                events.add("-" + node.getNodeName());
+            }
+        });
+
+        // Then
+        assertThat(completed, is(true));
+        assertThat(events, equalTo(Arrays.asList("+a", "+b", "+c", "-c", "-b", "+d", "-d", "-a")));
+    }
+
+    @Test
+    public void testTraverseSkipSubtreeAndStop() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<a><b><c/></b><d><e/></d><f/></a>");
+        List<String> entered = new ArrayList<>();
+
+        // When
+        boolean completed = DomUtils.traverse(document.getDocumentElement(), node ->
+        {
+            entered.add(node.getNodeName());
+            if (node.getNodeName().equals("b"))
+            {
+                return DomUtils.Traversal.SKIP_SUBTREE;
+            }
+            return node.getNodeName().equals("e") ? DomUtils.Traversal.STOP : DomUtils.Traversal.CONTINUE;
+        });
+
+        // Then
+        assertThat(completed, is(false));
+        assertThat(entered, equalTo(Arrays.asList("a", "b", "d", "e")));
+    }
+
+    @Test
+    public void testTraverseReplaceWith() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><old><child/></old><keep/></root>");
+        Document other = DomUtils.parse("<new><inner/></new>");
+        List<String> entered = new ArrayList<>();
+
+        // When
+        DomUtils.traverse(document.getDocumentElement(), node ->
+        {
+            entered.add(node.getNodeName());
+            if (node.getNodeName().equals("old"))
+            {
+                return DomUtils.Traversal.replaceWith(other.getDocumentElement());
+            }
+            return DomUtils.Traversal.CONTINUE;
+        });
+
+        // Then
+        assertThat(entered, equalTo(Arrays.asList("root", "old", "inner", "keep")));
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><new><inner/></new><keep/></root>"));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.Traversal.replaceWith(null));
+    }
+
+    @Test
+    public void testTraverseRemovingVisitedNode() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/><b/><a/><c/></root>");
+        List<String> entered = new ArrayList<>();
+
+        // When
+        DomUtils.traverse(document.getDocumentElement(), node ->
+        {
+            entered.add(node.getNodeName());
+            if (node.getNodeName().equals("a"))
+            {
+                DomUtils.delete(node);
+                return DomUtils.Traversal.SKIP_SUBTREE;
+            }
+            return DomUtils.Traversal.CONTINUE;
+        });
+
+        // Then
+        assertThat(entered, equalTo(Arrays.asList("root", "a", "b", "a", "c")));
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><b/><c/></root>"));
+    }
+
+    @Test
+    public void testChildElements() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root>text<a/><!-- comment --><b/><a/></root>");
+        Element root = document.getDocumentElement();
+
+        // When
+        List<String> names = new ArrayList<>();
+        for (Element child : DomUtils.childElements(root))
+        {
+            names.add(child.getNodeName());
+        }
+
+        // Then
+        assertThat(names, equalTo(Arrays.asList("a", "b", "a")));
+        assertThat(DomUtils.childElements(root, "a").toList().size(), equalTo(2));
+        assertThat(DomUtils.childElements(root, "b").first().getNodeName(), equalTo("b"));
+        assertThat(DomUtils.childElements(root, "c").isEmpty(), is(true));
+        assertThat(DomUtils.childNodes(root, Node.COMMENT_NODE).first().getNodeValue(), equalTo(" comment "));
+        assertThat(DomUtils.childNodes(root).toList().size(), equalTo(5));
+    }
+
+    @Test
+    public void testChildElementsNS() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root xmlns:x=\"urn:x\"><x:item/><item/><x:other/><x:item/></root>", true);
+        Element root = document.getDocumentElement();
+
+        // When
+        List<Element> namespaced = DomUtils.<Element> childElementsNS(root, "urn:x", "item").toList();
+        List<Element> plain = DomUtils.<Element> childElementsNS(root, null, "item").toList();
+
+        // Then
+        assertThat(namespaced.size(), equalTo(2));
+        assertThat(namespaced.get(0).getNodeName(), equalTo("x:item"));
+        assertThat(plain.size(), equalTo(1));
+        assertThat(plain.get(0).getNodeName(), equalTo("item"));
+    }
+
+    @Test
+    public void testChildElementsAllowsRemovalDuringIteration() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/><b/><a/><c/></root>");
+        Element root = document.getDocumentElement();
+
+        // When
+        List<String> visited = new ArrayList<>();
+        for (Element child : DomUtils.childElements(root))
+        {
+            visited.add(child.getNodeName());
+            if (child.getNodeName().equals("a"))
+            {
+                root.removeChild(child);
+            }
+        }
+        Iterator<Element> iterator = DomUtils.<Element> childElements(root, "c").iterator();
+        iterator.next();
+        iterator.remove();
+
+        // Then
+        assertThat(visited, equalTo(Arrays.asList("a", "b", "a", "c")));
+        assertThat(DomUtils.asXml(root), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><b/></root>"));
+    }
+
+    @Test
+    public void testFollowingSiblingElements() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/>text<b/><c/></root>");
+        Element a = DomUtils.selectChild(document.getDocumentElement(), "a");
+
+        // When
+        List<Element> siblings = DomUtils.<Element> followingSiblingElements(a).toList();
+
+        // Then
+        assertThat(siblings.size(), equalTo(2));
+        assertThat(siblings.get(0).getNodeName(), equalTo("b"));
+        assertThat(siblings.get(1).getNodeName(), equalTo("c"));
+    }
+
+    @Test
+    public void testSqueezeInElement() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/>text<b/></root>");
+        Element wrapper = DomUtils.createDocument("wrapper").getDocumentElement();
+
+        // When
+        Element result = DomUtils.squeezeInElement(document.getDocumentElement(), wrapper);
+
+        // Then
+        assertThat(result.getParentNode(), sameInstance(document.getDocumentElement()));
+        assertThat(DomUtils.asXml(document.getDocumentElement()), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><wrapper><a/>text<b/></wrapper></root>"));
+    }
+
     @Test
     public void testSelectChildNodes() throws Exception
     {
@@ -1712,6 +2289,77 @@ public class DomUtilsTest
         assertThat(destElement.getAttribute("attr2"), is("value2"));
     }
 
+    @Test
+    public void testMoveElementWithinDocument() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a><item>1</item></a><b/></root>");
+        Element item = DomUtils.selectNode(document, "/root/a/item");
+        Element b = DomUtils.selectNode(document, "/root/b");
+
+        // When
+        Element moved = DomUtils.moveElement(b, item);
+
+        // Then
+        assertThat(moved, sameInstance(item));
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><a/><b><item>1</item></b></root>"));
+    }
+
+    @Test
+    public void testMoveElementAcrossDocuments() throws Exception
+    {
+        // Given
+        Document source = DomUtils.parse("<source><item>1</item><other/></source>");
+        Document target = DomUtils.parse("<target/>");
+        Element item = DomUtils.selectChild(source.getDocumentElement(), "item");
+
+        // When
+        Element moved = DomUtils.moveElement(target.getDocumentElement(), item);
+
+        // Then
+        assertThat(moved.getOwnerDocument(), sameInstance(target));
+        assertThat(DomUtils.asXml(target), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><target><item>1</item></target>"));
+        assertThat(DomUtils.asXml(source), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><source><other/></source>"));
+    }
+
+    @Test
+    public void testMoveElementBeforeAndAfter() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><a/><b/><c/></root>");
+        Element root = document.getDocumentElement();
+        Element a = DomUtils.selectChild(root, "a");
+        Element b = DomUtils.selectChild(root, "b");
+        Element c = DomUtils.selectChild(root, "c");
+
+        // When
+        DomUtils.moveElementBefore(a, c);
+        DomUtils.moveElementAfter(b, a);
+        DomUtils.moveElementAfter(b, a);
+
+        // Then
+        assertThat(DomUtils.asXml(document), equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><c/><b/><a/></root>"));
+    }
+
+    @Test
+    public void testMoveChildren() throws Exception
+    {
+        // Given
+        Document document = DomUtils.parse("<root><source><child1/>text<child2/></source><destination/></root>");
+        Element source = DomUtils.selectChild(document.getDocumentElement(), "source");
+        Element destination = DomUtils.selectChild(document.getDocumentElement(), "destination");
+        Element child1 = DomUtils.selectChild(source, "child1");
+
+        // When
+        DomUtils.moveChildren(source, destination);
+        DomUtils.moveChildren(destination, destination);
+
+        // Then
+        assertThat(child1.getParentNode(), sameInstance(destination));
+        assertThat(DomUtils.asXml(document),
+                equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><source>text</source><destination><child1/><child2/></destination></root>"));
+    }
+
     @Test
     public void testCopyChildren() throws Exception
     {
@@ -1759,4 +2407,120 @@ public class DomUtilsTest
         assertThat(textNode, instanceOf(Text.class));
         assertThat(textNode.getNodeValue(), is(textContent));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSelectWithDocumentNamespaces()
+    {
+        // Given
+        Document document = DomUtils.parse("<a:root xmlns:a=\"urn:a\"><b:item xmlns:b=\"urn:b\">value</b:item></a:root>");
+
+        // When
+        String value = DomUtils.selectString(document, "/a:root/b:item", DomUtils.DOCUMENT_NAMESPACES);
+        List<Element> items = DomUtils.selectNodes(document.getDocumentElement(), "b:item", DomUtils.DOCUMENT_NAMESPACES);
+
+        // Then
+        assertThat(value, is(equalTo("value")));
+        assertThat(items.size(), is(1));
+    }
+
+    @Test
+    public void testNamespaceContextIsCachedAndInvalidated()
+    {
+        // Given
+        Document document = DomUtils.parse("<a:root xmlns:a=\"urn:a\"><a:item xmlns:a=\"urn:other\"/></a:root>");
+        NamespaceContext first = DomUtils.namespaceContext(document);
+
+        // When
+        NamespaceContext cached = DomUtils.namespaceContext(document.getDocumentElement());
+        DomUtils.addNamespace(document.getDocumentElement(), "c", "urn:c");
+        NamespaceContext updated = DomUtils.namespaceContext(document);
+
+        // Then
+        assertThat(cached, is(sameInstance(first)));
+        assertThat(first.getNamespaceURI("a"), is(equalTo("urn:a")));
+        assertThat(first.getNamespaceURI("c"), is(equalTo("")));
+        assertThat(updated.getNamespaceURI("c"), is(equalTo("urn:c")));
+    }
+
+    @Test
+    public void testNamespaceContextSeesImportedDeclarations()
+    {
+        // Given
+        Document document = DomUtils.parse("<a:root xmlns:a=\"urn:a\"/>");
+        DomUtils.namespaceContext(document);
+        Element imported = DomUtils.parse("<b:item xmlns:b=\"urn:b\"/>").getDocumentElement();
+        Element moved = DomUtils.parse("<c:item xmlns:c=\"urn:c\"/>").getDocumentElement();
+
+        // When
+        DomUtils.appendElement(document.getDocumentElement(), imported);
+        String afterAppend = DomUtils.namespaceContext(document).getNamespaceURI("b");
+        DomUtils.moveElement(document.getDocumentElement(), moved);
+        String afterMove = DomUtils.namespaceContext(document).getNamespaceURI("c");
+        DomUtils.appendFragment(document.getDocumentElement(), "<d:item xmlns:d=\"urn:d\"/>");
+        String afterFragment = DomUtils.namespaceContext(document).getNamespaceURI("d");
+
+        // Then
+        assertThat(afterAppend, is(equalTo("urn:b")));
+        assertThat(afterMove, is(equalTo("urn:c")));
+        assertThat(afterFragment, is(equalTo("urn:d")));
+    }
+
+    @Test
+    public void testNormalizeNamespacesHoistsDeclarations()
+    {
+        // Given
+        Document document = DomUtils.parse(
+                "<root><a:x xmlns:a=\"urn:a\"/><a:y xmlns:a=\"urn:a\"><a:z xmlns:a=\"urn:a\"/></a:y></root>");
+
+        // When
+        int removed = DomUtils.normalizeNamespaces(document);
+
+        // Then
+        assertThat(removed, is(2));
+        assertThat(DomUtils.asXml(document.getDocumentElement()), is(equalTo(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root xmlns:a=\"urn:a\"><a:x/><a:y><a:z/></a:y></root>")));
+    }
+
+    @Test
+    public void testNormalizeNamespacesKeepsConflictingDeclarations()
+    {
+        // Given
+        Document document = DomUtils.parse("<root xmlns=\"urn:d\"><d xmlns=\"urn:d\"/><a:x xmlns:a=\"urn:a\"/>"
+                + "<a:y xmlns:a=\"urn:b\"><a:z xmlns:a=\"urn:b\"/></a:y></root>");
+
+        // When
+        int removed = DomUtils.normalizeNamespaces(document.getDocumentElement());
+
+        // Then
+        assertThat(removed, is(2));
+        Document reparsed = DomUtils.parse(DomUtils.asXml(document));
+        Element root = reparsed.getDocumentElement();
+        assertThat(((Element) root.getChildNodes().item(0)).getNamespaceURI(), is(equalTo("urn:d")));
+        assertThat(((Element) root.getChildNodes().item(1)).getNamespaceURI(), is(equalTo("urn:a")));
+        assertThat(((Element) root.getChildNodes().item(2).getFirstChild()).getNamespaceURI(), is(equalTo("urn:b")));
+        assertThat(((Element) root.getChildNodes().item(2)).hasAttribute("xmlns:a"), is(true));
+        assertThat(((Element) root.getChildNodes().item(2).getFirstChild()).hasAttributes(), is(false));
+    }
+
+    @Test
+    public void testNormalizeNamespacesOfCreatedElements()
+    {
+        // Given
+        Document document = DomUtils.createDocument("root");
+        Element outer = document.createElementNS("urn:a", "a:outer");
+        document.getDocumentElement().appendChild(outer);
+        Element inner = document.createElementNS("urn:b", "a:inner");
+        outer.appendChild(inner);
+        Element leaf = document.createElementNS("urn:a", "a:leaf");
+        leaf.setAttributeNS(DefaultNamespaceContext.NAMESPACE_XMLNS, "xmlns:a", "urn:a");
+        inner.appendChild(leaf);
+
+        // When
+        DomUtils.normalizeNamespaces(document);
+
+        // Then
+        Element reparsed = DomUtils.parse(DomUtils.asXml(document)).getDocumentElement();
+        Node reparsedLeaf = reparsed.getFirstChild().getFirstChild().getFirstChild();
+        assertThat(reparsedLeaf.getNamespaceURI(), is(equalTo("urn:a")));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ElementOrderTest
+{
+    @Test
+    public void testRank()
+    {
+        // Given
+        ElementOrder order = ElementOrder.of("a", "b", "c");
+
+        // When
+        int rank = order.rank("b");
+
+        // Then
+        assertThat(rank, equalTo(1));
+        assertThat(order.rank("x"), equalTo(ElementOrder.UNKNOWN));
+        assertThat(order.contains("c"), is(true));
+        assertThat(order.contains("x"), is(false));
+        assertThat(order.size(), equalTo(3));
+    }
+
+    @Test
+    public void testDuplicateNamesUseFirstOccurrence()
+    {
+        // Given
+        ElementOrder order = ElementOrder.of("a", "b", "a", "c");
+
+        // When
+        int rank = order.rank("a");
+
+        // Then
+        assertThat(rank, equalTo(0));
+        assertThat(order.getNames(), equalTo(Arrays.asList("a", "b", "a", "c")));
+    }
+
+    @Test
+    public void testNamesAreImmutable()
+    {
+        // Given
+        List<String> names = new ArrayList<>(Arrays.asList("a", "b"));
+        ElementOrder order = ElementOrder.of(names);
+
+        // When
+        names.add("c");
+
+        // Then
+        assertThat(order.size(), equalTo(2));
+        assertThrows(UnsupportedOperationException.class, () -> order.getNames().add("d"));
+        assertThrows(IllegalArgumentException.class, () -> ElementOrder.of((List<String>) null));
+    }
+
+    @Test
+    public void testLocalNames()
+    {
+        // Given
+        ElementOrder order = ElementOrder.ofLocalNames("a", "b");
+
+        // When
+        int rank = order.rank("x:b");
+
+        // Then
+        assertThat(rank, equalTo(1));
+        assertThat(order.contains("a"), is(true));
+        assertThat(ElementOrder.of("a", "b").rank("x:b"), equalTo(ElementOrder.UNKNOWN));
+        assertThat(order, not(equalTo(ElementOrder.of("a", "b"))));
+    }
+
+    @Test
+    public void testEquals()
+    {
+        // Given
+        ElementOrder order = ElementOrder.of("a", "b");
+
+        // When
+        ElementOrder same = ElementOrder.of(Arrays.asList("a", "b"));
+
+        // Then
+        assertThat(order, equalTo(same));
+        assertThat(order.hashCode(), equalTo(same.hashCode()));
+        assertThat(order, not(equalTo(ElementOrder.of("b", "a"))));
+    }
+}
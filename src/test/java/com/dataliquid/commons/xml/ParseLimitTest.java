@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+public class ParseLimitTest
+{
+    private static final String XML = "<message><header><to>billing</to><priority>high</priority></header><body><line>1</line><line>2</line></body></message>";
+
+    @Test
+    public void testParseAfterElement()
+    {
+        // When
+        Document document = DomUtils.parse(stream(XML), ParseLimit.afterElement("header"));
+
+        // Then
+        assertThat(DomUtils.asXml(document.getDocumentElement()), is(equalTo(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><message><header><to>billing</to><priority>high</priority></header></message>")));
+        assertThat(DomUtils.selectString(document, "/message/header/to"), is(equalTo("billing")));
+    }
+
+    @Test
+    public void testParseAfterNamespacedElement()
+    {
+        // Given
+        String xml = "<m:message xmlns:m=\"urn:m\"><header>plain</header><m:header>ns</m:header><m:body/></m:message>";
+
+        // When
+        Document document = DomUtils.parse(stream(xml), ParseLimit.afterElement("urn:m", "header"));
+
+        // Then
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), is(2));
+        assertThat(document.getDocumentElement().getLastChild().getTextContent(), is(equalTo("ns")));
+    }
+
+    @Test
+    public void testParseFirstElements()
+    {
+        // When
+        Document document = DomUtils.parse(stream(XML), ParseLimit.elements(3));
+
+        // Then
+        assertThat(DomUtils.asXml(document.getDocumentElement()),
+                is(equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?><message><header><to>billing</to></header></message>")));
+    }
+
+    @Test
+    public void testRestOfStreamIsNotParsed()
+    {
+        // Given
+        String xml = "<message><header><to>billing</to></header><body><broken></body>";
+
+        // When
+        Document document = DomUtils.parse(stream(xml), ParseLimit.afterElement("header"));
+
+        // Then
+        assertThat(DomUtils.selectString(document, "/message/header/to"), is(equalTo("billing")));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.parse(stream(xml), ParseLimit.afterElement("missing")));
+    }
+
+    @Test
+    public void testInputStreamStaysOpen() throws IOException
+    {
+        // Given
+        StringBuilder xml = new StringBuilder("<message><header><to>billing</to></header><body>");
+        for (int i = 0; i < 20000; i++)
+        {
+            xml.append("<line>").append(i).append("</line>");
+        }
+        xml.append("</body></message>");
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream inputStream = new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                closed.set(true);
+                super.close();
+            }
+        };
+
+        // When
+        Document document = DomUtils.parse(inputStream, ParseLimit.afterElement("header"));
+
+        // Then
+        assertThat(DomUtils.selectString(document, "/message/header/to"), is(equalTo("billing")));
+        assertThat(closed.get(), is(false));
+        assertThat(inputStream.read() >= 0, is(true));
+    }
+
+    @Test
+    public void testLimitNotReached()
+    {
+        // When
+        Document document = DomUtils.parse(stream(XML), ParseLimit.elements(100));
+
+        // Then
+        assertThat(DomUtils.asXml(document.getDocumentElement()), is(equalTo(DomUtils.asXml(DomUtils.parse(XML).getDocumentElement()))));
+        assertThrows(IllegalArgumentException.class, () -> ParseLimit.elements(0));
+    }
+
+    private static InputStream stream(String xml)
+    {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+import com.dataliquid.commons.xml.ns.ImmutableNamespaceContext;
+
+public class ProjectionTest
+{
+    private static final String XML = "<order id=\"7\" date=\"2024-01-01\"><customer type=\"b2b\" vip=\"no\"><name>ACME</name><address>Main St</address></customer>"
+            + "<customer type=\"b2c\"><name>Jane</name></customer><items><item id=\"1\">one</item><item id=\"2\">two</item></items>"
+            + "<!-- note --><notes>long text</notes></order>";
+
+    @Test
+    public void testParseKeepsOnlySelectedSubtrees()
+    {
+        // Given
+        Projection projection = Projection.of("/order/customer[@type='b2b']/name", "/order/items/item/@id");
+
+        // When
+        Document document = DomUtils.parse(stream(XML), projection);
+
+        // Then
+        assertThat(DomUtils.asXml(document.getDocumentElement()), is(equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<order><customer type=\"b2b\"><name>ACME</name></customer><items><item id=\"1\"/><item id=\"2\"/></items></order>")));
+    }
+
+    @Test
+    public void testProjectedDocumentAnswersPaths()
+    {
+        // Given
+        Document full = DomUtils.parse(XML);
+
+        // When
+        Document projected = DomUtils.parse(stream(XML), Projection.of("/order/customer[@type='b2b']/name", "/order/@id"));
+
+        // Then
+        assertThat(DomUtils.selectString(projected, "/order/customer[@type='b2b']/name"),
+                is(equalTo(DomUtils.selectString(full, "/order/customer[@type='b2b']/name"))));
+        assertThat(DomUtils.selectString(projected, "/order/@id"), is(equalTo("7")));
+        assertThat(projected.getDocumentElement().hasAttribute("date"), is(false));
+    }
+
+    @Test
+    public void testParseWithNamespaces()
+    {
+        // Given
+        String xml = "<a:root xmlns:a=\"urn:a\"><a:keep>1</a:keep><a:drop>2</a:drop><keep>3</keep></a:root>";
+        Projection projection = Projection.of(Arrays.asList("/x:root/x:keep"), ImmutableNamespaceContext.of("x", "urn:a"));
+
+        // When
+        Document document = DomUtils.parse(stream(xml), projection);
+
+        // Then
+        assertThat(document.getDocumentElement().getChildNodes().getLength(), is(1));
+        assertThat(document.getDocumentElement().getFirstChild().getNamespaceURI(), is(equalTo("urn:a")));
+        assertThat(document.getDocumentElement().getTextContent(), is(equalTo("1")));
+    }
+
+    @Test
+    public void testParseWithDescendantPath()
+    {
+        // When
+        Document document = DomUtils.parse(stream(XML), Projection.of("//item/@id"));
+
+        // Then
+        assertThat(DomUtils.selectStrings(document, "//item/@id"), is(equalTo(Arrays.asList("1", "2"))));
+        assertThat(document.getDocumentElement().getTextContent(), is(equalTo("")));
+        assertThat(document.getDocumentElement().hasAttribute("id"), is(false));
+    }
+
+    @Test
+    public void testDescendantOrSelfAttributeAndText()
+    {
+        // Given
+        String xml = "<r><a id=\"1\">x<b id=\"2\">y</b>z</a><c id=\"3\">w</c></r>";
+        Document full = DomUtils.parse(xml);
+
+        // When
+        Document attributes = DomUtils.parse(stream(xml), Projection.of("/r/a//@id"));
+        Document texts = DomUtils.parse(stream(xml), Projection.of("/r/a//text()"));
+
+        // Then
+        assertThat(DomUtils.selectStrings(attributes, "/r/a//@id"), is(equalTo(DomUtils.selectStrings(full, "/r/a//@id"))));
+        assertThat(DomUtils.selectStrings(texts, "/r/a//text()"), is(equalTo(DomUtils.selectStrings(full, "/r/a//text()"))));
+        assertThat(DomUtils.selectStrings(full, "/r/a//@id"), is(equalTo(Arrays.asList("1", "2"))));
+    }
+
+    @Test
+    public void testUnsupportedPathsAreRejected()
+    {
+        // When / Then
+        assertThrows(XpathException.class, () -> Projection.of("order/customer"));
+        assertThrows(XpathException.class, () -> Projection.of("/order/customer[1]"));
+        assertThrows(XpathException.class, () -> Projection.of("/order/count(customer)"));
+        assertThrows(XpathException.class, () -> Projection.of("/order/@id/name"));
+        assertThrows(XpathException.class, () -> Projection.of("/order | /other"));
+        assertThrows(XpathException.class, () -> Projection.of("/x:order"));
+        assertThrows(IllegalArgumentException.class, () -> Projection.of());
+    }
+
+    private static InputStream stream(String xml)
+    {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
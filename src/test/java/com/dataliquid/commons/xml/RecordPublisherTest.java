@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+
+public class RecordPublisherTest
+{
+    private static final String XML = "<feed xmlns:x=\"urn:x\"><header><id>H</id></header>"
+            + "<record kind=\"a\"><id>1</id><x:name>one</x:name></record>"
+            + "<record kind=\"b\"><id>2</id></record>"
+            + "<group><record kind=\"c\"><id>3</id></record></group></feed>";
+
+    @Test
+    public void testPublishRecords()
+    {
+        // Given
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> {});
+
+        // When
+        DomUtils.publishRecords(stream(XML), "//record").subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // Then
+        assertThat(subscriber.ids(), is(equalTo(Arrays.asList("1", "2", "3"))));
+        assertThat(subscriber.records.get(0).getAttribute("kind"), is(equalTo("a")));
+        assertThat(DomUtils.selectString(subscriber.records.get(0), "namespace-uri(*[local-name()='name'])"), is(equalTo("urn:x")));
+        assertThat(subscriber.records.get(0).getParentNode(), is(subscriber.records.get(0).getOwnerDocument()));
+        assertThat(subscriber.completed, is(true));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void testRecordsAreDeliveredOnDemand() throws IOException
+    {
+        // Given
+        StringBuilder xml = new StringBuilder("<feed>");
+        for (int i = 0; i < 20000; i++)
+        {
+            xml.append("<record><id>").append(i).append("</id></record>");
+        }
+        xml.append("</feed>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        CountingInputStream inputStream = new CountingInputStream(new ByteArrayInputStream(bytes));
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> {});
+        DomUtils.publishRecords(inputStream, "/feed/record").subscribe(subscriber);
+
+        // When
+        subscriber.subscription.request(2);
+        long afterFirstRequest = inputStream.count;
+        subscriber.subscription.request(3);
+
+        // Then
+        assertThat(subscriber.ids(), is(equalTo(Arrays.asList("0", "1", "2", "3", "4"))));
+        assertThat(afterFirstRequest, is(lessThan((long) bytes.length / 4)));
+        assertThat(subscriber.completed, is(false));
+
+        // When
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+
+        // Then
+        assertThat(subscriber.records.size(), is(5));
+        assertThat(inputStream.closed, is(true));
+        assertThat(subscriber.completed, is(false));
+    }
+
+    @Test
+    public void testRequestFromOnNext()
+    {
+        // Given
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> s.request(1));
+
+        // When
+        DomUtils.publishRecords(stream(XML), "/feed/record").subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        // Then
+        assertThat(subscriber.ids(), is(equalTo(Arrays.asList("1", "2"))));
+        assertThat(subscriber.maxDepth, is(1));
+        assertThat(subscriber.completed, is(true));
+    }
+
+    @Test
+    public void testInvalidRequest()
+    {
+        // Given
+        CountingInputStream inputStream = new CountingInputStream(stream(XML));
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> {});
+        DomUtils.publishRecords(inputStream, "//record").subscribe(subscriber);
+
+        // When
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(0);
+
+        // Then
+        assertThat(subscriber.records.size(), is(1));
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+        assertThat(inputStream.closed, is(true));
+    }
+
+    @Test
+    public void testFailingSubscriberClosesInput()
+    {
+        // Given
+        CountingInputStream inputStream = new CountingInputStream(stream(XML));
+        IllegalStateException failure = new IllegalStateException("failed");
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) ->
+        {
+            throw failure;
+        });
+        DomUtils.publishRecords(inputStream, "//record").subscribe(subscriber);
+
+        // When
+        subscriber.subscription.request(5);
+        subscriber.subscription.request(5);
+
+        // Then
+        assertThat(subscriber.records.size(), is(1));
+        assertThat(subscriber.error, is(sameInstance(failure)));
+        assertThat(inputStream.closed, is(true));
+    }
+
+    @Test
+    public void testMalformedXml()
+    {
+        // Given
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> {});
+        DomUtils.publishRecords(stream("<feed><record><id>1</id></record><record></feed>"), "//record").subscribe(subscriber);
+
+        // When
+        subscriber.subscription.request(10);
+
+        // Then
+        assertThat(subscriber.ids(), is(equalTo(Arrays.asList("1"))));
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+        assertThat(subscriber.completed, is(false));
+    }
+
+    @Test
+    public void testSubscribers() throws IOException
+    {
+        // Given
+        Path file = Files.createTempFile("records", ".xml");
+        Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+        RecordPublisher filePublisher = DomUtils.publishRecords(file, "/feed/group/record");
+        RecordPublisher streamPublisher = DomUtils.publishRecords(stream(XML), "/feed/record");
+
+        try
+        {
+            // When
+            RecordingSubscriber first = new RecordingSubscriber((s, record) -> {});
+            RecordingSubscriber second = new RecordingSubscriber((s, record) -> {});
+            filePublisher.subscribe(first);
+            filePublisher.subscribe(second);
+            first.subscription.request(5);
+            second.subscription.request(5);
+
+            RecordingSubscriber third = new RecordingSubscriber((s, record) -> {});
+            RecordingSubscriber fourth = new RecordingSubscriber((s, record) -> {});
+            streamPublisher.subscribe(third);
+            streamPublisher.subscribe(fourth);
+            third.subscription.request(5);
+            fourth.subscription.request(5);
+
+            // Then
+            assertThat(first.ids(), is(equalTo(Arrays.asList("3"))));
+            assertThat(second.ids(), is(equalTo(Arrays.asList("3"))));
+            assertThat(third.ids(), is(equalTo(Arrays.asList("1", "2"))));
+            assertThat(fourth.error, is(instanceOf(IllegalStateException.class)));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecordsDeclareInheritedNamespaces() throws IOException
+    {
+        // Given
+        Path file = Files.createTempFile("records", ".xml");
+        Files.write(file, ("<feed xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:t=\"urn:types\">"
+                + "<group xmlns:t=\"urn:group\"><record xsi:type=\"t:Special\"><id>1</id></record></group>"
+                + "<record xsi:type=\"t:Plain\"><id>2</id></record></feed>").getBytes(StandardCharsets.UTF_8));
+        RecordingSubscriber subscriber = new RecordingSubscriber((s, record) -> {});
+
+        try
+        {
+            // When
+            DomUtils.publishRecords(file.toFile(), "//record").subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+
+            // Then
+            assertThat(subscriber.ids(), is(equalTo(Arrays.asList("1", "2"))));
+            assertThat(subscriber.records.get(0).lookupNamespaceURI("t"), is(equalTo("urn:group")));
+            assertThat(subscriber.records.get(0).lookupNamespaceURI("xsi"), is(equalTo("http://www.w3.org/2001/XMLSchema-instance")));
+            assertThat(subscriber.records.get(1).lookupNamespaceURI("t"), is(equalTo("urn:types")));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testInvalidRecordPath()
+    {
+        // When / Then
+        assertThrows(XpathException.class, () -> DomUtils.publishRecords(stream(XML), "//record/@kind"));
+        assertThrows(XpathException.class, () -> DomUtils.publishRecords(stream(XML), "//record[last()]"));
+    }
+
+    private static InputStream stream(String xml)
+    {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class RecordingSubscriber implements RecordPublisher.Subscriber<Element>
+    {
+        private final BiConsumer<RecordPublisher.Subscription, Element> onNext;
+        private final List<Element> records = new ArrayList<>();
+        private RecordPublisher.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+        private int depth;
+        private int maxDepth;
+
+        RecordingSubscriber(BiConsumer<RecordPublisher.Subscription, Element> onNext)
+        {
+            this.onNext = onNext;
+        }
+
+        @Override
+        public void onSubscribe(RecordPublisher.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Element item)
+        {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+            records.add(item);
+            onNext.accept(subscription, item);
+            depth--;
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+        }
+
+        List<String> ids()
+        {
+            List<String> ids = new ArrayList<>();
+            for (Element record : records)
+            {
+                ids.add(DomUtils.selectString(record, "id"));
+            }
+            return ids;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+        private boolean closed;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int result = super.read();
+            if (result >= 0)
+            {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int result = super.read(b, off, len);
+            if (result > 0)
+            {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            closed = true;
+            super.close();
+        }
+    }
+}
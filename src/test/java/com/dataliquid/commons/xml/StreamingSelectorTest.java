@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import com.dataliquid.commons.xml.exception.XpathException;
+import com.dataliquid.commons.xml.ns.ImmutableNamespaceContext;
+
+public class StreamingSelectorTest
+{
+    private static final String XML = "<feed><header><id>H-1</id><type>full</type></header>"
+            + "<record kind=\"a\"><id>1</id><name>one <b>bold</b></name></record>"
+            + "<record kind=\"b\"><id>2</id><name>two</name></record>"
+            + "<record kind=\"a\"><id>3</id><name><![CDATA[x<y]]></name></record></feed>";
+
+    @Test
+    public void testSelectStrings()
+    {
+        // When
+        List<String> ids = DomUtils.selectStrings(stream(XML), "//record/id");
+        List<String> kinds = DomUtils.selectStrings(stream(XML), "/feed/record/@kind");
+        List<String> names = DomUtils.selectStrings(stream(XML), "/feed/record[@kind='a']/name");
+        List<String> texts = DomUtils.selectStrings(stream(XML), "/feed/record/name/text()");
+
+        // Then
+        assertThat(ids, is(equalTo(Arrays.asList("1", "2", "3"))));
+        assertThat(kinds, is(equalTo(Arrays.asList("a", "b", "a"))));
+        assertThat(names, is(equalTo(Arrays.asList("one bold", "x<y"))));
+        assertThat(texts, is(equalTo(Arrays.asList("one ", "two", "x<y"))));
+    }
+
+    @Test
+    public void testMatchesDomEvaluation()
+    {
+        // Given
+        String xpath = "//record[@kind='a']/id";
+
+        // When
+        List<String> streamed = DomUtils.selectStrings(stream(XML), xpath);
+
+        // Then
+        assertThat(streamed, is(equalTo(DomUtils.selectStrings(DomUtils.parse(XML), xpath))));
+    }
+
+    @Test
+    public void testSelectStringAndExists()
+    {
+        // When / Then
+        assertThat(DomUtils.selectString(stream(XML), "/feed/header/id"), is(equalTo("H-1")));
+        assertThat(DomUtils.selectString(stream(XML), "/feed/missing"), is(equalTo("")));
+        assertThat(DomUtils.exists(stream(XML), "//record[@kind='b']"), is(true));
+        assertThat(DomUtils.exists(stream(XML), "//record[@kind='c']"), is(false));
+    }
+
+    @Test
+    public void testNestedMatches()
+    {
+        // Given
+        String xml = "<a><x>1<x>2</x></x><x>3</x></a>";
+
+        // When
+        List<String> values = DomUtils.selectStrings(stream(xml), "//x");
+
+        // Then
+        assertThat(values, is(equalTo(Arrays.asList("12", "2", "3"))));
+        assertThat(DomUtils.selectString(stream(xml), "//x"), is(equalTo("12")));
+    }
+
+    @Test
+    public void testNamespaces()
+    {
+        // Given
+        String xml = "<r:root xmlns:r=\"urn:r\"><r:id>1</r:id><id>2</id></r:root>";
+
+        // When
+        String value = DomUtils.selectString(stream(xml), "/p:root/p:id", ImmutableNamespaceContext.of("p", "urn:r"));
+        String plain = DomUtils.selectString(stream(xml), "/p:root/id", ImmutableNamespaceContext.of("p", "urn:r"));
+
+        // Then
+        assertThat(value, is(equalTo("1")));
+        assertThat(plain, is(equalTo("2")));
+    }
+
+    @Test
+    public void testDescendantOrSelfAttributeAndText()
+    {
+        // Given
+        String xml = "<r><a id=\"1\">x<b id=\"2\">y</b>z</a><c id=\"3\">w</c></r>";
+        Document full = DomUtils.parse(xml);
+
+        // When
+        List<String> ids = DomUtils.selectStrings(stream(xml), "/r/a//@id");
+        List<String> texts = DomUtils.selectStrings(stream(xml), "/r/a//text()");
+
+        // Then
+        assertThat(ids, is(equalTo(DomUtils.selectStrings(full, "/r/a//@id"))));
+        assertThat(texts, is(equalTo(DomUtils.selectStrings(full, "/r/a//text()"))));
+        assertThat(DomUtils.selectString(stream(xml), "/r/a//@id"), is(equalTo("1")));
+        assertThat(DomUtils.exists(stream("<r><a id=\"1\"/></r>"), "/r/a//@id"), is(true));
+    }
+
+    @Test
+    public void testReadingStopsAtFirstMatch() throws IOException
+    {
+        // Given
+        StringBuilder xml = new StringBuilder("<feed><header><id>H-1</id></header>");
+        for (int i = 0; i < 20000; i++)
+        {
+            xml.append("<record><id>").append(i).append("</id></record>");
+        }
+        xml.append("<broken><</feed>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        CountingInputStream inputStream = new CountingInputStream(new ByteArrayInputStream(bytes));
+
+        // When
+        String value = DomUtils.selectString(inputStream, "/feed/header/id");
+
+        // Then
+        assertThat(value, is(equalTo("H-1")));
+        assertThat(inputStream.count, is(lessThan((long) bytes.length / 4)));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.selectStrings(new ByteArrayInputStream(bytes), "//record/id"));
+    }
+
+    @Test
+    public void testSelectFromFile() throws IOException
+    {
+        // Given
+        Path file = Files.createTempFile("streaming", ".xml");
+        Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+
+        try
+        {
+            // When
+            List<String> ids = DomUtils.selectStrings(file, "/feed/record/id");
+
+            // Then
+            assertThat(ids, is(equalTo(Arrays.asList("1", "2", "3"))));
+            assertThat(DomUtils.exists(file, "/feed/header"), is(true));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testUnstreamableExpressionIsRejected()
+    {
+        // When / Then
+        assertThrows(XpathException.class, () -> DomUtils.selectStrings(stream(XML), "//record[last()]/id"));
+        assertThrows(XpathException.class, () -> DomUtils.exists(stream(XML), "count(//record) > 1"));
+        assertThrows(XpathException.class, () -> DomUtils.selectString(stream(XML), "/feed/record/../header"));
+    }
+
+    private static InputStream stream(String xml)
+    {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int result = super.read();
+            if (result >= 0)
+            {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int result = super.read(b, off, len);
+            if (result > 0)
+            {
+                count += result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class StreamingXmlWriterTest
+{
+    private static final String NAMESPACE = "http://example.com/ns";
+
+    @Test
+    public void testWriteElements()
+    {
+        // Given
+        StringWriter target = new StringWriter();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().xmlDeclaration(false).build(target))
+        {
+            writer.startDocument()
+                    .startElement("root")
+                    .attribute("id", "1")
+                    .element("name", "Desk")
+                    .emptyElement("empty")
+                    .attribute("flag", "true")
+                    .endElement()
+                    .endDocument();
+        }
+
+        // Then
+        assertThat(target.toString(), equalTo("<root id=\"1\"><name>Desk</name><empty flag=\"true\"/></root>"));
+    }
+
+    @Test
+    public void testWriteEscapesTextAndAttributes()
+    {
+        // Given
+        StringWriter target = new StringWriter();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().build(target))
+        {
+            writer.startDocument().startElement("root").attribute("title", "Tom & \"Jerry\" <3").text("a < b && c").endDocument();
+        }
+
+        // Then
+        Document document = DomUtils.parse(target.toString());
+        assertThat(document.getDocumentElement().getAttribute("title"), equalTo("Tom & \"Jerry\" <3"));
+        assertThat(document.getDocumentElement().getTextContent(), equalTo("a < b && c"));
+    }
+
+    @Test
+    public void testWriteNamespaces()
+    {
+        // Given
+        StringWriter target = new StringWriter();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().build(target))
+        {
+            writer.startDocument()
+                    .startElement(NAMESPACE, "ns:root")
+                    .startElement(NAMESPACE, "ns:child")
+                    .attribute(NAMESPACE, "ns:attr", "value")
+                    .endElement()
+                    .startElement(NAMESPACE, "plain")
+                    .endElement()
+                    .endDocument();
+        }
+
+        // Then
+        Document document = DomUtils.parse(target.toString());
+        Element root = document.getDocumentElement();
+        assertThat(root.getNamespaceURI(), equalTo(NAMESPACE));
+        Element child = DomUtils.selectChildren(root).get(0);
+        assertThat(child.getNamespaceURI(), equalTo(NAMESPACE));
+        assertThat(child.getAttributeNS(NAMESPACE, "attr"), equalTo("value"));
+        assertThat(child.hasAttribute("xmlns:ns"), is(false));
+        Element plain = DomUtils.selectChildren(root).get(1);
+        assertThat(plain.getNamespaceURI(), equalTo(NAMESPACE));
+        assertThat(plain.getLocalName(), equalTo("plain"));
+    }
+
+    @Test
+    public void testWriteWithIndentation()
+    {
+        // Given
+        StringWriter target = new StringWriter();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().indent(4).xmlDeclaration(false).build(target))
+        {
+            writer.startDocument()
+                    .startElement("root")
+                    .startElement("parent")
+                    .element("child", "Value")
+                    .endElement()
+                    .emptyElement("empty")
+                    .endDocument();
+        }
+
+        // Then
+        String expectedXml = "<root>\n    <parent>\n        <child>Value</child>\n    </parent>\n    <empty/>\n</root>";
+        assertThat(target.toString(), equalTo(expectedXml));
+    }
+
+    @Test
+    public void testWriteNodeInline()
+    {
+        // Given
+        Document source = DomUtils.parse("<item xmlns:ns=\"" + NAMESPACE + "\" id=\"1\"><ns:name>Desk</ns:name><!-- note --><empty/></item>");
+        StringWriter target = new StringWriter();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().build(target))
+        {
+            writer.startDocument().startElement("items").node(source.getDocumentElement()).node(source).endDocument();
+        }
+
+        // Then
+        Document document = DomUtils.parse(target.toString());
+        assertThat(DomUtils.selectChildren(document.getDocumentElement(), "item").size(), equalTo(2));
+        Element item = DomUtils.selectChild(document.getDocumentElement(), "item");
+        assertThat(item.getAttribute("id"), equalTo("1"));
+        Element name = DomUtils.selectChildren(item).get(0);
+        assertThat(name.getNamespaceURI(), equalTo(NAMESPACE));
+        assertThat(name.getTextContent(), equalTo("Desk"));
+    }
+
+    @Test
+    public void testWriteLargeDocumentToOutputStream()
+    {
+        // Given
+        CountingOutputStream target = new CountingOutputStream();
+        int count = 100000;
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().build(target))
+        {
+            writer.startDocument().startElement("records");
+            for (int i = 0; i < count; i++)
+            {
+                writer.startElement("record").attribute("id", String.valueOf(i)).text("Value " + i).endElement();
+            }
+            writer.endDocument();
+        }
+
+        // Then
+        assertThat(target.count > count * 30L, is(true));
+    }
+
+    @Test
+    public void testWriteWithEncoding()
+    {
+        // Given
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        // When
+        try (StreamingXmlWriter writer = StreamingXmlWriter.builder().encoding("ISO-8859-1").build(target))
+        {
+            writer.startDocument().element("root", "Grüße").endDocument();
+        }
+
+        // Then
+        String xml = new String(target.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(xml.contains("encoding=\"ISO-8859-1\""), is(true));
+        assertThat(xml.contains("Grüße"), is(true));
+    }
+
+    @Test
+    public void testEndElementWithoutOpenElement()
+    {
+        // Given
+        StreamingXmlWriter writer = StreamingXmlWriter.builder().build(new StringWriter());
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> writer.endElement());
+    }
+
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private long count;
+
+        @Override
+        public void write(int b)
+        {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+        {
+            count += length;
+        }
+    }
+}
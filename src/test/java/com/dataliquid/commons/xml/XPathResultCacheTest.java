@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.dataliquid.commons.xml.ns.DefaultNamespaceContext;
+import com.dataliquid.commons.xml.ns.ImmutableNamespaceContext;
+
+public class XPathResultCacheTest
+{
+    private static final String XML = "<rules><rule id=\"1\">on</rule><rule id=\"2\">off</rule></rules>";
+
+    @Test
+    public void testRepeatedEvaluationIsCached()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        XPathResultCache cache = DomUtils.cacheResults(document, 16);
+
+        // When
+        String first = DomUtils.selectString(document, "/rules/rule[@id='1']");
+        String second = DomUtils.selectString(document, "/rules/rule[@id='1']");
+        Boolean exists = DomUtils.selectBoolean(document, "count(/rules/rule) = 2");
+        DomUtils.selectBoolean(document, "count(/rules/rule) = 2");
+
+        // Then
+        assertThat(first, is(equalTo("on")));
+        assertThat(second, is(equalTo("on")));
+        assertThat(exists, is(true));
+        XPathResultCache.Statistics statistics = cache.getStatistics();
+        assertThat(statistics.getHits(), is(2L));
+        assertThat(statistics.getMisses(), is(2L));
+        assertThat(statistics.getHitRate(), is(0.5));
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void testContextNodeIsPartOfKey()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        DomUtils.cacheResults(document, 16);
+        Element first = (Element) document.getDocumentElement().getFirstChild();
+        Element second = (Element) document.getDocumentElement().getLastChild();
+
+        // When
+        String firstId = DomUtils.selectString(first, "@id");
+        String secondId = DomUtils.selectString(second, "@id");
+
+        // Then
+        assertThat(firstId, is(equalTo("1")));
+        assertThat(secondId, is(equalTo("2")));
+    }
+
+    @Test
+    public void testMutationInvalidatesCache()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        XPathResultCache cache = DomUtils.cacheResults(document, 16);
+        DomUtils.selectString(document, "/rules/rule[@id='1']");
+
+        // When
+        document.getDocumentElement().getFirstChild().setTextContent("changed");
+        String value = DomUtils.selectString(document, "/rules/rule[@id='1']");
+
+        // Then
+        assertThat(value, is(equalTo("changed")));
+        assertThat(cache.getStatistics().getInvalidations(), is(1L));
+        assertThat(cache.getStatistics().getHits(), is(0L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        XPathResultCache cache = DomUtils.cacheResults(document, 2);
+
+        // When
+        DomUtils.selectString(document, "/rules/rule[1]");
+        DomUtils.selectString(document, "/rules/rule[2]");
+        DomUtils.selectString(document, "/rules/rule[1]");
+        DomUtils.selectString(document, "count(/rules/rule)");
+        DomUtils.selectString(document, "/rules/rule[1]");
+
+        // Then
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getStatistics().getHits(), is(2L));
+    }
+
+    @Test
+    public void testEqualNamespaceContextsShareEntries()
+    {
+        // Given
+        Document document = DomUtils.parse("<p:rules xmlns:p=\"urn:p\"><p:rule>on</p:rule></p:rules>");
+        XPathResultCache cache = DomUtils.cacheResults(document, 16);
+
+        // When
+        DomUtils.selectString(document, "/p:rules/p:rule", ImmutableNamespaceContext.of("p", "urn:p"));
+        String value = DomUtils.selectString(document, "/p:rules/p:rule", ImmutableNamespaceContext.of("p", "urn:p"));
+        DomUtils.selectBoolean(document, "count(/p:rules/p:rule) = 1", ImmutableNamespaceContext.of("p", "urn:p"));
+        DomUtils.selectString(document, "count(//xs:element)", new DefaultNamespaceContext());
+        DomUtils.selectString(document, "count(//xs:element)", new DefaultNamespaceContext());
+
+        // Then
+        assertThat(value, is(equalTo("on")));
+        assertThat(cache.getStatistics().getHits(), is(2L));
+        assertThat(cache.getStatistics().getMisses(), is(3L));
+    }
+
+    @Test
+    public void testRemoveResultCache()
+    {
+        // Given
+        Document document = DomUtils.parse(XML);
+        XPathResultCache cache = DomUtils.cacheResults(document, 16);
+
+        // When
+        DomUtils.removeResultCache(document);
+        DomUtils.selectString(document, "/rules/rule[1]");
+
+        // Then
+        assertThat(cache.getStatistics().getMisses(), is(0L));
+        assertThat(ChangeTracker.get(document), is(nullValue()));
+        assertThrows(IllegalArgumentException.class, () -> DomUtils.cacheResults(document, 0));
+    }
+}
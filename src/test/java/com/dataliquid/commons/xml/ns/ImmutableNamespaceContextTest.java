@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.ns;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import com.dataliquid.commons.xml.DomUtils;
+
+public class ImmutableNamespaceContextTest
+{
+    private static final String NS_A = "urn:a";
+    private static final String NS_B = "urn:b";
+
+    @Test
+    public void testGetNamespaceURI()
+    {
+        // Given
+        ImmutableNamespaceContext context = ImmutableNamespaceContext.builder().add("a", NS_A).add("b", NS_B).defaultNamespace(NS_B).build();
+
+        // When / Then
+        assertThat(context.getNamespaceURI("a"), is(equalTo(NS_A)));
+        assertThat(context.getNamespaceURI("b"), is(equalTo(NS_B)));
+        assertThat(context.getNamespaceURI(""), is(equalTo(NS_B)));
+        assertThat(context.getNamespaceURI("c"), is(equalTo(XMLConstants.NULL_NS_URI)));
+        assertThat(context.getNamespaceURI("xml"), is(equalTo(XMLConstants.XML_NS_URI)));
+        assertThat(context.getNamespaceURI("xmlns"), is(equalTo(XMLConstants.XMLNS_ATTRIBUTE_NS_URI)));
+        assertThrows(IllegalArgumentException.class, () -> context.getNamespaceURI(null));
+    }
+
+    @Test
+    public void testGetPrefix()
+    {
+        // Given
+        ImmutableNamespaceContext context = ImmutableNamespaceContext.builder().add("z", NS_A).add("a", NS_A).build();
+
+        // When / Then
+        assertThat(context.getPrefix(NS_A), is(equalTo("a")));
+        assertThat(context.getPrefix(NS_B), is(nullValue()));
+        assertThat(context.getPrefix(XMLConstants.XML_NS_URI), is(equalTo("xml")));
+        assertThrows(IllegalArgumentException.class, () -> context.getPrefix(null));
+    }
+
+    @Test
+    public void testGetPrefixes()
+    {
+        // Given
+        ImmutableNamespaceContext context = ImmutableNamespaceContext.builder().add("z", NS_A).add("a", NS_A).build();
+
+        // When
+        List<String> prefixes = new ArrayList<>();
+        context.getPrefixes(NS_A).forEachRemaining(prefixes::add);
+        Iterator<String> unbound = context.getPrefixes(NS_B);
+
+        // Then
+        assertThat(prefixes, is(equalTo(Arrays.asList("a", "z"))));
+        assertThat(unbound.hasNext(), is(false));
+        Iterator<String> iterator = context.getPrefixes(NS_A);
+        iterator.next();
+        assertThrows(UnsupportedOperationException.class, iterator::remove);
+    }
+
+    @Test
+    public void testGetPrefixesAgreesWithGetPrefixForDefaultNamespace()
+    {
+        // Given
+        ImmutableNamespaceContext none = ImmutableNamespaceContext.builder().add("a", NS_A).build();
+        ImmutableNamespaceContext withDefault = ImmutableNamespaceContext.builder().add("a", NS_A).defaultNamespace(NS_A).build();
+
+        // When
+        List<String> noNamespace = new ArrayList<>();
+        none.getPrefixes(XMLConstants.NULL_NS_URI).forEachRemaining(noNamespace::add);
+        List<String> defaultNamespace = new ArrayList<>();
+        withDefault.getPrefixes(NS_A).forEachRemaining(defaultNamespace::add);
+
+        // Then
+        assertThat(none.getPrefix(XMLConstants.NULL_NS_URI), is(equalTo("")));
+        assertThat(noNamespace, is(equalTo(Arrays.asList(""))));
+        assertThat(withDefault.getPrefix(NS_A), is(equalTo("")));
+        assertThat(defaultNamespace, is(equalTo(Arrays.asList("", "a"))));
+    }
+
+    @Test
+    public void testEqualsAndHashCode()
+    {
+        // Given
+        ImmutableNamespaceContext first = ImmutableNamespaceContext.builder().add("a", NS_A).add("b", NS_B).build();
+        ImmutableNamespaceContext second = ImmutableNamespaceContext.builder().add("b", NS_B).add("a", NS_A).build();
+        ImmutableNamespaceContext third = ImmutableNamespaceContext.builder().add("a", NS_A).build();
+
+        // When / Then
+        assertThat(first, is(equalTo(second)));
+        assertThat(first.hashCode(), is(equalTo(second.hashCode())));
+        assertThat(first, is(not(equalTo(third))));
+        assertThat(first.toBuilder().build(), is(equalTo(first)));
+        assertThat(third.toString(), is(equalTo("ImmutableNamespaceContext[a=urn:a]")));
+    }
+
+    @Test
+    public void testInvalidBindings()
+    {
+        // Given
+        ImmutableNamespaceContext.Builder builder = ImmutableNamespaceContext.builder();
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> builder.add("", NS_A));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("a", ""));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("xml", NS_A));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("xmlns", NS_A));
+    }
+
+    @Test
+    public void testSelectStringWithContext()
+    {
+        // Given
+        Document document = DomUtils.parse("<root xmlns=\"urn:a\"><item>value</item></root>");
+        ImmutableNamespaceContext context = ImmutableNamespaceContext.of("a", NS_A);
+
+        // When
+        String value = DomUtils.selectString(document, "/a:root/a:item", context);
+
+        // Then
+        assertThat(value, is(equalTo("value")));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.schema;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.dataliquid.commons.xml.DomUtils;
+import com.dataliquid.commons.xml.ElementOrder;
+
+public class SchemaElementOrdersTest
+{
+    private static final File SCHEMA = new File("src/test/resources/xsd/test-element-order.xsd");
+
+    @Test
+    public void testElementOrder()
+    {
+        // Given
+        SchemaElementOrders orders = SchemaElementOrders.load(SCHEMA);
+
+        // When
+        ElementOrder order = orders.forElement("order");
+
+        // Then
+        assertThat(order.getNames(), equalTo(Arrays.asList("id", "customer", "invoice", "card", "item", "note")));
+        assertThat(order.isLocalNames(), is(true));
+        assertThat(orders.forElement("note"), nullValue());
+    }
+
+    @Test
+    public void testTypeOrders()
+    {
+        // Given
+        SchemaElementOrders orders = SchemaElementOrders.load(SCHEMA);
+
+        // When
+        ElementOrder item = orders.forType("o:ItemType");
+
+        // Then
+        assertThat(item.getNames(), equalTo(Arrays.asList("sku", "title", "quantity", "price")));
+        assertThat(orders.forType("PartyType").getNames(), equalTo(Arrays.asList("name", "email")));
+        assertThat(orders.forElement("item"), sameInstance(item));
+        assertThat(orders.forType("Unknown"), nullValue());
+    }
+
+    @Test
+    public void testInsertElementWithSchemaOrder()
+    {
+        // Given
+        SchemaElementOrders orders = SchemaElementOrders.load(SCHEMA);
+        Document document = DomUtils.parse("<o:order xmlns:o=\"urn:order\"><o:id>1</o:id><o:item/></o:order>", true);
+        Element parent = document.getDocumentElement();
+        Element card = document.createElementNS("urn:order", "o:card");
+
+        // When
+        Element inserted = DomUtils.insertElement(parent, card, orders.forParent(parent));
+
+        // Then
+        assertThat(inserted.getPreviousSibling().getLocalName(), equalTo("id"));
+        assertThat(inserted.getNextSibling().getLocalName(), equalTo("item"));
+    }
+
+    @Test
+    public void testLoadIsCachedUntilModified() throws IOException
+    {
+        // Given
+        File schema = File.createTempFile("order", ".xsd");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), Files.readAllBytes(new File("src/test/resources/xsd/test-element-order-types.xsd").toPath()));
+        SchemaElementOrders first = SchemaElementOrders.load(schema);
+
+        // When
+        SchemaElementOrders cached = SchemaElementOrders.load(schema);
+        schema.setLastModified(schema.lastModified() - 10000);
+        SchemaElementOrders reloaded = SchemaElementOrders.load(schema);
+
+        // Then
+        assertThat(cached, sameInstance(first));
+        assertThat(reloaded, not(sameInstance(first)));
+        assertThat(reloaded.getTypeNames(), equalTo(first.getTypeNames()));
+    }
+
+    @Test
+    public void testLoadIsReloadedWhenIncludedSchemaIsModified() throws IOException
+    {
+        // Given
+        Path directory = Files.createTempDirectory("schemas");
+        Path main = directory.resolve("main.xsd");
+        Path included = directory.resolve("included.xsd");
+        Files.write(main, ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"><xs:include schemaLocation=\"included.xsd\"/>"
+                + "<xs:element name=\"root\" type=\"RootType\"/></xs:schema>").getBytes(StandardCharsets.UTF_8));
+        Files.write(included, ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"><xs:complexType name=\"RootType\">"
+                + "<xs:sequence><xs:element name=\"a\"/><xs:element name=\"b\"/></xs:sequence></xs:complexType></xs:schema>")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        try
+        {
+            SchemaElementOrders first = SchemaElementOrders.load(main.toFile());
+
+            // When
+            Files.write(included, ("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"><xs:complexType name=\"RootType\">"
+                    + "<xs:sequence><xs:element name=\"b\"/><xs:element name=\"a\"/></xs:sequence></xs:complexType></xs:schema>")
+                            .getBytes(StandardCharsets.UTF_8));
+            included.toFile().setLastModified(included.toFile().lastModified() - 10000);
+            SchemaElementOrders reloaded = SchemaElementOrders.load(main.toFile());
+
+            // Then
+            assertThat(first.forElement("root").getNames(), equalTo(Arrays.asList("a", "b")));
+            assertThat(reloaded.forElement("root").getNames(), equalTo(Arrays.asList("b", "a")));
+        }
+        finally
+        {
+            Files.delete(main);
+            Files.delete(included);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testLocalElementsResolvedByParent()
+    {
+        // Given
+        SchemaElementOrders orders = SchemaElementOrders.load(new File("src/test/resources/xsd/test-element-order-scoped.xsd"));
+        Document document = DomUtils.parse("<s:shipment xmlns:s=\"urn:scoped\"><s:sender><s:address/></s:sender>"
+                + "<s:parcel><s:address/></s:parcel></s:shipment>", true);
+        Element sender = (Element) document.getDocumentElement().getFirstChild();
+        Element parcel = (Element) document.getDocumentElement().getLastChild();
+
+        // When
+        ElementOrder senderAddress = orders.forParent(sender.getFirstChild());
+        ElementOrder parcelAddress = orders.forParent(parcel.getFirstChild());
+
+        // Then
+        assertThat(senderAddress.getNames(), equalTo(Arrays.asList("street", "city")));
+        assertThat(parcelAddress.getNames(), equalTo(Arrays.asList("locker", "city")));
+        assertThat(orders.forElement("address"), nullValue());
+        assertThat(orders.forParent(sender).getNames(), equalTo(Arrays.asList("name", "address")));
+    }
+
+    @Test
+    public void testLoadMissingSchema()
+    {
+        assertThrows(IllegalArgumentException.class, () -> SchemaElementOrders.load(new File("src/test/resources/xsd/missing.xsd")));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.xslt;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.transform.Templates;
+
+import org.junit.jupiter.api.Test;
+
+public class TemplatesCacheTest
+{
+    private static final File STYLESHEET = new File("src/test/resources/xslt/test-transform.xsl");
+
+    @Test
+    public void testGetTemplatesIsCached()
+    {
+        // Given
+        TemplatesCache cache = new TemplatesCache(4);
+
+        // When
+        Templates first = cache.getTemplates(STYLESHEET);
+        Templates second = cache.getTemplates(STYLESHEET);
+
+        // Then
+        assertThat(second, sameInstance(first));
+        TemplatesCache.Statistics statistics = cache.getStatistics(STYLESHEET);
+        assertThat(statistics, notNullValue());
+        assertThat(statistics.getCompilations(), equalTo(1L));
+        assertThat(statistics.getHits(), equalTo(1L));
+    }
+
+    @Test
+    public void testGetTemplatesRecompilesModifiedStylesheet() throws IOException
+    {
+        // Given
+        File stylesheet = File.createTempFile("test-transform", ".xsl");
+        stylesheet.deleteOnExit();
+        Files.write(stylesheet.toPath(), Files.readAllBytes(STYLESHEET.toPath()));
+        TemplatesCache cache = new TemplatesCache(4);
+        Templates first = cache.getTemplates(stylesheet);
+
+        // When
+        stylesheet.setLastModified(stylesheet.lastModified() - 10000L);
+        Templates second = cache.getTemplates(stylesheet);
+
+        // Then
+        assertThat(second, not(sameInstance(first)));
+        assertThat(cache.getStatistics(stylesheet).getCompilations(), equalTo(2L));
+        assertThat(cache.getStatistics(stylesheet).getHits(), equalTo(0L));
+    }
+
+    @Test
+    public void testGetTemplatesEvictsLeastRecentlyUsed() throws IOException
+    {
+        // Given
+        File other = File.createTempFile("test-transform", ".xsl");
+        other.deleteOnExit();
+        Files.write(other.toPath(), Files.readAllBytes(STYLESHEET.toPath()));
+        TemplatesCache cache = new TemplatesCache(1);
+        cache.getTemplates(STYLESHEET);
+
+        // When
+        cache.getTemplates(other);
+
+        // Then
+        assertThat(cache.size(), equalTo(1));
+        assertThat(cache.getStatistics(STYLESHEET), nullValue());
+        assertThat(cache.getStatistics(other), notNullValue());
+    }
+
+    @Test
+    public void testGetTemplatesInvalidStylesheet() throws IOException
+    {
+        // Given
+        File stylesheet = File.createTempFile("test-invalid", ".xsl");
+        stylesheet.deleteOnExit();
+        Files.write(stylesheet.toPath(), "<no-stylesheet/>".getBytes(StandardCharsets.UTF_8));
+        TemplatesCache cache = new TemplatesCache(4);
+
+        // When & Then
+        assertThrows(RuntimeException.class, () -> cache.getTemplates(stylesheet));
+    }
+
+    @Test
+    public void testInvalidMaximumSize()
+    {
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> new TemplatesCache(0));
+    }
+}
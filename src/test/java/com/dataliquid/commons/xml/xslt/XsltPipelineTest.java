@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dataliquid.commons.xml.xslt;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import com.dataliquid.commons.xml.DomUtils;
+import com.dataliquid.commons.xml.exception.XsltException;
+
+public class XsltPipelineTest
+{
+    private static final File TRANSFORM = new File("src/test/resources/xslt/test-transform.xsl");
+    private static final File UPPERCASE = new File("src/test/resources/xslt/test-pipeline-uppercase.xsl");
+
+    @Test
+    public void testTransformToDocument()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>one</element><element>two</element></root>");
+        XsltPipeline pipeline = XsltPipeline.builder().stylesheet(TRANSFORM).stylesheet(UPPERCASE).build();
+
+        // When
+        Document result = pipeline.transform(document);
+
+        // Then
+        assertThat(pipeline.size(), equalTo(2));
+        assertThat(DomUtils.selectStrings(result, "/result/item"), equalTo(Arrays.asList("HELLO ONE", "HELLO TWO")));
+    }
+
+    @Test
+    public void testTransformToWriterWithParameters()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>one</element></root>");
+        XsltPipeline pipeline = XsltPipeline.builder()
+                .stylesheet(TRANSFORM, Collections.singletonMap("greeting", "hi"))
+                .identity()
+                .stylesheet(UPPERCASE, Collections.singletonMap("suffix", "!"))
+                .build();
+        StringWriter writer = new StringWriter();
+
+        // When
+        pipeline.transform(document, writer);
+
+        // Then
+        assertThat(DomUtils.selectString(DomUtils.parse(writer.toString()), "/result/item"), equalTo("HI ONE!"));
+    }
+
+    @Test
+    public void testTransformToOutputStream()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>one</element></root>");
+        XsltPipeline pipeline = XsltPipeline.builder().stylesheet(TRANSFORM).build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        pipeline.transform(document, outputStream);
+
+        // Then
+        Document result = DomUtils.parse(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertThat(DomUtils.selectString(result, "/result/item"), equalTo("Hello one"));
+    }
+
+    @Test
+    public void testEmptyPipelineIsIdentity()
+    {
+        // Given
+        Document document = DomUtils.parse("<root><element>one</element></root>");
+        XsltPipeline pipeline = XsltPipeline.builder().build();
+
+        // When
+        Document result = pipeline.transform(document);
+
+        // Then
+        assertThat(DomUtils.selectString(result, "/root/element"), equalTo("one"));
+    }
+
+    @Test
+    public void testTransformInvalidStylesheet()
+    {
+        // Given
+        Document document = DomUtils.parse("<root/>");
+        XsltPipeline pipeline = XsltPipeline.builder().stylesheet(new File("src/test/resources/xml/test-parse-file.xml")).build();
+
+        // When & Then
+        assertThrows(XsltException.class, () -> pipeline.transform(document));
+    }
+}
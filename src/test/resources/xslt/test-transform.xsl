@@ -0,0 +1,27 @@
+<!--
+
+    Copyright © 2019 dataliquid GmbH | www.dataliquid.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+-->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+	<xsl:param name="greeting" select="'Hello'" />
+	<xsl:template match="/root">
+		<result>
+			<xsl:for-each select="element">
+				<item><xsl:value-of select="concat($greeting, ' ', .)" /></item>
+			</xsl:for-each>
+		</result>
+	</xsl:template>
+</xsl:stylesheet>